@@ -3,13 +3,23 @@ package com.example.demo.ratelimiter.algo;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RedisClock;
+import com.example.demo.ratelimiter.common.RedisDenialCache;
+import com.example.demo.ratelimiter.common.RedisKeyLayout;
+import com.example.demo.ratelimiter.common.RedisMicroBatcher;
 import com.example.demo.ratelimiter.common.RedisRateLimiter;
+import com.example.demo.ratelimiter.common.RedisReplies;
+import com.example.demo.ratelimiter.common.RedisScriptRegistry;
 
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Redis Sliding Window Counter Algorithm
@@ -32,61 +42,145 @@ import java.util.Collections;
  */
 @Component
 public class RedisSlidingWindowCounterLimiter implements RedisRateLimiter {
-
+    
     private final RedisTemplate<String, String> redisTemplate;
+    private final RedisScriptRegistry scriptRegistry;
+    private final RedisKeyLayout keyLayout;
+    private final RedisClock clock;
+    private final RedisMicroBatcher batcher;
+    private final RedisDenialCache denialCache;
     private final RateLimitConfig defaultConfig;
-    private final RedisScript<Long> slidingWindowScript;
-
-    // Lua 스크립트 - 슬라이딩 윈도우 카운터 로직
-    private static final String LUA_SCRIPT = """
-        local key = KEYS[1]
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> slidingWindowScript;
+    private final RedisScript<Long> statusScript;
+    
+    // Lua 스크립트 - 슬라이딩 윈도우 카운터 로직 (KEYS의 모든 카운터를 한 번에 처리)
+    private static final String LUA_SCRIPT = RedisClock.LUA_TIME + """
         local limit = tonumber(ARGV[1])
         local window_size = tonumber(ARGV[2])
-        local current_time = tonumber(ARGV[3])
+        local current_time = script_time(ARGV[3])
+        local permits = tonumber(ARGV[4])
+        local results = {}
         
         -- 현재 윈도우와 이전 윈도우 계산
         local current_window = math.floor(current_time / window_size)
         local previous_window = current_window - 1
         
-        -- 윈도우별 키 생성
+        -- 현재 윈도우에서의 진행률 계산 (0.0 ~ 1.0)
+        local window_start_time = current_window * window_size
+        local next_window_time = window_start_time + window_size
+        local time_into_window = current_time - window_start_time
+        local percentage_of_current_window = time_into_window / window_size
+        
+        for i, key in ipairs(KEYS) do
+            -- 윈도우별 키 생성
+            local current_key = key .. ':' .. current_window
+            local previous_key = key .. ':' .. previous_window
+            
+            -- 현재 윈도우와 이전 윈도우의 카운트 가져오기
+            local current_count = tonumber(redis.call('GET', current_key)) or 0
+            local previous_count = tonumber(redis.call('GET', previous_key)) or 0
+            
+            -- 가중 평균으로 추정 요청 수 계산
+            local estimated_previous_count = previous_count * (1.0 - percentage_of_current_window)
+            local estimated_count = math.floor(estimated_previous_count + current_count)
+            
+            -- 제한 확인 (permits개가 모두 들어갈 수 있어야 허용)
+            local allowed = 0
+            local retry_after = 0
+            if estimated_count + permits <= limit then
+                -- 현재 윈도우 카운터 증가
+                redis.call('INCRBY', current_key, permits)
+                -- TTL 설정 (윈도우 크기의 2배로 설정하여 이전 윈도우 데이터 유지)
+                redis.call('EXPIRE', current_key, math.ceil(window_size / 1000) * 2)
+                
+                estimated_count = estimated_count + permits
+                allowed = 1
+            elseif permits > limit then
+                retry_after = -1
+            else
+                -- 거부: 가중치가 줄어 permits개가 들어갈 수 있게 되는 시각까지 대기
+                local room = limit - current_count - permits
+                local wait_until
+                if room >= 0 then
+                    -- 현재 윈도우 안에서 이전 윈도우 가중치가 충분히 줄어드는 시각
+                    wait_until = window_start_time + window_size * (1.0 - room / previous_count)
+                else
+                    -- 다음 윈도우에서 현재 윈도우(다음의 이전 윈도우) 가중치가 충분히 줄어드는 시각
+                    wait_until = next_window_time + window_size * (1.0 - (limit - permits) / current_count)
+            end
+                retry_after = math.max(1, math.ceil(wait_until - current_time))
+            end
+            
+            -- [허용 여부, 남은 용량, 다음 윈도우 시작 시간, 대기 시간]
+            local base = (i - 1) * 4
+            results[base + 1] = allowed
+            results[base + 2] = math.max(0, limit - estimated_count)
+            results[base + 3] = next_window_time
+            results[base + 4] = retry_after
+        end
+        return results
+        """;
+    
+    // 상태 조회 Lua 스크립트 (소비 없이 남은 용량 계산)
+    private static final String STATUS_SCRIPT = RedisClock.LUA_TIME + """
+        local key = KEYS[1]
+        local limit = tonumber(ARGV[1])
+        local window_size = tonumber(ARGV[2])
+        local current_time = script_time(ARGV[3])
+        
+        local current_window = math.floor(current_time / window_size)
+        local previous_window = current_window - 1
+        
         local current_key = key .. ':' .. current_window
         local previous_key = key .. ':' .. previous_window
         
-        -- 현재 윈도우에서의 진행률 계산 (0.0 ~ 1.0)
         local window_start_time = current_window * window_size
         local time_into_window = current_time - window_start_time
         local percentage_of_current_window = time_into_window / window_size
         
-        -- 현재 윈도우와 이전 윈도우의 카운트 가져오기
         local current_count = tonumber(redis.call('GET', current_key)) or 0
         local previous_count = tonumber(redis.call('GET', previous_key)) or 0
         
-        -- 가중 평균으로 추정 요청 수 계산
         local estimated_previous_count = previous_count * (1.0 - percentage_of_current_window)
         local estimated_count = math.floor(estimated_previous_count + current_count)
         
-        -- 제한 확인
-        if estimated_count < limit then
-            -- 현재 윈도우 카운터 증가
-            local new_count = redis.call('INCR', current_key)
-            -- TTL 설정 (윈도우 크기의 2배로 설정하여 이전 윈도우 데이터 유지)
-            redis.call('EXPIRE', current_key, math.ceil(window_size / 1000) * 2)
-            
-            return 1  -- 허용됨
-        else
-            return 0  -- 거부됨
-        end
+        return math.max(0, limit - estimated_count)
         """;
-
-    public RedisSlidingWindowCounterLimiter(RedisTemplate<String, String> redisTemplate) {
+    
+    public RedisSlidingWindowCounterLimiter(RedisTemplate<String, String> redisTemplate,
+                                            RedisScriptRegistry scriptRegistry, RedisKeyLayout keyLayout,
+                                            RedisClock clock, RedisMicroBatcher batcher,
+                                            RedisDenialCache denialCache) {
         this.redisTemplate = redisTemplate;
+        this.scriptRegistry = scriptRegistry;
+        this.keyLayout = keyLayout;
+        this.clock = clock;
+        this.batcher = batcher;
+        this.denialCache = denialCache;
         this.defaultConfig = RateLimitConfig.forWindow(10, 60000); // 1분당 10개 요청
-        this.slidingWindowScript = RedisScript.of(LUA_SCRIPT, Long.class);
+        this.slidingWindowScript = scriptRegistry.register("sliding_window_counter", LUA_SCRIPT, List.class);
+        this.statusScript = scriptRegistry.register("sliding_window_counter_status", STATUS_SCRIPT, Long.class);
     }
-
+    
     @Override
     public RateLimitResult tryAcquire(String key) {
-        return tryAcquire(key, defaultConfig);
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public List<RateLimitResult> tryAcquireEach(List<String> keys) {
+        return tryAcquireEach(keys, defaultConfig);
+    }
+    
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, int permits) {
+        return tryAcquireAsync(key, defaultConfig, permits);
     }
     
     @Override
@@ -96,91 +190,136 @@ public class RedisSlidingWindowCounterLimiter implements RedisRateLimiter {
     
     @Override
     public void reset(String key) {
-        String redisKey = "sliding_window_counter:" + key;
-        long currentTime = System.currentTimeMillis();
+        String redisKey = keyLayout.key("sliding_window_counter", key);
+        long currentTime = clock.now();
         long currentWindow = currentTime / defaultConfig.getWindowSizeMs();
         long previousWindow = currentWindow - 1;
         
         redisTemplate.delete(redisKey + ":" + currentWindow);
         redisTemplate.delete(redisKey + ":" + previousWindow);
+        denialCache.invalidate(redisKey);
     }
     
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        String redisKey = "sliding_window_counter:" + key;
-        long currentTime = System.currentTimeMillis();
-        
-        Long result = redisTemplate.execute(
-            slidingWindowScript,
-            Collections.singletonList(redisKey),
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 한 번에 카운트
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        if (batcher.isEnabled()) {
+            return RedisMicroBatcher.join(tryAcquireAsync(key, config, permits));
+        }
+        String redisKey = keyLayout.key("sliding_window_counter", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            return denied;
+        }
+        long currentTime = clock.now();
+        List<Long> results = execute(Collections.singletonList(redisKey), config, permits, currentTime);
+        return denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime));
+    }
+    
+    /**
+     * 여러 키를 Lua 스크립트 한 번(Redis 왕복 1회)으로 처리
+     * 키마다 독립적으로 요청 1개씩 카운트하며, 결과는 keys와 같은 순서
+     * 단일 키 호출과 마찬가지로 거부 결과는 RedisDenialCache에 기록하고, 기록된 키는 Redis 호출 없이 거부
+     */
+    public List<RateLimitResult> tryAcquireEach(List<String> keys, RateLimitConfig config) {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            redisKeys.add(keyLayout.key("sliding_window_counter", key));
+        }
+        // 거부가 기록된 키는 Redis에 보내지 않고, 나머지 키만 한 번에 실행
+        return denialCache.acquireEach(redisKeys, config, 1, pending -> {
+            long currentTime = clock.now();
+            List<Long> results = execute(pending, config, 1, currentTime);
+            
+            List<RateLimitResult> limitResults = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                limitResults.add(toResult(results, i, currentTime));
+            }
+            return limitResults;
+        });
+    }
+    
+    /**
+     * 특정 설정으로 비동기 요청 처리
+     */
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config) {
+        return tryAcquireAsync(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 비동기로 처리 (Redis 응답을 기다리는 동안 스레드를 점유하지 않음)
+     */
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        String redisKey = keyLayout.key("sliding_window_counter", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            // 거부가 기록된 키는 Redis를 호출하지 않음
+            return CompletableFuture.completedFuture(denied);
+        }
+        if (batcher.isEnabled()) {
+            // 동시에 들어온 다른 호출과 묶어서 한 번에 실행
+            return batcher.submit(slidingWindowScript, redisKey, config, permits, this::scriptArgs)
+                .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, clock.now())));
+        }
+        long currentTime = clock.now();
+        return executeAsync(Collections.singletonList(redisKey), config, permits, currentTime)
+            .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime)));
+    }
+    
+    private List<Long> execute(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeys(slidingWindowScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    /**
+     * 리액티브 명령으로 스크립트 실행 - 응답은 Redis 클라이언트의 I/O 스레드에서 완료됨
+     */
+    private CompletionStage<List<Long>> executeAsync(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeysAsync(slidingWindowScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    private List<String> scriptArgs(RateLimitConfig config, int permits, long currentTime) {
+        return List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getWindowSizeMs()),
-            String.valueOf(currentTime)
+            clock.scriptTime(currentTime),
+            String.valueOf(permits)
         );
-        
-        if (result != null && result == 1) {
-            // 다시 상태를 조회하여 정확한 남은 용량 계산
-            RateLimitResult status = getStatus(key, config);
-            return RateLimitResult.allowed(
-                status.getRemainingTokens(),
-                getNextWindowStart(currentTime, config.getWindowSizeMs()),
-                "REDIS_SLIDING_WINDOW_COUNTER",
-                "Request counted in sliding window"
-            );
-        } else {
-            return RateLimitResult.denied(
-                0,
-                getNextWindowStart(currentTime, config.getWindowSizeMs()),
-                "REDIS_SLIDING_WINDOW_COUNTER",
-                "Sliding window counter limit exceeded"
-            );
-        }
+    }
+    
+    /**
+     * 스크립트 응답에서 index번째 키의 결과 추출 (허용 여부, 남은 수, 리셋 시간, 대기 시간을 한 번에 받음)
+     */
+    private RateLimitResult toResult(List<Long> results, int index, long currentTime) {
+        return RedisReplies.toResult(results, index, currentTime, "REDIS_SLIDING_WINDOW_COUNTER", "Request counted in sliding window", "Sliding window counter limit exceeded");
     }
     
     /**
      * 상태 조회 (카운터 증가 없이)
      */
     public RateLimitResult getStatus(String key, RateLimitConfig config) {
-        String redisKey = "sliding_window_counter:" + key;
-        long currentTime = System.currentTimeMillis();
+        String redisKey = keyLayout.key("sliding_window_counter", key);
+        long currentTime = clock.now();
         
-        // 상태만 조회하는 Lua 스크립트
-        String statusScript = """
-            local key = KEYS[1]
-            local limit = tonumber(ARGV[1])
-            local window_size = tonumber(ARGV[2])
-            local current_time = tonumber(ARGV[3])
-            
-            local current_window = math.floor(current_time / window_size)
-            local previous_window = current_window - 1
-            
-            local current_key = key .. ':' .. current_window
-            local previous_key = key .. ':' .. previous_window
-            
-            local window_start_time = current_window * window_size
-            local time_into_window = current_time - window_start_time
-            local percentage_of_current_window = time_into_window / window_size
-            
-            local current_count = tonumber(redis.call('GET', current_key)) or 0
-            local previous_count = tonumber(redis.call('GET', previous_key)) or 0
-            
-            local estimated_previous_count = previous_count * (1.0 - percentage_of_current_window)
-            local estimated_count = math.floor(estimated_previous_count + current_count)
-            
-            return math.max(0, limit - estimated_count)
-            """;
-        
-        RedisScript<Long> statusRedisScript = RedisScript.of(statusScript, Long.class);
-        
-        Long remainingCapacity = redisTemplate.execute(
-            statusRedisScript,
-            Collections.singletonList(redisKey),
+        Long remainingCapacity = scriptRegistry.execute(statusScript, Collections.singletonList(redisKey), List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getWindowSizeMs()),
-            String.valueOf(currentTime)
-        );
+            clock.scriptTime(currentTime)
+        ));
         
         return RateLimitResult.allowed(
             remainingCapacity != null ? remainingCapacity : config.getCapacity(),
@@ -3,20 +3,33 @@ package com.example.demo.ratelimiter.algo;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RedisClock;
+import com.example.demo.ratelimiter.common.RedisDenialCache;
+import com.example.demo.ratelimiter.common.RedisKeyLayout;
+import com.example.demo.ratelimiter.common.RedisMicroBatcher;
 import com.example.demo.ratelimiter.common.RedisRateLimiter;
+import com.example.demo.ratelimiter.common.RedisReplies;
+import com.example.demo.ratelimiter.common.RedisScriptRegistry;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.UUID;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Redis Sliding Window Log Algorithm
  * 
  * 동작 원리:
  * - Redis Sorted Set을 사용하여 각 요청의 타임스탬프를 로그에 저장
+ *   (멤버와 점수 모두 "요청 시각 * 1024 + 순번" 정수 하나로 저장하여 요청당 메모리 최소화)
+ * - 로그가 bucket-threshold개를 넘으면 하위 윈도우별 카운트(Hash)로 전환하여 키당 메모리 상한 유지
+ *   (하위 윈도우 단위로 셈하므로 그만큼 보수적으로 제한, 키가 만료되면 다시 로그로 시작)
  * - 윈도우 크기만큼의 과거 요청들을 추적
  * - 새 요청 시 오래된 로그를 제거하고 현재 요청 수 확인
  * - Lua 스크립트로 원자적 연산 보장
@@ -34,51 +47,223 @@ import java.util.UUID;
  */
 @Component
 public class RedisSlidingWindowLogRateLimiter implements RedisRateLimiter {
-
+    
     private final RedisTemplate<String, String> redisTemplate;
+    private final RedisScriptRegistry scriptRegistry;
+    private final RedisKeyLayout keyLayout;
+    private final RedisClock clock;
+    private final RedisMicroBatcher batcher;
+    private final RedisDenialCache denialCache;
     private final RateLimitConfig defaultConfig;
-    private final RedisScript<Long> slidingWindowLogScript;
-
-    // 개선된 Lua 스크립트 - 완전한 정리 보장
-    private static final String LUA_SCRIPT = """
-        local key = KEYS[1]
+    private final int bucketThreshold;   // 로그가 이 수를 넘으면 버킷 모드로 전환
+    private final int buckets;           // 버킷 모드의 윈도우당 하위 윈도우 수
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> slidingWindowLogScript;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> statusScript;
+    
+    // 두 스크립트가 공유하는 키 형식 처리 함수
+    // - 로그 모드(ZSET): 멤버와 점수 모두 요청 ID = 요청 시각(ms) * 1024 + 순번 (정수 문자열이라 listpack에 작게 저장됨)
+    // - 버킷 모드(HASH): 필드 = 하위 윈도우 번호, 값 = 요청 수
+    //   하위 윈도우 번호가 first_bucket 이상이면 모두 셈 (윈도우 시작에 걸친 하위 윈도우도 포함하므로 초과 허용 없음)
+    private static final String LUA_COMMON = RedisClock.LUA_TIME + """
         local limit = tonumber(ARGV[1])
         local window_size = tonumber(ARGV[2])
-        local current_time = tonumber(ARGV[3])
-        local request_id = ARGV[4]
+        local current_time = script_time(ARGV[3])
+        local buckets = tonumber(ARGV[4])
+        local bucket_size = math.max(1, math.ceil(window_size / buckets))
+        local current_bucket = math.floor(current_time / bucket_size)
+        local first_bucket = current_bucket - buckets
         
-        -- 윈도우 시작 시간 계산  
-        local window_start = current_time - window_size
+        -- 요청 ID는 2^53보다 작아 double로 정확히 표현되지만, 기본 숫자→문자열 변환은 지수 표기가 되므로 직접 포맷
+        local function id_string(id)
+            return string.format('%d', id)
+        end
         
-        -- 1. 간단하게 오래된 요청 삭제 (양수일 때만)
-        if window_start > 0 then
-            redis.call('ZREMRANGEBYSCORE', key, 0, window_start)
+        -- 윈도우를 벗어난 로그 삭제 후 [요청 수, 가장 오래된 요청 시각(없으면 nil)] 반환
+        local function trim_log(key)
+            local min_id = (current_time - window_size + 1) * 1024
+            redis.call('ZREMRANGEBYSCORE', key, '-inf', '(' .. id_string(min_id))
+            local oldest = redis.call('ZRANGE', key, 0, 0, 'WITHSCORES')
+            local oldest_time = oldest[2] and math.floor(tonumber(oldest[2]) / 1024) or nil
+            return redis.call('ZCARD', key), oldest_time
         end
         
-        -- 2. 현재 윈도우 내의 요청 수 확인
-        local count = redis.call('ZCARD', key)
+        -- 윈도우를 벗어난 하위 윈도우 삭제 후 [요청 수, 하위 윈도우별 {번호, 요청 수} (오래된 순)] 반환
+        local function trim_buckets(key)
+            local data = redis.call('HGETALL', key)
+            local counts = {}
+            local count = 0
+            for j = 1, #data, 2 do
+                local bucket = tonumber(data[j])
+                if bucket < first_bucket then
+                    redis.call('HDEL', key, data[j])
+                else
+                    local c = tonumber(data[j + 1])
+                    counts[#counts + 1] = {bucket, c}
+                    count = count + c
+                end
+            end
+            table.sort(counts, function(a, b) return a[1] < b[1] end)
+            return count, counts
+        end
         
-        -- 3. 제한 확인
-        if count < limit then
-            -- 4. 현재 요청을 로그에 추가
-            redis.call('ZADD', key, current_time, request_id)
-            -- TTL 설정 (윈도우 크기 * 2 + 여유시간)
-            redis.call('EXPIRE', key, math.ceil(window_size / 1000) * 2 + 60)
-            return limit - count - 1  -- 남은 용량 반환
-        else
-            return -1  -- 거부됨
+        -- 하위 윈도우가 윈도우에서 빠지는 시각
+        local function bucket_expiry(bucket)
+            return (bucket + buckets + 1) * bucket_size
         end
         """;
-
-    public RedisSlidingWindowLogRateLimiter(RedisTemplate<String, String> redisTemplate) {
+    
+    // Lua 스크립트 - KEYS의 모든 로그를 한 번에 처리
+    // 로그가 bucket_threshold개를 넘으면 하위 윈도우별 카운트(버킷 모드)로 전환하고, 키가 만료되면 다시 로그 모드로 시작
+    private static final String LUA_SCRIPT = LUA_COMMON + """
+        local permits = tonumber(ARGV[5])
+        local bucket_threshold = tonumber(ARGV[6])
+        local results = {}
+        
+        local function acquire_buckets(key)
+            local count, counts = trim_buckets(key)
+            local allowed = 0
+            local retry_after = 0
+            if count + permits <= limit then
+                redis.call('HINCRBY', key, id_string(current_bucket), permits)
+                redis.call('PEXPIRE', key, window_size + bucket_size * 2)
+                count = count + permits
+                allowed = 1
+            elseif permits > limit then
+                retry_after = -1
+            else
+                -- 오래된 하위 윈도우부터 빠지면서 permits개가 들어갈 자리가 생기는 시각까지 대기
+                local need = count + permits - limit
+                local freed = 0
+                for _, entry in ipairs(counts) do
+                    freed = freed + entry[2]
+                    if freed >= need then
+                        retry_after = bucket_expiry(entry[1]) - current_time
+                        break
+                    end
+                end
+            end
+            local oldest_bucket = counts[1] and counts[1][1] or current_bucket
+            return allowed, limit - count, bucket_expiry(oldest_bucket), retry_after
+        end
+        
+        local function acquire_log(key)
+            local count, oldest_time = trim_log(key)
+            
+            -- 로그가 임계값을 넘게 되면 기존 로그를 하위 윈도우별 카운트로 바꿈
+            if limit > bucket_threshold and count + permits > bucket_threshold then
+                local entries = redis.call('ZRANGE', key, 0, -1, 'WITHSCORES')
+                redis.call('DEL', key)
+                for j = 2, #entries, 2 do
+                    local request_time = math.floor(tonumber(entries[j]) / 1024)
+                    redis.call('HINCRBY', key, id_string(math.floor(request_time / bucket_size)), 1)
+                end
+                return acquire_buckets(key)
+            end
+            
+            local allowed = 0
+            local retry_after = 0
+            if count + permits <= limit then
+                -- 요청 ID는 마지막 ID보다 크게 (같은 ms의 요청, 시계가 뒤로 간 인스턴스의 요청도 겹치지 않음)
+                local id = current_time * 1024
+                local last = redis.call('ZRANGE', key, -1, -1, 'WITHSCORES')
+                if last[2] then
+                    id = math.max(id, tonumber(last[2]) + 1)
+                end
+                for p = 1, permits do
+                    local member = id_string(id + p - 1)
+                    redis.call('ZADD', key, member, member)
+                end
+                redis.call('PEXPIRE', key, window_size + 1000)
+                count = count + permits
+                allowed = 1
+                oldest_time = oldest_time or current_time
+            elseif permits > limit then
+                retry_after = -1
+            else
+                -- 거부: (count + permits - limit)번째로 오래된 요청이 윈도우를 벗어날 때까지 대기
+                local rank = count + permits - limit - 1
+                local blocking = redis.call('ZRANGE', key, rank, rank, 'WITHSCORES')
+                retry_after = math.floor(tonumber(blocking[2]) / 1024) + window_size - current_time
+            end
+            
+            -- 리셋 시간 = 가장 오래된 요청이 윈도우를 벗어나는 시각
+            return allowed, limit - count, (oldest_time or current_time) + window_size, retry_after
+        end
+        
+        for i, key in ipairs(KEYS) do
+            local allowed, remaining, reset_time, retry_after
+            if redis.call('TYPE', key).ok == 'hash' then
+                allowed, remaining, reset_time, retry_after = acquire_buckets(key)
+            else
+                allowed, remaining, reset_time, retry_after = acquire_log(key)
+            end
+            
+            -- [허용 여부, 남은 용량, 리셋 시간, 대기 시간]
+            local base = (i - 1) * 4
+            results[base + 1] = allowed
+            results[base + 2] = remaining
+            results[base + 3] = reset_time
+            results[base + 4] = retry_after
+        end
+        return results
+        """;
+    
+    // 상태 조회 Lua 스크립트 (소비 없이 남은 용량 계산)
+    private static final String STATUS_SCRIPT = LUA_COMMON + """
+        local key = KEYS[1]
+        
+        -- 현재 요청 수와 가장 오래된 요청 시각 (없으면 -1)
+        if redis.call('TYPE', key).ok == 'hash' then
+            local count, counts = trim_buckets(key)
+            local oldest_time = counts[1] and bucket_expiry(counts[1][1]) - window_size or -1
+            return {math.max(0, limit - count), oldest_time}
+        end
+        local count, oldest_time = trim_log(key)
+        return {math.max(0, limit - count), oldest_time or -1}
+        """;
+    
+    public RedisSlidingWindowLogRateLimiter(RedisTemplate<String, String> redisTemplate,
+                                            RedisScriptRegistry scriptRegistry, RedisKeyLayout keyLayout,
+                                            RedisClock clock, RedisMicroBatcher batcher,
+                                            RedisDenialCache denialCache,
+                                            @Value("${ratelimiter.redis.sliding-log.bucket-threshold:128}") int bucketThreshold,
+                                            @Value("${ratelimiter.redis.sliding-log.buckets:64}") int buckets) {
+        if (bucketThreshold <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("bucket-threshold와 buckets는 0보다 커야 합니다");
+        }
         this.redisTemplate = redisTemplate;
+        this.scriptRegistry = scriptRegistry;
+        this.keyLayout = keyLayout;
+        this.clock = clock;
+        this.batcher = batcher;
+        this.denialCache = denialCache;
+        this.bucketThreshold = bucketThreshold;
+        this.buckets = buckets;
         this.defaultConfig = RateLimitConfig.forWindow(10, 60000); // 1분당 10개 요청
-        this.slidingWindowLogScript = RedisScript.of(LUA_SCRIPT, Long.class);
+        this.slidingWindowLogScript = scriptRegistry.register("sliding_window_log", LUA_SCRIPT, List.class);
+        this.statusScript = scriptRegistry.register("sliding_window_log_status", STATUS_SCRIPT, List.class);
     }
-
+    
     @Override
     public RateLimitResult tryAcquire(String key) {
-        return tryAcquire(key, defaultConfig);
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public List<RateLimitResult> tryAcquireEach(List<String> keys) {
+        return tryAcquireEach(keys, defaultConfig);
+    }
+    
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, int permits) {
+        return tryAcquireAsync(key, defaultConfig, permits);
     }
     
     @Override
@@ -88,108 +273,146 @@ public class RedisSlidingWindowLogRateLimiter implements RedisRateLimiter {
     
     @Override
     public void reset(String key) {
-        String redisKey = "sliding_window_log:" + key;
+        String redisKey = keyLayout.key("sliding_window_log", key);
         redisTemplate.delete(redisKey);
+        denialCache.invalidate(redisKey);
     }
     
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        String redisKey = "sliding_window_log:" + key;
-        long currentTime = System.currentTimeMillis();
-        String requestId = currentTime + "_" + UUID.randomUUID().toString().substring(0, 8);
-        
-        Long result = redisTemplate.execute(
-            slidingWindowLogScript,
-            Collections.singletonList(redisKey),
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 한 번에 기록
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        if (batcher.isEnabled()) {
+            return RedisMicroBatcher.join(tryAcquireAsync(key, config, permits));
+        }
+        String redisKey = keyLayout.key("sliding_window_log", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            return denied;
+        }
+        long currentTime = clock.now();
+        List<Long> results = execute(Collections.singletonList(redisKey), config, permits, currentTime);
+        return denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime));
+    }
+    
+    /**
+     * 여러 키를 Lua 스크립트 한 번으로 처리
+     * 키마다 독립적으로 요청 1개씩 기록하며, 결과는 keys와 같은 순서
+     * 단일 키 호출과 마찬가지로 거부 결과는 RedisDenialCache에 기록하고, 기록된 키는 Redis 호출 없이 거부
+     */
+    public List<RateLimitResult> tryAcquireEach(List<String> keys, RateLimitConfig config) {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            redisKeys.add(keyLayout.key("sliding_window_log", key));
+        }
+        // 거부가 기록된 키는 Redis에 보내지 않고, 나머지 키만 한 번에 실행
+        return denialCache.acquireEach(redisKeys, config, 1, pending -> {
+            long currentTime = clock.now();
+            List<Long> results = execute(pending, config, 1, currentTime);
+            
+            List<RateLimitResult> limitResults = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                limitResults.add(toResult(results, i, currentTime));
+            }
+            return limitResults;
+        });
+    }
+    
+    /**
+     * 특정 설정으로 비동기 요청 처리
+     */
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config) {
+        return tryAcquireAsync(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 비동기로 처리 (Redis 응답을 기다리는 동안 스레드를 점유하지 않음)
+     */
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        String redisKey = keyLayout.key("sliding_window_log", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            // 거부가 기록된 키는 Redis를 호출하지 않음
+            return CompletableFuture.completedFuture(denied);
+        }
+        if (batcher.isEnabled()) {
+            // 동시에 들어온 다른 호출과 묶어서 한 번에 실행
+            return batcher.submit(slidingWindowLogScript, redisKey, config, permits, this::scriptArgs)
+                .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, clock.now())));
+        }
+        long currentTime = clock.now();
+        return executeAsync(Collections.singletonList(redisKey), config, permits, currentTime)
+            .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime)));
+    }
+    
+    private List<Long> execute(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeys(slidingWindowLogScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    /**
+     * 리액티브 명령으로 스크립트 실행 - 응답은 Redis 클라이언트의 I/O 스레드에서 완료됨
+     */
+    private CompletionStage<List<Long>> executeAsync(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeysAsync(slidingWindowLogScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    private List<String> scriptArgs(RateLimitConfig config, int permits, long currentTime) {
+        return List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getWindowSizeMs()),
-            String.valueOf(currentTime),
-            requestId
+            clock.scriptTime(currentTime),
+            String.valueOf(buckets),
+            String.valueOf(permits),
+            String.valueOf(bucketThreshold)
         );
-        
-        if (result != null && result >= 0) {
-            return RateLimitResult.allowed(
-                result,
-                getNextResetTime(redisKey, currentTime, config.getWindowSizeMs()),
-                "REDIS_SLIDING_WINDOW_LOG",
-                "Request allowed, remaining: " + result
-            );
-        } else {
-            return RateLimitResult.denied(
-                0,
-                getNextResetTime(redisKey, currentTime, config.getWindowSizeMs()),
-                "REDIS_SLIDING_WINDOW_LOG",
-                "Rate limit exceeded"
-            );
-        }
+    }
+    
+    /**
+     * 스크립트 응답에서 index번째 키의 결과 추출 (허용 여부, 남은 수, 리셋 시간, 대기 시간을 한 번에 받음)
+     */
+    private RateLimitResult toResult(List<Long> results, int index, long currentTime) {
+        return RedisReplies.toResult(results, index, currentTime, "REDIS_SLIDING_WINDOW_LOG", "Request allowed", "Rate limit exceeded");
     }
     
     /**
      * 상태 조회 (요청 추가 없이)
      */
     public RateLimitResult getStatus(String key, RateLimitConfig config) {
-        String redisKey = "sliding_window_log:" + key;
-        long currentTime = System.currentTimeMillis();
-        
-        // 상태만 조회하는 Lua 스크립트
-        String statusScript = """
-            local key = KEYS[1]
-            local limit = tonumber(ARGV[1])
-            local window_size = tonumber(ARGV[2])
-            local current_time = tonumber(ARGV[3])
-            
-            local window_start = current_time - window_size
-            
-            -- 간단하게 오래된 요청 삭제 (양수일 때만)
-            if window_start > 0 then
-                redis.call('ZREMRANGEBYSCORE', key, 0, window_start)
-            end
-            
-            -- 현재 요청 수 확인
-            local count = redis.call('ZCARD', key)
-            
-            return math.max(0, limit - count)
-            """;
-        
-        RedisScript<Long> statusRedisScript = RedisScript.of(statusScript, Long.class);
+        String redisKey = keyLayout.key("sliding_window_log", key);
+        long currentTime = clock.now();
         
-        Long remainingCapacity = redisTemplate.execute(
-            statusRedisScript,
-            Collections.singletonList(redisKey),
+        // [남은 용량, 가장 오래된 요청 시각]을 한 번에 조회
+        List<Long> status = RedisReplies.toLongs(scriptRegistry.execute(statusScript, Collections.singletonList(redisKey), List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getWindowSizeMs()),
-            String.valueOf(currentTime)
-        );
+            clock.scriptTime(currentTime),
+            String.valueOf(buckets)
+        )));
+        long remainingCapacity = status.size() > 0 && status.get(0) != null ? status.get(0) : config.getCapacity();
+        long oldest = status.size() > 1 && status.get(1) != null ? status.get(1) : -1;
         
         return RateLimitResult.allowed(
-            remainingCapacity != null ? remainingCapacity : config.getCapacity(),
-            getNextResetTime(redisKey, currentTime, config.getWindowSizeMs()),
+            remainingCapacity,
+            (oldest >= 0 ? oldest : currentTime) + config.getWindowSizeMs(),
             "REDIS_SLIDING_WINDOW_LOG",
             "Current sliding window status"
         );
     }
     
-    /**
-     * 다음 리셋 시간 계산
-     * 가장 오래된 요청이 윈도우를 벗어나는 시간
-     */
-    private long getNextResetTime(String redisKey, long currentTime, long windowSizeMs) {
-        // 가장 오래된 요청의 타임스탬프 가져오기
-        Double oldestScore = redisTemplate.opsForZSet().range(redisKey, 0, 0)
-            .stream()
-            .findFirst()
-            .map(member -> redisTemplate.opsForZSet().score(redisKey, member))
-            .orElse(null);
-        
-        if (oldestScore != null) {
-            return oldestScore.longValue() + windowSizeMs;
-        } else {
-            return currentTime + windowSizeMs;
-        }
-    }
-    
     /**
      * 레거시 메서드 - 기존 코드와의 호환성을 위해 유지
      */
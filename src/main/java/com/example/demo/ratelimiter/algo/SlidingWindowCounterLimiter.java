@@ -3,21 +3,29 @@ package com.example.demo.ratelimiter.algo;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitWaiter;
+import com.example.demo.ratelimiter.store.ExpirableState;
+import com.example.demo.ratelimiter.store.KeyedStateStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
 
 /**
  * Sliding Window Counter Algorithm
  * 
  * 동작 원리:
- * - 현재 윈도우와 이전 윈도우의 카운터를 조합하여 계산
- * - 가중 평균을 사용하여 슬라이딩 윈도우 효과를 근사
+ * - 윈도우를 N개의 하위 윈도우로 나누어 카운트하고, 가장 오래된 하위 윈도우는 겹치는 비율만큼 반영
+ * - 가중 평균을 사용하여 슬라이딩 윈도우 효과를 근사 (N = 1이면 현재/이전 윈도우 조합)
  * - Fixed Window의 단점을 보완하면서 메모리 효율적
  * 
  * 장점:
- * - 메모리 효율적 (키당 3개의 값만 저장)
+ * - 메모리 효율적 (키당 N + 1개의 카운터만 저장)
+ * - N으로 정확도 조절 가능 (Fixed Window ~ Sliding Window Log 사이)
  * - Fixed Window의 버스트 문제 완화
  * - 성능이 우수함
  * - 구현이 비교적 간단
@@ -30,21 +38,53 @@ import java.util.concurrent.atomic.AtomicLong;
 @Component
 public class SlidingWindowCounterLimiter implements RateLimiter {
     
-    private final ConcurrentHashMap<String, SlidingWindowCounter> counters = new ConcurrentHashMap<>();
+    private final KeyedStateStore<SlidingWindowCounter> counters;
     private final RateLimitConfig defaultConfig;
+    private final LongSupplier clock;
     
     public SlidingWindowCounterLimiter() {
-        this.defaultConfig = RateLimitConfig.forWindow(10, 60000); // 1분당 10개 요청
+        this(false);
+    }
+    
+    /**
+     * Spring 빈 생성자
+     * @param failOpen 키 저장소가 가득 찼을 때 새 키를 거부하지 않고 추적 없이 판정할지 여부 (ratelimiter.memory.fail-open)
+     */
+    @Autowired
+    public SlidingWindowCounterLimiter(@Value("${ratelimiter.memory.fail-open:false}") boolean failOpen) {
+        this(RateLimitConfig.forWindow(10, 60000), failOpen); // 1분당 10개 요청
     }
     
     public SlidingWindowCounterLimiter(RateLimitConfig config) {
+        this(config, false);
+    }
+    
+    public SlidingWindowCounterLimiter(RateLimitConfig config, boolean failOpen) {
+        this(config, failOpen, System::currentTimeMillis);
+    }
+    
+    /**
+     * 현재 시각(밀리초)을 주입받는 생성자 (테스트에서 윈도우 경계를 결정적으로 재현하기 위함)
+     */
+    SlidingWindowCounterLimiter(RateLimitConfig config, boolean failOpen, LongSupplier clock) {
+        this.counters = new KeyedStateStore<>(KeyedStateStore.DEFAULT_MAX_KEYS, failOpen);
         this.defaultConfig = config;
+        this.clock = clock;
     }
     
     @Override
     public RateLimitResult tryAcquire(String key) {
-        SlidingWindowCounter counter = counters.computeIfAbsent(key, k -> new SlidingWindowCounter(defaultConfig));
-        return counter.tryIncrement();
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits, long timeout, TimeUnit unit) {
+        return tryAcquire(key, defaultConfig, permits, unit.toNanos(timeout));
     }
     
     @Override
@@ -53,7 +93,7 @@ public class SlidingWindowCounterLimiter implements RateLimiter {
         if (counter == null) {
             return RateLimitResult.allowed(
                 defaultConfig.getCapacity(), 
-                System.currentTimeMillis() + defaultConfig.getWindowSizeMs(), 
+                clock.getAsLong() + defaultConfig.getWindowSizeMs(), 
                 "SLIDING_WINDOW_COUNTER"
             );
         }
@@ -68,111 +108,244 @@ public class SlidingWindowCounterLimiter implements RateLimiter {
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        SlidingWindowCounter counter = counters.computeIfAbsent(key, k -> new SlidingWindowCounter(config));
-        return counter.tryIncrement();
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 한 번에 카운트
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        return tryAcquire(key, config, permits, TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMs()));
+    }
+    
+    /**
+     * 거부되면 resetTime에 깨어나 재시도하며 최대 timeoutNanos 동안 대기
+     * 윈도우 기반은 미래 슬롯을 예약할 수 없으므로 대기자 간 허용 순서는 보장하지 않음
+     */
+    private RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits, long timeoutNanos) {
+        RateLimiter.checkPermits(permits);
+        if (permits > config.getCapacity()) {
+            // 윈도우 한도보다 많이 요청하면 기다려도 허용될 수 없음
+            return RateLimitResult.denied(0, clock.getAsLong(), -1, "SLIDING_WINDOW_COUNTER", "Requested permits exceed window limit");
+        }
+        RateLimitResult result = tryIncrement(key, config, permits);
+        if (result.isAllowed() || timeoutNanos <= 0) {
+            return result;
+        }
+        return RateLimitWaiter.retryUntilReset(result, () -> tryIncrement(key, config, permits), timeoutNanos);
+    }
+    
+    private RateLimitResult tryIncrement(String key, RateLimitConfig config, int permits) {
+        SlidingWindowCounter counter = getCounter(key, config);
+        if (counter == null) {
+            // 저장소가 제한 중인 키로 가득 참 - 기존 키의 기록을 지우지 않고 새 키를 거부
+            return RateLimitResult.tooManyKeys(clock.getAsLong() + config.getWindowSizeMs(), "SLIDING_WINDOW_COUNTER");
+        }
+        return counter.tryIncrement(permits);
+    }
+    
+    /**
+     * 키에 해당하는 카운터 조회 (람다 캡처 할당은 최초 생성 시에만)
+     * @return 카운터, 저장소가 가득 차 새 키를 받을 수 없으면 null
+     */
+    private SlidingWindowCounter getCounter(String key, RateLimitConfig config) {
+        SlidingWindowCounter counter = counters.get(key);
+        if (counter != null) {
+            return counter;
+        }
+        return counters.getOrCreate(key, k -> new SlidingWindowCounter(config, clock));
     }
     
     /**
      * Sliding Window Counter 내부 구현 클래스
+     * 
+     * 윈도우를 N개의 하위 윈도우로 나누고, 하위 윈도우별 카운터를 N + 1칸 링(AtomicLongArray)에 저장
+     * - 추정 요청 수 = 현재 및 직전 N - 1개 하위 윈도우의 합 + 가장 오래된 하위 윈도우 × (겹치는 비율)
+     * - N = 1이면 기존의 현재/이전 윈도우 가중 평균과 동일
+     * - 각 칸은 [하위 윈도우 번호 : 상위 32비트][카운트 : 하위 32비트]로 묶여 있어,
+     *   윈도우 교체와 카운트 증가를 락 없이 CAS로 처리
+     * 
+     * 초과 허용 방지:
+     * - 요청은 자신의 하위 윈도우를 latestWindow에 먼저 기록한 뒤 과거 칸을 읽음
+     * - 현재 칸 CAS에 성공한 뒤 latestWindow가 더 최신이면(늦게 도착한 요청이 지나간 칸을 증가시킴)
+     *   증가분을 되돌리고 최신 하위 윈도우에서 다시 시도
+     * 따라서 다음 하위 윈도우의 요청이 과거 칸을 읽은 뒤에는 그 칸의 카운트가 늘어나지 않음
+     * (되돌리기 전 잠시 보인 증가분 때문에 다른 요청이 거부될 수는 있지만 초과 허용은 없음)
+     * 
+     * 시계 역행:
+     * - 현재 시각이 latestWindow보다 이전이면 latestWindow를 현재 하위 윈도우로 취급 (재시도로 대기하지 않음)
+     * - 이미 기록된 하위 윈도우 카운트는 시각이 되돌아가도 다시 허용되지 않음
+     * 
+     * 하위 윈도우 크기는 windowSizeMs / N (RateLimitConfig.forSlidingWindow에서 나누어떨어지는지 검증)
      */
-    private static class SlidingWindowCounter {
-        private final AtomicLong currentWindowStart;
-        private final AtomicLong currentWindowCounter;
-        private final AtomicLong previousWindowCounter;
+    private static class SlidingWindowCounter implements ExpirableState {
+        private static final long COUNT_MASK = 0xFFFFFFFFL;
+        
+        private final AtomicLongArray slots;
+        private final AtomicLong latestWindow = new AtomicLong(Long.MIN_VALUE);   // 관찰된 가장 최신 하위 윈도우
+        private final int subWindows;
+        private final long subWindowMs;
         private final RateLimitConfig config;
+        private final LongSupplier clock;
         
-        public SlidingWindowCounter(RateLimitConfig config) {
+        public SlidingWindowCounter(RateLimitConfig config, LongSupplier clock) {
             this.config = config;
-            long currentWindow = getCurrentWindow();
-            this.currentWindowStart = new AtomicLong(currentWindow);
-            this.currentWindowCounter = new AtomicLong(0);
-            this.previousWindowCounter = new AtomicLong(0);
+            this.clock = clock;
+            this.subWindows = Math.max(1, config.getSubWindows());
+            this.subWindowMs = Math.max(1, config.getWindowSizeMs() / subWindows);
+            this.slots = new AtomicLongArray(subWindows + 1);
         }
         
-        public RateLimitResult tryIncrement() {
-            updateWindows();
-            
-            long estimatedCount = getEstimatedCount();
-            if (estimatedCount < config.getCapacity()) {
-                currentWindowCounter.incrementAndGet();
-                return RateLimitResult.allowed(
-                    config.getCapacity() - estimatedCount - 1,
-                    getNextWindowStart(),
-                    "SLIDING_WINDOW_COUNTER",
-                    "Request counted in sliding window"
-                );
+        public RateLimitResult tryIncrement(int permits) {
+            while (true) {
+                long latest = latestWindow.get();
+                long now = clock.getAsLong();
+                long window = now / subWindowMs;
+                if (window < latest) {
+                    // 시계가 역행했거나 다른 스레드가 더 늦은 시각을 관찰함 - 관찰된 최신 하위 윈도우의 시작 시각으로 판정
+                    window = latest;
+                    now = window * subWindowMs;
+                }
+                int index = indexOf(window);
+                long slot = slots.get(index);
+                int age = (int) window - windowOf(slot);
+                
+                if (age < 0) {
+                    // 다른 스레드가 칸을 더 최신 하위 윈도우로 교체했지만 아직 알리기 전 - 대신 알리고 그 윈도우에서 재시도
+                    latestWindow.accumulateAndGet(window - age, Math::max);
+                    continue;
+                }
+                if (age > 0) {
+                    // 새로운 하위 윈도우로 이동 - 이미 지나간 카운트를 0으로 교체
+                    slots.compareAndSet(index, slot, pack(window, 0));
+                    continue;
+                }
+                
+                // 과거 칸을 읽기 전에 이 하위 윈도우에 도달했음을 알림
+                if (latestWindow.get() < window) {
+                    latestWindow.accumulateAndGet(window, Math::max);
+                }
+                
+                long estimatedCount = (long) (getPastCount(window, now) + countOf(slot));
+                if (estimatedCount + permits > config.getCapacity()) {
+                    return RateLimitResult.denied(
+                        0, 
+                        getNextWindowStart(window), 
+                        "SLIDING_WINDOW_COUNTER",
+                        "Sliding window counter limit exceeded"
+                    );
+                }
+                
+                if (slots.compareAndSet(index, slot, slot + permits)) {
+                    if (latestWindow.get() > window) {
+                        // 다음 하위 윈도우의 요청이 이미 이 칸을 읽었을 수 있음 - 되돌리고 재시도
+                        undo(index, window, permits);
+                        continue;
+                    }
+                    return RateLimitResult.allowed(
+                        config.getCapacity() - estimatedCount - permits,
+                        getNextWindowStart(window),
+                        "SLIDING_WINDOW_COUNTER",
+                        "Request counted in sliding window"
+                    );
+                }
             }
-            
-            return RateLimitResult.denied(
-                0, 
-                getNextWindowStart(), 
-                "SLIDING_WINDOW_COUNTER",
-                "Sliding window counter limit exceeded"
-            );
         }
         
         public RateLimitResult getStatus() {
-            updateWindows();
+            long latest = latestWindow.get();
+            long now = clock.getAsLong();
+            long window = now / subWindowMs;
+            if (window < latest) {
+                window = latest;
+                now = window * subWindowMs;
+            }
             
-            long estimatedCount = getEstimatedCount();
+            long estimatedCount = (long) (getPastCount(window, now) + getCount(window));
             return RateLimitResult.allowed(
-                config.getCapacity() - estimatedCount,
-                getNextWindowStart(),
+                Math.max(0, config.getCapacity() - estimatedCount),
+                getNextWindowStart(window),
                 "SLIDING_WINDOW_COUNTER",
                 "Current sliding window counter status"
             );
         }
         
         /**
-         * 윈도우 상태 업데이트
-         * 새로운 윈도우로 이동했는지 확인하고 필요시 카운터 이동
+         * 슬라이딩 윈도우에 걸치는 모든 하위 윈도우의 카운트가 0이면 초기 상태와 동일
          */
-        private synchronized void updateWindows() {
-            long currentWindow = getCurrentWindow();
-            long windowStart = currentWindowStart.get();
-            
-            if (currentWindow > windowStart) {
-                // 새로운 윈도우로 이동
-                // 현재 윈도우의 카운터를 이전 윈도우로 이동
-                previousWindowCounter.set(currentWindowCounter.get());
-                currentWindowCounter.set(0);
-                currentWindowStart.set(currentWindow);
+        @Override
+        public boolean isFresh() {
+            long window = Math.max(clock.getAsLong() / subWindowMs, latestWindow.get());
+            for (int age = 0; age <= subWindows; age++) {
+                if (getCount(window - age) > 0) {
+                    return false;
+                }
             }
+            return true;
         }
         
         /**
-         * 슬라이딩 윈도우의 추정 요청 수 계산
-         * 가중 평균을 사용하여 현재 시점에서의 요청 수를 추정
+         * 현재 하위 윈도우를 제외한 과거 하위 윈도우들의 추정 요청 수
+         * 가장 오래된 하위 윈도우는 슬라이딩 윈도우와 겹치는 비율만큼만 반영
          */
-        private long getEstimatedCount() {
-            long now = System.currentTimeMillis();
-            long windowStart = currentWindowStart.get() * config.getWindowSizeMs();
-            long timeIntoCurrentWindow = now - windowStart;
-            
-            // 현재 윈도우에서의 진행 비율 (0.0 ~ 1.0)
-            double percentageOfCurrentWindow = (double) timeIntoCurrentWindow / config.getWindowSizeMs();
-            
-            // 가중 평균으로 추정 계산
-            // 이전 윈도우의 기여도는 현재 윈도우 진행률에 반비례
-            double estimatedPreviousCount = previousWindowCounter.get() * (1.0 - percentageOfCurrentWindow);
-            long currentCount = currentWindowCounter.get();
+        private double getPastCount(long window, long now) {
+            long fullCount = 0;
+            for (int age = 1; age < subWindows; age++) {
+                fullCount += getCount(window - age);
+            }
             
-            return (long) (estimatedPreviousCount + currentCount);
+            // 현재 하위 윈도우에서의 진행 비율 (0.0 ~ 1.0)
+            double percentageOfCurrentWindow = (double) (now - window * subWindowMs) / subWindowMs;
+            return fullCount + getCount(window - subWindows) * (1.0 - percentageOfCurrentWindow);
+        }
+        
+        /**
+         * 하위 윈도우 칸에 더한 permits를 되돌림 (칸이 이미 다른 윈도우로 교체되었으면 무시)
+         */
+        private void undo(int index, long window, int permits) {
+            long slot;
+            do {
+                slot = slots.get(index);
+                if (windowOf(slot) != (int) window) {
+                    return;
+                }
+            } while (!slots.compareAndSet(index, slot, slot - permits));
         }
         
         /**
-         * 현재 윈도우 번호 계산
+         * 특정 하위 윈도우의 카운트 (칸이 다른 윈도우로 교체되었으면 0)
          */
-        private long getCurrentWindow() {
-            return System.currentTimeMillis() / config.getWindowSizeMs();
+        private long getCount(long window) {
+            long slot = slots.get(indexOf(window));
+            return windowOf(slot) == (int) window ? countOf(slot) : 0;
+        }
+        
+        private int indexOf(long window) {
+            return (int) Math.floorMod(window, (long) slots.length());
         }
         
         /**
-         * 다음 윈도우 시작 시간 계산
+         * 다음 하위 윈도우 시작 시간 계산
          */
-        private long getNextWindowStart() {
-            return (currentWindowStart.get() + 1) * config.getWindowSizeMs();
+        private long getNextWindowStart(long window) {
+            return (window + 1) * subWindowMs;
+        }
+        
+        private static long pack(long window, long count) {
+            return (window << Integer.SIZE) | (count & COUNT_MASK);
+        }
+        
+        /**
+         * 하위 윈도우 번호의 하위 32비트 (int 뺄셈으로 비교하므로 wrap-around에 안전)
+         */
+        private static int windowOf(long slot) {
+            return (int) (slot >>> Integer.SIZE);
+        }
+        
+        private static long countOf(long slot) {
+            return slot & COUNT_MASK;
         }
     }
-} 
\ No newline at end of file
+}
@@ -3,10 +3,15 @@ package com.example.demo.ratelimiter.algo;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitWaiter;
+import com.example.demo.ratelimiter.store.ExpirableState;
+import com.example.demo.ratelimiter.store.KeyedStateStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * Sliding Window Log Algorithm
@@ -22,28 +27,51 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * - 버스트 트래픽을 효과적으로 제어
  * 
  * 단점:
- * - 메모리 사용량이 많음 (모든 요청 타임스탬프 저장)
+ * - 메모리 사용량이 많음 (모든 요청 타임스탬프 저장, 요청당 8바이트)
  * - 성능이 상대적으로 떨어짐
  * - 확장성에 제한이 있음
  */
 @Component
 public class SlidingWindowLogLimiter implements RateLimiter {
     
-    private final ConcurrentHashMap<String, SlidingWindowLog> logs = new ConcurrentHashMap<>();
+    private final KeyedStateStore<SlidingWindowLog> logs;
     private final RateLimitConfig defaultConfig;
     
     public SlidingWindowLogLimiter() {
-        this.defaultConfig = RateLimitConfig.forWindow(10, 60000); // 1분당 10개 요청
+        this(false);
+    }
+    
+    /**
+     * Spring 빈 생성자
+     * @param failOpen 키 저장소가 가득 찼을 때 새 키를 거부하지 않고 추적 없이 판정할지 여부 (ratelimiter.memory.fail-open)
+     */
+    @Autowired
+    public SlidingWindowLogLimiter(@Value("${ratelimiter.memory.fail-open:false}") boolean failOpen) {
+        this(RateLimitConfig.forWindow(10, 60000), failOpen); // 1분당 10개 요청
     }
     
     public SlidingWindowLogLimiter(RateLimitConfig config) {
+        this(config, false);
+    }
+    
+    public SlidingWindowLogLimiter(RateLimitConfig config, boolean failOpen) {
+        this.logs = new KeyedStateStore<>(KeyedStateStore.DEFAULT_MAX_KEYS, failOpen);
         this.defaultConfig = config;
     }
     
     @Override
     public RateLimitResult tryAcquire(String key) {
-        SlidingWindowLog log = logs.computeIfAbsent(key, k -> new SlidingWindowLog(defaultConfig));
-        return log.tryAdd();
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits, long timeout, TimeUnit unit) {
+        return tryAcquire(key, defaultConfig, permits, unit.toNanos(timeout));
     }
     
     @Override
@@ -67,31 +95,87 @@ public class SlidingWindowLogLimiter implements RateLimiter {
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        SlidingWindowLog log = logs.computeIfAbsent(key, k -> new SlidingWindowLog(config));
-        return log.tryAdd();
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 한 번에 기록
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        return tryAcquire(key, config, permits, TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMs()));
+    }
+    
+    /**
+     * 거부되면 resetTime에 깨어나 재시도하며 최대 timeoutNanos 동안 대기
+     * 윈도우 기반은 미래 슬롯을 예약할 수 없으므로 대기자 간 허용 순서는 보장하지 않음
+     */
+    private RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits, long timeoutNanos) {
+        RateLimiter.checkPermits(permits);
+        if (permits > config.getCapacity()) {
+            // 윈도우 한도보다 많이 요청하면 기다려도 허용될 수 없음
+            return RateLimitResult.denied(0, System.currentTimeMillis(), -1, "SLIDING_WINDOW_LOG", "Requested permits exceed window limit");
+        }
+        RateLimitResult result = tryAdd(key, config, permits);
+        if (result.isAllowed() || timeoutNanos <= 0) {
+            return result;
+        }
+        return RateLimitWaiter.retryUntilReset(result, () -> tryAdd(key, config, permits), timeoutNanos);
+    }
+    
+    private RateLimitResult tryAdd(String key, RateLimitConfig config, int permits) {
+        SlidingWindowLog log = getLog(key, config);
+        if (log == null) {
+            // 저장소가 제한 중인 키로 가득 참 - 기존 키의 기록을 지우지 않고 새 키를 거부
+            return RateLimitResult.tooManyKeys(System.currentTimeMillis() + config.getWindowSizeMs(), "SLIDING_WINDOW_LOG");
+        }
+        return log.tryAdd(permits);
+    }
+    
+    /**
+     * 키에 해당하는 로그 조회 (람다 캡처 할당은 최초 생성 시에만)
+     * @return 로그, 저장소가 가득 차 새 키를 받을 수 없으면 null
+     */
+    private SlidingWindowLog getLog(String key, RateLimitConfig config) {
+        SlidingWindowLog log = logs.get(key);
+        if (log != null) {
+            return log;
+        }
+        return logs.getOrCreate(key, k -> new SlidingWindowLog(config));
     }
     
     /**
      * Sliding Window Log 내부 구현 클래스
+     * 
+     * 요청 타임스탬프를 boxing 없이 long[] 링 버퍼에 저장
+     * - head: 가장 오래된 요청 위치, count: 윈도우 내 요청 수 (O(1) 조회)
+     * - 만료는 head 포인터 이동으로 처리하며, 만료 구간이 크면 이진 탐색으로 경계를 찾음
+     * - 링은 작은 크기로 시작해 필요할 때만 capacity까지 두 배씩 확장 (요청이 적은 키의 메모리 절약)
      */
-    private static class SlidingWindowLog {
-        private final ConcurrentLinkedQueue<Long> requestLog;
+    private static class SlidingWindowLog implements ExpirableState {
+        private static final int INITIAL_SLOTS = 16;
+        
         private final RateLimitConfig config;
+        private long[] timestamps;
+        private int head;
+        private int count;
         
         public SlidingWindowLog(RateLimitConfig config) {
             this.config = config;
-            this.requestLog = new ConcurrentLinkedQueue<>();
+            this.timestamps = new long[Math.max(1, Math.min(INITIAL_SLOTS, config.getCapacity()))];
         }
         
-        public synchronized RateLimitResult tryAdd() {
+        public synchronized RateLimitResult tryAdd(int permits) {
             long now = System.currentTimeMillis();
             cleanupOldRequests(now);
             
-            if (requestLog.size() < config.getCapacity()) {
-                requestLog.offer(now);
+            if (count + permits <= config.getCapacity()) {
+                for (int i = 0; i < permits; i++) {
+                    append(now);
+                }
                 return RateLimitResult.allowed(
-                    config.getCapacity() - requestLog.size(),
+                    config.getCapacity() - count,
                     getNextResetTime(now),
                     "SLIDING_WINDOW_LOG",
                     "Request added to sliding window"
@@ -111,23 +195,87 @@ public class SlidingWindowLogLimiter implements RateLimiter {
             cleanupOldRequests(now);
             
             return RateLimitResult.allowed(
-                config.getCapacity() - requestLog.size(),
+                config.getCapacity() - count,
                 getNextResetTime(now),
                 "SLIDING_WINDOW_LOG",
                 "Current sliding window status"
             );
         }
         
+        /**
+         * 윈도우 내 요청이 하나도 없으면 초기 상태와 동일
+         */
+        @Override
+        public synchronized boolean isFresh() {
+            return count == 0 || timestampAt(count - 1) < System.currentTimeMillis() - config.getWindowSizeMs();
+        }
+        
         /**
          * 윈도우 범위를 벗어난 오래된 요청들을 제거
+         * 타임스탬프가 오름차순으로 저장되므로 만료 경계를 이진 탐색으로 찾아 head만 이동
          */
         private void cleanupOldRequests(long now) {
             long windowStart = now - config.getWindowSizeMs();
             
-            // 윈도우 시작 시간보다 이전의 모든 요청 제거
-            while (!requestLog.isEmpty() && requestLog.peek() < windowStart) {
-                requestLog.poll();
+            if (count == 0 || timestampAt(0) >= windowStart) {
+                return;
             }
+            if (timestampAt(count - 1) < windowStart) {
+                count = 0;
+                return;
+            }
+            
+            // timestampAt(low) < windowStart <= timestampAt(high)
+            int low = 0;
+            int high = count - 1;
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                if (timestampAt(mid) < windowStart) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            head = index(high);
+            count -= high;
+        }
+        
+        /**
+         * 새 요청 타임스탬프 추가
+         * 시계가 뒤로 가더라도 정렬 순서가 유지되도록 마지막 타임스탬프 이상으로 보정
+         */
+        private void append(long now) {
+            if (count == timestamps.length) {
+                grow();
+            }
+            long timestamp = count > 0 ? Math.max(now, timestampAt(count - 1)) : now;
+            timestamps[index(count)] = timestamp;
+            count++;
+        }
+        
+        /**
+         * 링 버퍼를 capacity 한도 내에서 두 배로 확장
+         */
+        private void grow() {
+            int newLength = (int) Math.min((long) timestamps.length * 2, config.getCapacity());
+            long[] grown = new long[newLength];
+            for (int i = 0; i < count; i++) {
+                grown[i] = timestampAt(i);
+            }
+            timestamps = grown;
+            head = 0;
+        }
+        
+        /**
+         * head 기준 i번째(0 = 가장 오래된) 요청의 타임스탬프
+         */
+        private long timestampAt(int i) {
+            return timestamps[index(i)];
+        }
+        
+        private int index(int i) {
+            int index = head + i;
+            return index < timestamps.length ? index : index - timestamps.length;
         }
         
         /**
@@ -135,11 +283,11 @@ public class SlidingWindowLogLimiter implements RateLimiter {
          * 가장 오래된 요청이 윈도우를 벗어나는 시간
          */
         private long getNextResetTime(long now) {
-            if (requestLog.isEmpty()) {
+            if (count == 0) {
                 return now + config.getWindowSizeMs();
             }
             // 가장 오래된 요청 + 윈도우 크기 = 해당 요청이 만료되는 시간
-            return requestLog.peek() + config.getWindowSizeMs();
+            return timestampAt(0) + config.getWindowSizeMs();
         }
     }
-} 
\ No newline at end of file
+}
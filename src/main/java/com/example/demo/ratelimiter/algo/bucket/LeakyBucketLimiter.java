@@ -3,11 +3,18 @@ package com.example.demo.ratelimiter.algo.bucket;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitWaiter;
+import com.example.demo.ratelimiter.store.ExpirableState;
+import com.example.demo.ratelimiter.store.KeyedStateStore;
+import com.example.demo.ratelimiter.store.OffHeapStateTable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 /**
  * Leaky Bucket Algorithm
@@ -25,124 +32,402 @@ import java.util.concurrent.atomic.AtomicLong;
  * 단점:
  * - 버스트 트래픽을 처리할 수 없음
  * - 유연성이 떨어짐
- * - 메모리 사용량이 상대적으로 많음
  */
 @Component
 public class LeakyBucketLimiter implements RateLimiter {
     
-    private final ConcurrentHashMap<String, LeakyBucket> buckets = new ConcurrentHashMap<>();
+    private final KeyedStateStore<LeakyBucket> buckets;
+    private final OffHeapStateTable offHeapBuckets;   // null이면 힙 저장소(buckets) 사용
+    private final boolean failOpen;                   // 저장소가 가득 찼을 때 새 키를 추적 없이 판정
+    private final LongSupplier nanoClock;
+    private final long originNanos;
+    private final long originMillis = System.currentTimeMillis();
     private final RateLimitConfig defaultConfig;
     
     public LeakyBucketLimiter() {
-        this.defaultConfig = RateLimitConfig.forTokenBucket(10, 1); // 10개 용량, 초당 1개 처리
+        this(0, false);
+    }
+    
+    /**
+     * Spring 빈 생성자
+     * @param offHeapMaxKeys 0보다 크면 off-heap 테이블에 상태 저장 (ratelimiter.memory.off-heap-max-keys)
+     * @param failOpen 저장소가 가득 찼을 때 새 키를 거부하지 않고 추적 없이 판정할지 여부 (ratelimiter.memory.fail-open)
+     */
+    @Autowired
+    public LeakyBucketLimiter(@Value("${ratelimiter.memory.off-heap-max-keys:0}") int offHeapMaxKeys,
+                              @Value("${ratelimiter.memory.fail-open:false}") boolean failOpen) {
+        this(RateLimitConfig.forTokenBucket(10, 1), offHeapMaxKeys, failOpen); // 10개 용량, 초당 1개 처리
     }
     
     public LeakyBucketLimiter(RateLimitConfig config) {
+        this(config, 0);
+    }
+    
+    /**
+     * Off-heap 저장소를 사용하는 생성자
+     * 키별 상태(drainAt)를 long 하나로 저장하므로 키당 16바이트(지문 포함)만 사용
+     * 
+     * @param offHeapMaxKeys off-heap 테이블에 보관할 최대 키 수 (0이면 힙 저장소 사용)
+     */
+    public LeakyBucketLimiter(RateLimitConfig config, int offHeapMaxKeys) {
+        this(config, offHeapMaxKeys, false);
+    }
+    
+    /**
+     * @param failOpen 저장소가 가득 찼을 때 새 키를 거부하지 않고 추적 없이 판정할지 여부 (KeyedStateStore 참고)
+     */
+    public LeakyBucketLimiter(RateLimitConfig config, int offHeapMaxKeys, boolean failOpen) {
+        this(config, offHeapMaxKeys, failOpen, System::nanoTime);
+    }
+    
+    /**
+     * 현재 시각(나노초)을 주입받는 생성자 (테스트에서 도착 시각을 결정적으로 재현하기 위함)
+     * 대기 중 park는 실제 시간 기준이므로 timeout 없이 즉시 판정하는 경우에만 사용
+     */
+    LeakyBucketLimiter(RateLimitConfig config, int offHeapMaxKeys, boolean failOpen, LongSupplier nanoClock) {
         this.defaultConfig = config;
+        this.failOpen = failOpen;
+        this.buckets = new KeyedStateStore<>(KeyedStateStore.DEFAULT_MAX_KEYS, failOpen);
+        this.nanoClock = nanoClock;
+        this.originNanos = nanoClock.getAsLong();
+        this.offHeapBuckets = offHeapMaxKeys > 0 ? new OffHeapStateTable(offHeapMaxKeys, 1, this::isFreshSlot) : null;
     }
     
     @Override
     public RateLimitResult tryAcquire(String key) {
-        LeakyBucket bucket = buckets.computeIfAbsent(key, k -> new LeakyBucket(defaultConfig));
-        return bucket.tryAdd();
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    /**
+     * 버킷에 자리가 생길 때까지 최대 timeout 동안 대기
+     * 자리가 생기는 시각에 미리 줄을 세우고(drainAt 전진) 그 시각까지 park하므로, 대기자는 도착 순서대로 허용됨
+     */
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits, long timeout, TimeUnit unit) {
+        return tryAcquire(key, defaultConfig, permits, unit.toNanos(timeout));
     }
     
     @Override
     public RateLimitResult getStatus(String key) {
+        if (offHeapBuckets != null) {
+            return getStatusOffHeap(key, defaultConfig);
+        }
         LeakyBucket bucket = buckets.get(key);
         if (bucket == null) {
             return RateLimitResult.allowed(defaultConfig.getCapacity(), 0, "LEAKY_BUCKET");
         }
-        return bucket.getStatus();
+        return bucket.getStatus(defaultConfig);
     }
     
     @Override
     public void reset(String key) {
+        if (offHeapBuckets != null) {
+            offHeapBuckets.remove(key);
+            return;
+        }
         buckets.remove(key);
     }
     
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        LeakyBucket bucket = buckets.computeIfAbsent(key, k -> new LeakyBucket(config));
-        return bucket.tryAdd();
+        return tryAcquire(key, config, 1);
     }
     
     /**
-     * Leaky Bucket 내부 구현 클래스
+     * 특정 설정으로 permits개의 요청을 한 번에 추가
+     * 설정은 호출마다 적용 (힙/off-heap 저장소 모두 상태에 설정을 묶어두지 않음)
+     * config.timeoutMs가 0보다 크면 그 시간 안에 생길 자리를 예약하고 대기
      */
-    private static class LeakyBucket {
-        private final LinkedBlockingQueue<Long> requests;
-        private final AtomicLong lastLeakTime;
-        private final RateLimitConfig config;
-        
-        public LeakyBucket(RateLimitConfig config) {
-            this.config = config;
-            this.requests = new LinkedBlockingQueue<>(config.getCapacity());
-            this.lastLeakTime = new AtomicLong(System.currentTimeMillis());
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        return tryAcquire(key, config, permits, TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMs()));
+    }
+    
+    private RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits, long timeoutNanos) {
+        RateLimiter.checkPermits(permits);
+        timeoutNanos = Math.max(0, timeoutNanos);
+        if (permits > config.getCapacity()) {
+            return RateLimitResult.denied(0, System.currentTimeMillis(), -1, "LEAKY_BUCKET", "Requested permits exceed bucket capacity");
+        }
+        if (offHeapBuckets != null) {
+            return tryAddOffHeap(key, config, permits, timeoutNanos);
+        }
+        LeakyBucket bucket = getBucket(key, config);
+        if (bucket == null) {
+            // 저장소가 제한 중인 키로 가득 참 - 기존 키의 기록을 지우지 않고 새 키를 거부
+            return RateLimitResult.tooManyKeys(System.currentTimeMillis(), "LEAKY_BUCKET");
+        }
+        return bucket.tryAdd(config, permits, timeoutNanos);
+    }
+    
+    /**
+     * 키에 해당하는 버킷 조회 (람다 캡처 할당은 최초 생성 시에만)
+     * @return 버킷, 저장소가 가득 차 새 키를 받을 수 없으면 null
+     */
+    private LeakyBucket getBucket(String key, RateLimitConfig config) {
+        LeakyBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
         }
+        return buckets.getOrCreate(key, k -> new LeakyBucket(nanoClock));
+    }
+    
+    /**
+     * Off-heap 슬롯 기반 요청 추가 (계산 방식은 LeakyBucket.tryAdd와 동일)
+     */
+    private RateLimitResult tryAddOffHeap(String key, RateLimitConfig config, int permits, long timeoutNanos) {
+        int capacity = config.getCapacity();
+        long leakIntervalNanos = LeakyBucket.intervalOf(config);
+        boolean leaks = config.getRefillIntervalNanos() > 0;
+        long fingerprint = OffHeapStateTable.fingerprint(key);
+        long slot = offHeapBuckets.slotOf(fingerprint);
+        long now = nanoClock.getAsLong() - originNanos;
         
-        public RateLimitResult tryAdd() {
-            leak();
+        while (true) {
+            if (slot < 0) {
+                if (!failOpen) {
+                    // 테이블이 제한 중인 키로 가득 참 - 기존 키의 상태를 지우지 않고 새 키를 거부
+                    return RateLimitResult.tooManyKeys(getNextLeakTime(now, leakIntervalNanos), "LEAKY_BUCKET");
+                }
+                // fail-open - 저장하지 않고 빈 새 버킷(drainAt = 0)으로 판정
+                long next = LeakyBucket.gridFloor(now, leakIntervalNanos) + leakIntervalNanos * permits;
+                return RateLimitResult.allowed(
+                    capacity - LeakyBucket.levelAt(next, now, leakIntervalNanos),
+                    getNextLeakTime(now, leakIntervalNanos),
+                    "LEAKY_BUCKET",
+                    "Request added without tracking (too many active keys)"
+                );
+            }
+            long current = offHeapBuckets.get(slot, 0);
+            if (!offHeapBuckets.owns(slot, fingerprint)) {
+                // 읽는 사이 슬롯이 다른 키에 재사용됨 - 다시 할당
+                slot = offHeapBuckets.slotOf(fingerprint);
+                continue;
+            }
+            long admitAt = LeakyBucket.admitAt(current, now, permits, capacity, leakIntervalNanos);
             
-            long now = System.currentTimeMillis();
-            if (requests.offer(now)) {
+            if (admitAt > now && !leaks) {
+                return LeakyBucket.neverLeaks();
+            }
+            if (admitAt - now > timeoutNanos) {
+                return RateLimitResult.denied(0, getNextLeakTime(now, leakIntervalNanos), "LEAKY_BUCKET", "Bucket is full");
+            }
+            
+            long cost = leakIntervalNanos * permits;
+            long next = Math.max(current, LeakyBucket.gridFloor(admitAt, leakIntervalNanos)) + cost;
+            if (offHeapBuckets.compareAndSet(slot, 0, current, next)) {
+                if (!offHeapBuckets.owns(slot, fingerprint)) {
+                    // CAS 직전에 슬롯이 다른 키로 넘어감 - 기록을 되돌리고 다시 할당
+                    offHeapBuckets.compareAndSet(slot, 0, next, current);
+                    slot = offHeapBuckets.slotOf(fingerprint);
+                    continue;
+                }
+                if (admitAt > now) {
+                    // 줄을 세워둔 슬롯은 초기 상태가 아니므로 대기하는 동안 다른 키에 재사용되지 않음
+                    if (!RateLimitWaiter.parkUntil(originNanos + admitAt)) {
+                        // 인터럽트됨 - 세워둔 자리를 돌려놓음 (뒤이은 대기자는 그대로 두고 전체를 cost만큼 당김)
+                        long drainAt;
+                        do {
+                            drainAt = offHeapBuckets.get(slot, 0);
+                        } while (!offHeapBuckets.compareAndSet(slot, 0, drainAt, drainAt - cost));
+                        return LeakyBucket.interrupted(getNextLeakTime(admitAt, leakIntervalNanos));
+                    }
+                    now = admitAt;
+                }
                 return RateLimitResult.allowed(
-                    config.getCapacity() - requests.size(),
-                    getNextLeakTime(),
+                    capacity - LeakyBucket.levelAt(next, now, leakIntervalNanos),
+                    getNextLeakTime(now, leakIntervalNanos),
                     "LEAKY_BUCKET",
                     "Request added to bucket"
                 );
             }
+        }
+    }
+    
+    private RateLimitResult getStatusOffHeap(String key, RateLimitConfig config) {
+        long slot = offHeapBuckets.find(key);
+        long leakIntervalNanos = LeakyBucket.intervalOf(config);
+        long now = nanoClock.getAsLong() - originNanos;
+        long drainAt = slot < 0 ? 0 : offHeapBuckets.get(slot, 0);
+        return RateLimitResult.allowed(
+            Math.max(0, config.getCapacity() - LeakyBucket.levelAt(drainAt, now, leakIntervalNanos)),
+            getNextLeakTime(now, leakIntervalNanos),
+            "LEAKY_BUCKET",
+            "Current bucket status"
+        );
+    }
+    
+    /**
+     * 완전히 비워진 슬롯은 재사용 가능
+     */
+    private boolean isFreshSlot(OffHeapStateTable table, long slot) {
+        return table.get(slot, 0) <= nanoClock.getAsLong() - originNanos;
+    }
+    
+    private long getNextLeakTime(long now, long leakIntervalNanos) {
+        return originMillis + TimeUnit.NANOSECONDS.toMillis(LeakyBucket.gridFloor(now, leakIntervalNanos) + leakIntervalNanos);
+    }
+    
+    /**
+     * Leaky Bucket 내부 구현 클래스
+     * 
+     * 요청마다 타임스탬프를 큐에 쌓는 대신, 대기 중인 요청이 모두 빠져나가는 시각(drainAt) 하나만 저장하는
+     * 가상 큐(GCRA 방식)로 구현하여 키당 O(1) 시간, 고정 메모리로 동작
+     * - 누출은 origin 기준 누출 간격 격자(k * interval)마다 1개씩 일어남
+     * - 현재 수위 = ceil((drainAt - now) / interval), drainAt <= now 이면 빈 버킷
+     * - 요청 추가 = drainAt을 누출 간격만큼 전진 (빈 버킷이면 현재 격자 시작점부터)
+     * 위 규칙은 큐에서 간격마다 한 개씩 poll 하던 기존 방식과 동일한 허용/거부 결정을 냄
+     * 용량과 누출 간격은 호출마다 전달된 설정으로 계산 (off-heap 경로와 동일)
+     */
+    private static class LeakyBucket implements ExpirableState {
+        private static final VarHandle DRAIN_AT;
+        
+        static {
+            try {
+                DRAIN_AT = MethodHandles.lookup().findVarHandle(LeakyBucket.class, "drainAt", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+        
+        private final LongSupplier nanoClock;
+        private final long originNanos;
+        private final long originMillis;
+        private volatile long drainAt;            // origin 기준 나노초
+        
+        public LeakyBucket(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            this.originNanos = nanoClock.getAsLong();
+            this.originMillis = System.currentTimeMillis();
+            this.drainAt = 0;
+        }
+        
+        public RateLimitResult tryAdd(RateLimitConfig config, int permits, long timeoutNanos) {
+            int capacity = config.getCapacity();
+            long leakIntervalNanos = intervalOf(config);
+            boolean leaks = config.getRefillIntervalNanos() > 0;
+            long now = nanoClock.getAsLong() - originNanos;
             
-            return RateLimitResult.denied(
-                0,
-                getNextLeakTime(),
-                "LEAKY_BUCKET",
-                "Bucket is full"
-            );
+            while (true) {
+                long current = drainAt;
+                long admitAt = admitAt(current, now, permits, capacity, leakIntervalNanos);
+                
+                if (admitAt > now && !leaks) {
+                    return neverLeaks();
+                }
+                // permits개가 모두 들어갈 자리가 timeout 안에 생기지 않으면 거부 (일부만 추가하지 않음)
+                if (admitAt - now > timeoutNanos) {
+                    return RateLimitResult.denied(
+                        0,
+                        getNextLeakTime(now, leakIntervalNanos),
+                        "LEAKY_BUCKET",
+                        "Bucket is full"
+                    );
+                }
+                
+                // 빈 버킷이면 현재 격자 시작점부터, 아니면 마지막 요청 뒤에 줄을 세움
+                long cost = leakIntervalNanos * permits;
+                long next = Math.max(current, gridFloor(admitAt, leakIntervalNanos)) + cost;
+                if (DRAIN_AT.compareAndSet(this, current, next)) {
+                    if (admitAt > now) {
+                        // 자리가 생기는 시각에 줄을 세워둠 - 그 시각까지 대기
+                        if (!RateLimitWaiter.parkUntil(originNanos + admitAt)) {
+                            // 인터럽트됨 - 세워둔 자리를 돌려놓음 (뒤이은 대기자는 그대로 두고 전체를 cost만큼 당김)
+                            DRAIN_AT.getAndAdd(this, -cost);
+                            return interrupted(getNextLeakTime(admitAt, leakIntervalNanos));
+                        }
+                        now = admitAt;
+                    }
+                    return RateLimitResult.allowed(
+                        capacity - levelAt(next, now, leakIntervalNanos),
+                        getNextLeakTime(now, leakIntervalNanos),
+                        "LEAKY_BUCKET",
+                        "Request added to bucket"
+                    );
+                }
+            }
         }
         
-        public RateLimitResult getStatus() {
-            leak();
+        public RateLimitResult getStatus(RateLimitConfig config) {
+            long leakIntervalNanos = intervalOf(config);
+            long now = nanoClock.getAsLong() - originNanos;
             return RateLimitResult.allowed(
-                config.getCapacity() - requests.size(),
-                getNextLeakTime(),
+                Math.max(0, config.getCapacity() - levelAt(drainAt, now, leakIntervalNanos)),
+                getNextLeakTime(now, leakIntervalNanos),
                 "LEAKY_BUCKET",
                 "Current bucket status"
             );
         }
         
         /**
-         * 요청 누출(처리) 로직
-         * 일정한 속도로 요청을 제거
+         * 버킷이 완전히 비었으면 초기 상태와 동일
          */
-        private void leak() {
-            long now = System.currentTimeMillis();
-            long lastLeak = lastLeakTime.get();
-            
-            if (now > lastLeak) {
-                long elapsed = now - lastLeak;
-                // 경과 시간에 따라 처리할 수 있는 요청 수 계산
-                long requestsToLeak = (elapsed / 1000) * config.getRefillRate();
-                
-                // 계산된 수만큼 요청을 버킷에서 제거 (처리됨을 의미)
-                for (int i = 0; i < requestsToLeak && !requests.isEmpty(); i++) {
-                    requests.poll();
-                }
-                
-                if (requestsToLeak > 0) {
-                    lastLeakTime.set(now);
-                }
+        @Override
+        public boolean isFresh() {
+            return drainAt <= nanoClock.getAsLong() - originNanos;
+        }
+        
+        /**
+         * 누출이 없는 설정에서 버킷에 남은 자리보다 많이 요청한 경우 (기다려도 허용될 수 없음)
+         */
+        static RateLimitResult neverLeaks() {
+            return RateLimitResult.denied(0, System.currentTimeMillis(), -1, "LEAKY_BUCKET", "Bucket is full and leak is disabled");
+        }
+        
+        /**
+         * 자리가 생기기를 기다리던 중 인터럽트된 경우
+         */
+        static RateLimitResult interrupted(long nextLeakTime) {
+            return RateLimitResult.denied(0, nextLeakTime, "LEAKY_BUCKET", "Interrupted while waiting for bucket space");
+        }
+        
+        /**
+         * 요청 1개가 누출되는 간격
+         * 보충 없음 = 사실상 누출 없음 (capacity * interval 오버플로 방지)
+         */
+        static long intervalOf(RateLimitConfig config) {
+            long interval = config.getRefillIntervalNanos();
+            return interval > 0 ? interval : Long.MAX_VALUE / 4 / Math.max(1, config.getCapacity());
+        }
+        
+        /**
+         * 현재 버킷 수위 (아직 누출되지 않은 요청 수)
+         */
+        static long levelAt(long drainAt, long now, long leakIntervalNanos) {
+            if (drainAt <= now) {
+                return 0;
             }
+            return (drainAt - now + leakIntervalNanos - 1) / leakIntervalNanos;
+        }
+        
+        /**
+         * permits개가 모두 들어갈 자리가 생기는 가장 이른 시각 (지금 들어가면 now)
+         * 수위는 ceil((drainAt - t) / interval)이므로 capacity - permits 이하가 되는 시각은 drainAt - (capacity - permits) * interval
+         * (permits <= capacity 전제)
+         */
+        static long admitAt(long drainAt, long now, int permits, int capacity, long leakIntervalNanos) {
+            return Math.max(now, drainAt - (capacity - permits) * leakIntervalNanos);
+        }
+        
+        /**
+         * now 이하의 가장 최근 누출 격자 시각
+         */
+        static long gridFloor(long now, long leakIntervalNanos) {
+            return now - now % leakIntervalNanos;
         }
         
         /**
          * 다음 누출 시간 계산
          */
-        private long getNextLeakTime() {
-            return lastLeakTime.get() + 1000; // 1초 후
+        private long getNextLeakTime(long now, long leakIntervalNanos) {
+            return originMillis + TimeUnit.NANOSECONDS.toMillis(gridFloor(now, leakIntervalNanos) + leakIntervalNanos);
         }
     }
-} 
\ No newline at end of file
+}
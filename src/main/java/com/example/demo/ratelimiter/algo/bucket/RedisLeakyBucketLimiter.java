@@ -3,30 +3,38 @@ package com.example.demo.ratelimiter.algo.bucket;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RedisClock;
+import com.example.demo.ratelimiter.common.RedisDenialCache;
+import com.example.demo.ratelimiter.common.RedisKeyLayout;
+import com.example.demo.ratelimiter.common.RedisMicroBatcher;
 import com.example.demo.ratelimiter.common.RedisRateLimiter;
-import lombok.NoArgsConstructor;
+import com.example.demo.ratelimiter.common.RedisReplies;
+import com.example.demo.ratelimiter.common.RedisScriptRegistry;
 
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.UUID;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Redis Leaky Bucket Algorithm
- *
+ * 
  * 동작 원리:
- * - Redis Sorted Set을 사용하여 요청들을 타임스탬프 순으로 저장
+ * - 키마다 Redis 해시 하나에 버킷 수위(level)와 마지막 leak 시간만 저장 (요청별 데이터를 저장하지 않음)
  * - 일정한 속도로 요청을 처리 (leak)하여 트래픽 평활화
  * - 버킷이 가득 차면 새로운 요청 거부
  * - Lua 스크립트로 원자적 연산 보장
- *
+ * 
  * 장점:
  * - 분산 환경에서 일관된 트래픽 평활화
  * - 일정한 출력 속도를 보장하여 백엔드 시스템 보호
  * - Redis의 원자적 연산으로 정확성 보장
- *
+ * 
  * 단점:
  * - 네트워크 지연으로 인한 성능 오버헤드
  * - 버스트 트래픽을 처리할 수 없음
@@ -36,56 +44,129 @@ import java.util.UUID;
 public class RedisLeakyBucketLimiter implements RedisRateLimiter {
     
     private final RedisTemplate<String, String> redisTemplate;
+    private final RedisScriptRegistry scriptRegistry;
+    private final RedisKeyLayout keyLayout;
+    private final RedisClock clock;
+    private final RedisMicroBatcher batcher;
+    private final RedisDenialCache denialCache;
     private final RateLimitConfig defaultConfig;
-    private final RedisScript<Long> leakyBucketScript;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> leakyBucketScript;
+    private final RedisScript<Long> statusScript;
     
-    // Lua 스크립트 - 원자적 leak 및 요청 추가 로직
-    private static final String LUA_SCRIPT = """
-        local key = KEYS[1]
+    // Lua 스크립트 - 원자적 leak 및 요청 추가 로직 (KEYS의 모든 버킷을 한 번에 처리)
+    // 버킷마다 해시 하나에 수위(level)와 마지막 leak 시간만 저장하므로 요청 수와 관계없이 O(1)
+    private static final String LUA_SCRIPT = RedisClock.LUA_TIME + """
         local capacity = tonumber(ARGV[1])
         local leak_rate = tonumber(ARGV[2])  -- 초당 처리할 수 있는 요청 수
-        local current_time = tonumber(ARGV[3])
-        local request_id = ARGV[4]
-        
-        -- 마지막 leak 시간 가져오기
-        local last_leak_key = key .. ':last_leak'
-        local last_leak = tonumber(redis.call('GET', last_leak_key)) or 0
+        local current_time = script_time(ARGV[3])
+        local permits = tonumber(ARGV[4])
+        local results = {}
         
-        -- 경과 시간에 따라 처리할 요청 수 계산
-        local elapsed = math.max(0, current_time - last_leak)
-        local requests_to_leak = math.floor(elapsed / 1000) * leak_rate
+        for i, key in ipairs(KEYS) do
+            -- 현재 수위와 마지막 leak 시간 가져오기 (해시가 아닌 키는 삭제 후 새로 시작)
+            -- 선언된 KEYS만 다룸 (클러스터에서 다른 슬롯의 키를 건드리지 않도록)
+            local bucket_data = redis.pcall('HMGET', key, 'level', 'last_leak')
+            if bucket_data.err then
+                redis.call('DEL', key)
+                bucket_data = {}
+            end
+            local level = tonumber(bucket_data[1]) or 0
+            local last_leak = tonumber(bucket_data[2]) or current_time
+            
+            -- 경과한 leak 주기(1초)만큼 수위를 낮춤, leak 시간은 주기 단위로만 전진 (자투리 경과 시간 보존)
+            local periods = math.floor(math.max(0, current_time - last_leak) / 1000)
+            level = math.max(0, level - periods * leak_rate)
+            if level == 0 then
+                last_leak = current_time
+            else
+                last_leak = last_leak + periods * 1000
+            end
+            
+            -- 버킷에 permits개가 모두 들어갈 여유가 있으면 수위를 올림, 없으면 넘치는 만큼 처리될 때까지의 대기 시간 계산
+            local allowed = 0
+            local retry_after = 0
+            if level + permits <= capacity then
+                level = level + permits
+                allowed = 1
+            elseif permits > capacity or leak_rate <= 0 then
+                retry_after = -1
+            else
+                retry_after = last_leak + math.ceil((level + permits - capacity) / leak_rate) * 1000 - current_time
+            end
+            
+            -- 상태 저장, 버킷이 다 비는 시점까지만 유지 (메모리 정리용)
+            redis.call('HSET', key, 'level', level, 'last_leak', last_leak)
+            if leak_rate > 0 then
+                redis.call('PEXPIRE', key, math.ceil(level / leak_rate) * 1000 + 1000)
+            else
+                redis.call('EXPIRE', key, 3600)
+            end
+            
+            -- [허용 여부, 남은 용량, 다음 leak 시간, 대기 시간]
+            local base = (i - 1) * 4
+            results[base + 1] = allowed
+            results[base + 2] = capacity - level
+            results[base + 3] = last_leak + 1000
+            results[base + 4] = retry_after
+        end
+        return results
+        """;
+    
+    // 상태 조회 Lua 스크립트 (소비 없이 남은 용량 계산)
+    private static final String STATUS_SCRIPT = RedisClock.LUA_TIME + """
+        local key = KEYS[1]
+        local capacity = tonumber(ARGV[1])
+        local leak_rate = tonumber(ARGV[2])
+        local current_time = script_time(ARGV[3])
         
-        -- 처리할 요청이 있으면 오래된 요청들을 제거 (leak)
-        if requests_to_leak > 0 then
-            -- 가장 오래된 요청들부터 제거
-            redis.call('ZREMRANGEBYRANK', key, 0, requests_to_leak - 1)
-            -- 마지막 leak 시간 업데이트
-            redis.call('SET', last_leak_key, current_time)
-            redis.call('EXPIRE', last_leak_key, 3600)
+        local bucket_data = redis.pcall('HMGET', key, 'level', 'last_leak')
+        if bucket_data.err then
+            return capacity
         end
+        local level = tonumber(bucket_data[1]) or 0
+        local last_leak = tonumber(bucket_data[2]) or current_time
         
-        -- 현재 버킷의 요청 수 확인
-        local current_size = redis.call('ZCARD', key)
+        -- leak 계산 (저장하지 않음)
+        local periods = math.floor(math.max(0, current_time - last_leak) / 1000)
+        level = math.max(0, level - periods * leak_rate)
         
-        -- 버킷에 여유가 있으면 요청 추가
-        if current_size < capacity then
-            redis.call('ZADD', key, current_time, request_id)
-            redis.call('EXPIRE', key, 3600)
-            return capacity - current_size - 1  -- 추가 후 남은 용량
-        else
-            return -1  -- 버킷이 가득 참
-        end
+        return capacity - level
         """;
     
-    public RedisLeakyBucketLimiter(RedisTemplate<String, String> redisTemplate) {
+    public RedisLeakyBucketLimiter(RedisTemplate<String, String> redisTemplate,
+                                   RedisScriptRegistry scriptRegistry, RedisKeyLayout keyLayout,
+                                   RedisClock clock, RedisMicroBatcher batcher,
+                                   RedisDenialCache denialCache) {
         this.redisTemplate = redisTemplate;
+        this.scriptRegistry = scriptRegistry;
+        this.keyLayout = keyLayout;
+        this.clock = clock;
+        this.batcher = batcher;
+        this.denialCache = denialCache;
         this.defaultConfig = RateLimitConfig.forTokenBucket(10, 1); // 10개 용량, 초당 1개 처리
-        this.leakyBucketScript = RedisScript.of(LUA_SCRIPT, Long.class);
+        this.leakyBucketScript = scriptRegistry.register("leaky_bucket", LUA_SCRIPT, List.class);
+        this.statusScript = scriptRegistry.register("leaky_bucket_status", STATUS_SCRIPT, Long.class);
     }
     
     @Override
     public RateLimitResult tryAcquire(String key) {
-        return tryAcquire(key, defaultConfig);
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public List<RateLimitResult> tryAcquireEach(List<String> keys) {
+        return tryAcquireEach(keys, defaultConfig);
+    }
+    
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, int permits) {
+        return tryAcquireAsync(key, defaultConfig, permits);
     }
     
     @Override
@@ -95,82 +176,131 @@ public class RedisLeakyBucketLimiter implements RedisRateLimiter {
     
     @Override
     public void reset(String key) {
-        String redisKey = "leaky_bucket:" + key;
-        String lastLeakKey = redisKey + ":last_leak";
+        String redisKey = keyLayout.key("leaky_bucket", key);
         redisTemplate.delete(redisKey);
-        redisTemplate.delete(lastLeakKey);
+        denialCache.invalidate(redisKey);
     }
     
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        String redisKey = "leaky_bucket:" + key;
-        long currentTime = System.currentTimeMillis();
-        String requestId = UUID.randomUUID().toString();
-        
-        Long result = redisTemplate.execute(
-            leakyBucketScript,
-            Collections.singletonList(redisKey),
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 한 번에 추가
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        if (batcher.isEnabled()) {
+            return RedisMicroBatcher.join(tryAcquireAsync(key, config, permits));
+        }
+        String redisKey = keyLayout.key("leaky_bucket", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            return denied;
+        }
+        long currentTime = clock.now();
+        List<Long> results = execute(Collections.singletonList(redisKey), config, permits, currentTime);
+        return denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime));
+    }
+    
+    /**
+     * 여러 키를 Lua 스크립트 한 번(Redis 왕복 1회)으로 처리
+     * 키마다 독립적으로 요청 1개씩 추가하며, 결과는 keys와 같은 순서
+     * 단일 키 호출과 마찬가지로 거부 결과는 RedisDenialCache에 기록하고, 기록된 키는 Redis 호출 없이 거부
+     */
+    public List<RateLimitResult> tryAcquireEach(List<String> keys, RateLimitConfig config) {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            redisKeys.add(keyLayout.key("leaky_bucket", key));
+        }
+        // 거부가 기록된 키는 Redis에 보내지 않고, 나머지 키만 한 번에 실행
+        return denialCache.acquireEach(redisKeys, config, 1, pending -> {
+            long currentTime = clock.now();
+            List<Long> results = execute(pending, config, 1, currentTime);
+            
+            List<RateLimitResult> limitResults = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                limitResults.add(toResult(results, i, currentTime));
+            }
+            return limitResults;
+        });
+    }
+    
+    /**
+     * 특정 설정으로 비동기 요청 처리
+     */
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config) {
+        return tryAcquireAsync(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 비동기로 처리 (Redis 응답을 기다리는 동안 스레드를 점유하지 않음)
+     */
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        String redisKey = keyLayout.key("leaky_bucket", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            // 거부가 기록된 키는 Redis를 호출하지 않음
+            return CompletableFuture.completedFuture(denied);
+        }
+        if (batcher.isEnabled()) {
+            // 동시에 들어온 다른 호출과 묶어서 한 번에 실행
+            return batcher.submit(leakyBucketScript, redisKey, config, permits, this::scriptArgs)
+                .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, clock.now())));
+        }
+        long currentTime = clock.now();
+        return executeAsync(Collections.singletonList(redisKey), config, permits, currentTime)
+            .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime)));
+    }
+    
+    private List<Long> execute(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeys(leakyBucketScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    /**
+     * 리액티브 명령으로 스크립트 실행 - 응답은 Redis 클라이언트의 I/O 스레드에서 완료됨
+     */
+    private CompletionStage<List<Long>> executeAsync(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeysAsync(leakyBucketScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    private List<String> scriptArgs(RateLimitConfig config, int permits, long currentTime) {
+        return List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getRefillRate()), // leak rate로 사용
-            String.valueOf(currentTime),
-            requestId
+            clock.scriptTime(currentTime),
+            String.valueOf(permits)
         );
-        
-        if (result != null && result >= 0) {
-            return RateLimitResult.allowed(
-                result,
-                getNextLeakTime(currentTime),
-                "REDIS_LEAKY_BUCKET",
-                "Request added to bucket"
-            );
-        } else {
-            return RateLimitResult.denied(
-                0,
-                getNextLeakTime(currentTime),
-                "REDIS_LEAKY_BUCKET",
-                "Bucket is full"
-            );
-        }
+    }
+    
+    /**
+     * 스크립트 응답에서 index번째 키의 결과 추출 (허용 여부, 남은 수, 리셋 시간, 대기 시간을 한 번에 받음)
+     */
+    private RateLimitResult toResult(List<Long> results, int index, long currentTime) {
+        return RedisReplies.toResult(results, index, currentTime, "REDIS_LEAKY_BUCKET", "Request added to bucket", "Bucket is full");
     }
     
     /**
      * 상태 조회 (요청 추가 없이)
      */
     public RateLimitResult getStatus(String key, RateLimitConfig config) {
-        String redisKey = "leaky_bucket:" + key;
-        long currentTime = System.currentTimeMillis();
-        
-        // 상태만 조회하는 Lua 스크립트
-        String statusScript = """
-            local key = KEYS[1]
-            local capacity = tonumber(ARGV[1])
-            local leak_rate = tonumber(ARGV[2])
-            local current_time = tonumber(ARGV[3])
-            
-            local last_leak_key = key .. ':last_leak'
-            local last_leak = tonumber(redis.call('GET', last_leak_key)) or current_time
-            
-            -- leak 시뮬레이션 (실제로는 제거하지 않음)
-            local elapsed = math.max(0, current_time - last_leak)
-            local requests_to_leak = math.floor(elapsed / 1000) * leak_rate
-            
-            local current_size = redis.call('ZCARD', key)
-            local simulated_size = math.max(0, current_size - requests_to_leak)
-            
-            return capacity - simulated_size
-            """;
+        String redisKey = keyLayout.key("leaky_bucket", key);
+        long currentTime = clock.now();
         
-        RedisScript<Long> statusRedisScript = RedisScript.of(statusScript, Long.class);
-        
-        Long remainingCapacity = redisTemplate.execute(
-            statusRedisScript,
-            Collections.singletonList(redisKey),
+        Long remainingCapacity = scriptRegistry.execute(statusScript, Collections.singletonList(redisKey), List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getRefillRate()),
-            String.valueOf(currentTime)
-        );
+            clock.scriptTime(currentTime)
+        ));
         
         return RateLimitResult.allowed(
             remainingCapacity != null ? remainingCapacity : config.getCapacity(),
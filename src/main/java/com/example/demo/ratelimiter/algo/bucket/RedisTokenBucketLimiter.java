@@ -3,13 +3,23 @@ package com.example.demo.ratelimiter.algo.bucket;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RedisClock;
+import com.example.demo.ratelimiter.common.RedisDenialCache;
+import com.example.demo.ratelimiter.common.RedisKeyLayout;
+import com.example.demo.ratelimiter.common.RedisMicroBatcher;
 import com.example.demo.ratelimiter.common.RedisRateLimiter;
+import com.example.demo.ratelimiter.common.RedisReplies;
+import com.example.demo.ratelimiter.common.RedisScriptRegistry;
 
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Redis Token Bucket Algorithm
@@ -33,51 +43,129 @@ import java.util.Collections;
 public class RedisTokenBucketLimiter implements RedisRateLimiter {
     
     private final RedisTemplate<String, String> redisTemplate;
+    private final RedisScriptRegistry scriptRegistry;
+    private final RedisKeyLayout keyLayout;
+    private final RedisClock clock;
+    private final RedisMicroBatcher batcher;
+    private final RedisDenialCache denialCache;
+    private final RedisTokenLeaser leaser;
     private final RateLimitConfig defaultConfig;
-    private final RedisScript<Long> tokenBucketScript;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> tokenBucketScript;
+    private final RedisScript<Long> statusScript;
     
-    // Lua 스크립트 - 원자적 토큰 소비 로직
-    private static final String LUA_SCRIPT = """
-        local key = KEYS[1]
-        local capacity = tonumber(ARGV[1])
-        local refill_rate = tonumber(ARGV[2])
-        local current_time = tonumber(ARGV[3])
+    /**
+     * 스크립트 앞에 붙이는 토큰 보충 함수 (RedisTokenLeaser의 임대 스크립트와 공유)
+     * - refill: 버킷을 읽어 경과한 보충 주기(1초)만큼 토큰을 보충하고 returned개를 더함 (저장하지 않음)
+     *   보충 시간은 주기 단위로만 전진 (자투리 경과 시간 보존), 가득 차면 현재 시각으로
+     * - retry_after_of: permits개가 보충될 때까지의 대기 시간 (기다려도 허용될 수 없으면 -1)
+     * 사용 예: local tokens, last_refill = refill(key, capacity, refill_rate, current_time, 0)
+     */
+    static final String LUA_REFILL = """
+        local function refill(key, capacity, refill_rate, current_time, returned)
+            local bucket_data = redis.call('HMGET', key, 'tokens', 'last_refill')
+            local tokens = tonumber(bucket_data[1]) or capacity
+            local last_refill = tonumber(bucket_data[2]) or current_time
+            
+            local periods = math.floor(math.max(0, current_time - last_refill) / 1000)
+            tokens = math.min(capacity, tokens + periods * refill_rate + returned)
+            if tokens >= capacity then
+                last_refill = current_time
+            else
+                last_refill = last_refill + periods * 1000
+            end
+            return tokens, last_refill
+        end
         
-        -- Redis에서 현재 토큰 수와 마지막 보충 시간 가져오기
-        local bucket_data = redis.call('HMGET', key, 'tokens', 'last_refill')
-        local tokens = tonumber(bucket_data[1]) or capacity
-        local last_refill = tonumber(bucket_data[2]) or current_time
+        local function retry_after_of(tokens, last_refill, permits, capacity, refill_rate, current_time)
+            if permits > capacity or refill_rate <= 0 then
+                return -1
+            end
+            return last_refill + math.ceil((permits - tokens) / refill_rate) * 1000 - current_time
+        end
         
-        -- 경과 시간 계산 및 토큰 보충
-        local elapsed = math.max(0, current_time - last_refill)
-        local tokens_to_add = math.floor(elapsed / 1000) * refill_rate
-        tokens = math.min(capacity, tokens + tokens_to_add)
+        """;
+    
+    // Lua 스크립트 - 원자적 토큰 소비 로직 (KEYS의 모든 버킷을 한 번에 처리)
+    private static final String LUA_SCRIPT = RedisClock.LUA_TIME + LUA_REFILL + """
+        local capacity = tonumber(ARGV[1])
+        local refill_rate = tonumber(ARGV[2])
+        local current_time = script_time(ARGV[3])
+        local permits = tonumber(ARGV[4])
+        local results = {}
         
-        -- 토큰이 있으면 소비하고 1 반환, 없으면 0 반환
-        if tokens > 0 then
-            tokens = tokens - 1
-            -- 상태 저장 (토큰 수, 마지막 보충 시간)
-            redis.call('HMSET', key, 'tokens', tokens, 'last_refill', current_time)
-            -- TTL 설정 (메모리 정리용)
-            redis.call('EXPIRE', key, 3600)
-            return tokens + 1  -- 소비하기 전 토큰 수 반환 (remaining 계산용)
-        else
-            -- 토큰이 없으면 상태만 업데이트
-            redis.call('HMSET', key, 'tokens', tokens, 'last_refill', current_time)
+        for i, key in ipairs(KEYS) do
+            local tokens, last_refill = refill(key, capacity, refill_rate, current_time, 0)
+            
+            -- 토큰이 충분하면 permits개 소비, 부족하면 필요한 토큰이 보충될 때까지의 대기 시간 계산
+            local allowed = 0
+            local retry_after = 0
+            if tokens >= permits then
+                tokens = tokens - permits
+                allowed = 1
+            else
+                retry_after = retry_after_of(tokens, last_refill, permits, capacity, refill_rate, current_time)
+            end
+            
+            -- 상태 저장 (토큰 수, 마지막 보충 시간), TTL 설정 (메모리 정리용)
+            redis.call('HMSET', key, 'tokens', tokens, 'last_refill', last_refill)
             redis.call('EXPIRE', key, 3600)
-            return 0
+            
+            -- [허용 여부, 남은 토큰, 다음 보충 시간, 대기 시간]
+            local base = (i - 1) * 4
+            results[base + 1] = allowed
+            results[base + 2] = tokens
+            results[base + 3] = last_refill + 1000
+            results[base + 4] = retry_after
         end
+        return results
+        """;
+    
+    // 상태 조회 Lua 스크립트 (소비 없이 남은 용량 계산)
+    private static final String STATUS_SCRIPT = RedisClock.LUA_TIME + LUA_REFILL + """
+        local capacity = tonumber(ARGV[1])
+        local refill_rate = tonumber(ARGV[2])
+        local current_time = script_time(ARGV[3])
+        
+        -- 토큰 보충 계산 (소비하지 않음)
+        local tokens = refill(KEYS[1], capacity, refill_rate, current_time, 0)
+        return tokens
         """;
     
-    public RedisTokenBucketLimiter(RedisTemplate<String, String> redisTemplate) {
+    public RedisTokenBucketLimiter(RedisTemplate<String, String> redisTemplate,
+                                   RedisScriptRegistry scriptRegistry, RedisKeyLayout keyLayout,
+                                   RedisClock clock, RedisMicroBatcher batcher,
+                                   RedisTokenLeaser leaser, RedisDenialCache denialCache) {
         this.redisTemplate = redisTemplate;
+        this.scriptRegistry = scriptRegistry;
+        this.keyLayout = keyLayout;
+        this.clock = clock;
+        this.batcher = batcher;
+        this.denialCache = denialCache;
+        this.leaser = leaser;
         this.defaultConfig = RateLimitConfig.forTokenBucket(10, 1); // 10개 토큰, 초당 1개 보충
-        this.tokenBucketScript = RedisScript.of(LUA_SCRIPT, Long.class);
+        this.tokenBucketScript = scriptRegistry.register("token_bucket", LUA_SCRIPT, List.class);
+        this.statusScript = scriptRegistry.register("token_bucket_status", STATUS_SCRIPT, Long.class);
     }
     
     @Override
     public RateLimitResult tryAcquire(String key) {
-        return tryAcquire(key, defaultConfig);
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public List<RateLimitResult> tryAcquireEach(List<String> keys) {
+        return tryAcquireEach(keys, defaultConfig);
+    }
+    
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, int permits) {
+        return tryAcquireAsync(key, defaultConfig, permits);
     }
     
     @Override
@@ -87,76 +175,143 @@ public class RedisTokenBucketLimiter implements RedisRateLimiter {
     
     @Override
     public void reset(String key) {
-        redisTemplate.delete(key);
+        String redisKey = keyLayout.key("token_bucket", key);
+        redisTemplate.delete(redisKey);
+        denialCache.invalidate(redisKey);
     }
     
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        String redisKey = "token_bucket:" + key;
-        long currentTime = System.currentTimeMillis();
-        
-        Long result = redisTemplate.execute(
-            tokenBucketScript,
-            Collections.singletonList(redisKey),
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 토큰을 한 번에 소비
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        if (batcher.isEnabled() || leaser.isEnabled()) {
+            return RedisMicroBatcher.join(tryAcquireAsync(key, config, permits));
+        }
+        String redisKey = keyLayout.key("token_bucket", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            return denied;
+        }
+        long currentTime = clock.now();
+        List<Long> results = execute(Collections.singletonList(redisKey), config, permits, currentTime);
+        return denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime));
+    }
+    
+    /**
+     * 여러 키를 Lua 스크립트 한 번(Redis 왕복 1회)으로 처리
+     * 키마다 독립적으로 토큰 1개씩 소비하며, 결과는 keys와 같은 순서
+     * 단일 키 호출과 마찬가지로 거부 결과는 RedisDenialCache에 기록하고, 기록된 키는 Redis 호출 없이 거부
+     */
+    public List<RateLimitResult> tryAcquireEach(List<String> keys, RateLimitConfig config) {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            redisKeys.add(keyLayout.key("token_bucket", key));
+        }
+        // 거부가 기록된 키는 Redis에 보내지 않고, 나머지 키만 한 번에 실행
+        return denialCache.acquireEach(redisKeys, config, 1, pending -> {
+            long currentTime = clock.now();
+            List<Long> results = execute(pending, config, 1, currentTime);
+            
+            List<RateLimitResult> limitResults = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                limitResults.add(toResult(results, i, currentTime));
+            }
+            return limitResults;
+        });
+    }
+    
+    /**
+     * 특정 설정으로 비동기 요청 처리
+     */
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config) {
+        return tryAcquireAsync(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 토큰을 비동기로 처리 (Redis 응답을 기다리는 동안 스레드를 점유하지 않음)
+     * 토큰 임대가 활성화되어 있으면 로컬 임대분에서 먼저 소비
+     */
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        String redisKey = keyLayout.key("token_bucket", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            // 거부가 기록된 키는 Redis를 호출하지 않음
+            return CompletableFuture.completedFuture(denied);
+        }
+        CompletionStage<RateLimitResult> result = leaser.isEnabled()
+            ? leaser.tryAcquire(redisKey, config, permits, () -> acquireAsync(redisKey, config, permits))
+            : acquireAsync(redisKey, config, permits);
+        return result.thenApply(r -> denialCache.record(redisKey, config, permits, r));
+    }
+    
+    /**
+     * Redis에서 직접 permits개 소비 (배칭이 활성화되어 있으면 배치로 실행)
+     */
+    private CompletionStage<RateLimitResult> acquireAsync(String redisKey, RateLimitConfig config, int permits) {
+        if (batcher.isEnabled()) {
+            // 동시에 들어온 다른 호출과 묶어서 한 번에 실행
+            return batcher.submit(tokenBucketScript, redisKey, config, permits, this::scriptArgs)
+                .thenApply(results -> toResult(results, 0, clock.now()));
+        }
+        long currentTime = clock.now();
+        return executeAsync(Collections.singletonList(redisKey), config, permits, currentTime)
+            .thenApply(results -> toResult(results, 0, currentTime));
+    }
+    
+    private List<Long> execute(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeys(tokenBucketScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    /**
+     * 리액티브 명령으로 스크립트 실행 - 응답은 Redis 클라이언트의 I/O 스레드에서 완료됨
+     */
+    private CompletionStage<List<Long>> executeAsync(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeysAsync(tokenBucketScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    private List<String> scriptArgs(RateLimitConfig config, int permits, long currentTime) {
+        return List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getRefillRate()),
-            String.valueOf(currentTime)
+            clock.scriptTime(currentTime),
+            String.valueOf(permits)
         );
-        
-        if (result != null && result > 0) {
-            return RateLimitResult.allowed(
-                result - 1,  // 소비 후 남은 토큰 수
-                getNextRefillTime(currentTime),
-                "REDIS_TOKEN_BUCKET",
-                "Token consumed successfully"
-            );
-        } else {
-            return RateLimitResult.denied(
-                0,
-                getNextRefillTime(currentTime),
-                "REDIS_TOKEN_BUCKET",
-                "No tokens available"
-            );
-        }
+    }
+    
+    /**
+     * 스크립트 응답에서 index번째 키의 결과 추출 (허용 여부, 남은 수, 리셋 시간, 대기 시간을 한 번에 받음)
+     */
+    private RateLimitResult toResult(List<Long> results, int index, long currentTime) {
+        return RedisReplies.toResult(results, index, currentTime, "REDIS_TOKEN_BUCKET", "Token consumed successfully", "No tokens available");
     }
     
     /**
      * 상태 조회 (토큰 소비 없이)
      */
     public RateLimitResult getStatus(String key, RateLimitConfig config) {
-        String redisKey = "token_bucket:" + key;
-        
-        // 현재 상태만 조회하는 Lua 스크립트
-        String statusScript = """
-            local key = KEYS[1]
-            local capacity = tonumber(ARGV[1])
-            local refill_rate = tonumber(ARGV[2])
-            local current_time = tonumber(ARGV[3])
-            
-            local bucket_data = redis.call('HMGET', key, 'tokens', 'last_refill')
-            local tokens = tonumber(bucket_data[1]) or capacity
-            local last_refill = tonumber(bucket_data[2]) or current_time
-            
-            -- 토큰 보충 계산 (소비하지 않음)
-            local elapsed = math.max(0, current_time - last_refill)
-            local tokens_to_add = math.floor(elapsed / 1000) * refill_rate
-            tokens = math.min(capacity, tokens + tokens_to_add)
-            
-            return tokens
-            """;
+        String redisKey = keyLayout.key("token_bucket", key);
         
-        RedisScript<Long> statusRedisScript = RedisScript.of(statusScript, Long.class);
-        long currentTime = System.currentTimeMillis();
+        long currentTime = clock.now();
         
-        Long tokens = redisTemplate.execute(
-            statusRedisScript,
-            Collections.singletonList(redisKey),
+        Long tokens = scriptRegistry.execute(statusScript, Collections.singletonList(redisKey), List.of(
             String.valueOf(config.getCapacity()),
             String.valueOf(config.getRefillRate()),
-            String.valueOf(currentTime)
-        );
+            clock.scriptTime(currentTime)
+        ));
         
         return RateLimitResult.allowed(
             tokens != null ? tokens : config.getCapacity(),
@@ -0,0 +1,300 @@
+package com.example.demo.ratelimiter.algo.bucket;
+
+import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitResult;
+import com.example.demo.ratelimiter.common.RedisClock;
+import com.example.demo.ratelimiter.common.RedisReplies;
+import com.example.demo.ratelimiter.common.RedisScriptRegistry;
+import com.example.demo.ratelimiter.store.ExpirableState;
+import com.example.demo.ratelimiter.store.KeyedStateStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Redis Token Bucket 토큰 임대 (quota prefetch)
+ * 
+ * 동작 원리:
+ * - 인스턴스가 Redis 버킷에서 토큰 N개를 스크립트 한 번으로 미리 빌려 옴 (임대)
+ * - 임대한 토큰은 로컬 AtomicLong에서 CAS로 소비하므로 Redis 왕복이 없음
+ * - 임대분을 다 쓰거나 만료되면 갱신: 남은 토큰 반납과 새 임대를 같은 스크립트 호출에서 처리
+ * - 만료된 임대의 남은 토큰은 반납하지 않고 버림 (오래된 토큰이 버킷에 다시 들어가지 않도록)
+ * 
+ * 임대 크기 조절:
+ * - 직전 임대에서 사용한 토큰 수 / 경과 시간으로 키별 소비 속도를 추정
+ * - 다음 임대 크기 = 소비 속도 × target-millis (한 번에 최대 2배까지만 증가)
+ * - 상한은 capacity × max-fraction (작은 제한의 키는 임대 크기 1, 즉 매번 Redis 호출)
+ * - 버킷에 남은 토큰이 임대 크기보다 적으면 요청한 permits만 소비 (한 인스턴스가 버킷을 비우지 않도록)
+ * 
+ * 정확도:
+ * - 토큰은 Redis에서 먼저 차감되므로 클러스터 전체 허용량은 버킷 한도를 넘지 않음
+ * - 대신 다른 인스턴스가 쓰지 못하는 토큰이 인스턴스·키당 최대 capacity × max-fraction개,
+ *   최대 ttl-millis 동안 묶일 수 있음 (일시적인 과소 허용)
+ * 
+ * 설정 (기본 비활성화):
+ * - ratelimiter.redis.lease.enabled: 임대 사용 여부
+ * - ratelimiter.redis.lease.target-millis: 임대 한 번으로 처리할 목표 시간 (기본 100ms)
+ * - ratelimiter.redis.lease.ttl-millis: 임대 유효 시간 (기본 1000ms)
+ * - ratelimiter.redis.lease.max-fraction: 용량 대비 최대 임대 비율 (기본 0.1)
+ * 
+ * 메트릭:
+ * - ratelimiter.redis.lease.requests{source=local}: 임대 토큰으로 처리한 요청 수
+ * - ratelimiter.redis.lease.requests{source=redis}: Redis를 호출한 요청 수
+ */
+@Component
+public class RedisTokenLeaser {
+    
+    // 임대 Lua 스크립트 - RedisTokenBucketLimiter와 같은 키·보충 함수(LUA_REFILL)를 사용
+    // ARGV: capacity, refill_rate, current_time, permits, want(임대 크기), returned(반납 토큰 수)
+    private static final String LEASE_SCRIPT = RedisClock.LUA_TIME + RedisTokenBucketLimiter.LUA_REFILL + """
+        local key = KEYS[1]
+        local capacity = tonumber(ARGV[1])
+        local refill_rate = tonumber(ARGV[2])
+        local current_time = script_time(ARGV[3])
+        local permits = tonumber(ARGV[4])
+        local want = tonumber(ARGV[5])
+        local returned = tonumber(ARGV[6])
+        
+        -- 경과한 보충 주기만큼 토큰 보충 후 반납된 토큰 추가
+        local tokens, last_refill = refill(key, capacity, refill_rate, current_time, returned)
+        
+        -- 여유가 있으면 want개, 부족하면 permits개만 임대
+        local granted = 0
+        local retry_after = 0
+        if tokens >= want then
+            granted = want
+        elseif tokens >= permits then
+            granted = permits
+        else
+            retry_after = retry_after_of(tokens, last_refill, permits, capacity, refill_rate, current_time)
+        end
+        tokens = tokens - granted
+        
+        redis.call('HMSET', key, 'tokens', tokens, 'last_refill', last_refill)
+        redis.call('EXPIRE', key, 3600)
+        
+        -- [임대한 토큰 수, 남은 토큰, 다음 보충 시간, 대기 시간]
+        return {granted, tokens, last_refill + 1000, retry_after}
+        """;
+    
+    private static final String ALGORITHM = "REDIS_TOKEN_BUCKET";
+    
+    private final RedisScriptRegistry scriptRegistry;
+    private final RedisClock clock;
+    private final boolean enabled;
+    private final long targetNanos;
+    private final long ttlNanos;
+    private final double maxFraction;
+    private final KeyedStateStore<TokenLease> leases = new KeyedStateStore<>();
+    private final Counter localCounter;
+    private final Counter redisCounter;
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> leaseScript;
+    
+    public RedisTokenLeaser(RedisScriptRegistry scriptRegistry,
+                            RedisClock clock,
+                            MeterRegistry meterRegistry,
+                            @Value("${ratelimiter.redis.lease.enabled:false}") boolean enabled,
+                            @Value("${ratelimiter.redis.lease.target-millis:100}") long targetMillis,
+                            @Value("${ratelimiter.redis.lease.ttl-millis:1000}") long ttlMillis,
+                            @Value("${ratelimiter.redis.lease.max-fraction:0.1}") double maxFraction) {
+        if (targetMillis <= 0 || ttlMillis < targetMillis || maxFraction <= 0 || maxFraction > 1) {
+            throw new IllegalArgumentException("target-millis는 1 이상, ttl-millis는 target-millis 이상, max-fraction은 (0, 1] 범위여야 합니다");
+        }
+        this.scriptRegistry = scriptRegistry;
+        this.clock = clock;
+        this.enabled = enabled;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxFraction = maxFraction;
+        this.localCounter = Counter.builder("ratelimiter.redis.lease.requests")
+            .tag("source", "local")
+            .description("임대 토큰으로 처리한 요청 수")
+            .register(meterRegistry);
+        this.redisCounter = Counter.builder("ratelimiter.redis.lease.requests")
+            .tag("source", "redis")
+            .description("Redis를 호출한 요청 수")
+            .register(meterRegistry);
+        this.leaseScript = scriptRegistry.register("token_bucket_lease", LEASE_SCRIPT, List.class);
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 임대 토큰으로 permits개 소비, 부족하면 임대를 갱신
+     * 다른 요청이 이미 갱신 중이면 기다리지 않고 fallback(Redis 직접 소비)으로 처리
+     * @param redisKey Token Bucket의 Redis 키
+     * @param fallback 임대 없이 Redis에서 직접 소비
+     */
+    public CompletionStage<RateLimitResult> tryAcquire(String redisKey, RateLimitConfig config, int permits,
+                                                       Supplier<CompletionStage<RateLimitResult>> fallback) {
+        TokenLease lease = leases.getOrCreate(redisKey, k -> new TokenLease());
+        if (lease == null) {
+            // 임대 저장소가 가득 참 - 임대 없이 Redis에서 직접 소비
+            redisCounter.increment();
+            return fallback.get();
+        }
+        long now = System.nanoTime();
+        if (lease.tryTake(config, permits, now)) {
+            localCounter.increment();
+            return CompletableFuture.completedFuture(RateLimitResult.allowed(
+                lease.redisRemaining + lease.tokens.get(), lease.resetTime, ALGORITHM, "Token consumed from local lease"));
+        }
+        
+        redisCounter.increment();
+        if (!lease.renewing.compareAndSet(false, true)) {
+            return fallback.get();
+        }
+        try {
+            return renew(redisKey, lease, config, permits, now);
+        } catch (RuntimeException e) {
+            lease.renewing.set(false);
+            throw e;
+        }
+    }
+    
+    /**
+     * 남은 토큰을 반납하고 새 임대를 받아옴 (lease.renewing을 획득한 요청만 호출)
+     */
+    private CompletionStage<RateLimitResult> renew(String redisKey, TokenLease lease, RateLimitConfig config,
+                                                   int permits, long now) {
+        long leftover = lease.tokens.getAndSet(0);
+        long returned = lease.isExpired(now) || lease.config == null ? 0 : leftover;
+        long maxLease = Math.max(1, (long) (config.getCapacity() * maxFraction));
+        long want = Math.max(permits, lease.nextLeaseSize(leftover, now, targetNanos, maxLease));
+        long currentTime = clock.now();
+        
+        List<String> args = List.of(
+            String.valueOf(config.getCapacity()),
+            String.valueOf(config.getRefillRate()),
+            clock.scriptTime(currentTime),
+            String.valueOf(permits),
+            String.valueOf(want),
+            String.valueOf(returned)
+        );
+        return scriptRegistry.executeReactive(leaseScript, Collections.singletonList(redisKey), args)
+            .collectList()
+            .map(RedisReplies::toLongs)
+            .toFuture()
+            .handle((reply, error) -> {
+                try {
+                    if (error != null) {
+                        throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+                    }
+                    return toResult(lease, config, permits, reply, currentTime);
+                } finally {
+                    lease.renewing.set(false);
+                }
+            });
+    }
+    
+    private RateLimitResult toResult(TokenLease lease, RateLimitConfig config, int permits, List<Long> reply, long currentTime) {
+        if (reply.size() < RedisReplies.RESULT_FIELDS) {
+            return RateLimitResult.denied(0, currentTime, ALGORITHM, "No tokens available");
+        }
+        long granted = valueAt(reply, 0);
+        long remaining = valueAt(reply, 1);
+        long resetTime = valueAt(reply, 2);
+        
+        if (granted < permits) {
+            lease.stop();
+            return RateLimitResult.denied(remaining, resetTime, valueAt(reply, 3), ALGORITHM, "No tokens available");
+        }
+        lease.start(config, granted, granted - permits, remaining, resetTime, System.nanoTime() + ttlNanos);
+        return RateLimitResult.allowed(remaining + granted - permits, resetTime, ALGORITHM, "Token consumed successfully");
+    }
+    
+    private static long valueAt(List<Long> reply, int index) {
+        Long value = reply.get(index);
+        return value != null ? value : 0;
+    }
+    
+    /**
+     * 키별 임대 상태
+     * tokens는 CAS로 소비하고, 나머지 임대 정보는 renewing을 획득한 요청만 변경
+     */
+    private static final class TokenLease implements ExpirableState {
+        private final AtomicLong tokens = new AtomicLong();          // 로컬에 남은 임대 토큰 수
+        private final AtomicBoolean renewing = new AtomicBoolean();  // 갱신 중 여부 (동시에 한 요청만 갱신)
+        private volatile RateLimitConfig config;                     // 임대받을 때의 설정 (다르면 갱신)
+        private volatile long expiresAtNanos = System.nanoTime();
+        private volatile long redisRemaining;                        // 임대 시점에 Redis 버킷에 남은 토큰 수
+        private volatile long resetTime;
+        private long leasedAtNanos;                                  // 이하 renewing 획득 시에만 접근
+        private long leased;
+        private long leaseSize = 1;
+        
+        boolean tryTake(RateLimitConfig requested, int permits, long now) {
+            if (isExpired(now) || !requested.equals(config)) {
+                return false;
+            }
+            long current;
+            do {
+                current = tokens.get();
+                if (current < permits) {
+                    return false;
+                }
+            } while (!tokens.compareAndSet(current, current - permits));
+            return true;
+        }
+        
+        boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+        
+        /**
+         * 직전 임대의 소비 속도로 다음 임대 크기 계산
+         */
+        long nextLeaseSize(long leftover, long now, long targetNanos, long maxLease) {
+            if (leased > 0) {
+                long used = leased - leftover;
+                long elapsed = Math.max(1, now - leasedAtNanos);
+                long estimate = (long) Math.ceil((double) used * targetNanos / elapsed);
+                leaseSize = Math.max(1, Math.min(leaseSize * 2, estimate));
+            }
+            leaseSize = Math.min(leaseSize, maxLease);
+            return leaseSize;
+        }
+        
+        /**
+         * 새 임대 시작 - tokens를 마지막에 설정하여 다른 스레드가 이전 임대 정보로 소비하지 않도록 함
+         */
+        void start(RateLimitConfig leaseConfig, long granted, long available, long remaining, long reset, long expiresAt) {
+            this.config = leaseConfig;
+            this.leased = granted;
+            this.leasedAtNanos = System.nanoTime();
+            this.redisRemaining = remaining;
+            this.resetTime = reset;
+            this.expiresAtNanos = expiresAt;
+            tokens.set(available);
+        }
+        
+        /**
+         * 임대를 받지 못함 - 다음 갱신에서 소비 속도를 다시 추정하지 않도록 임대 기록을 지움
+         */
+        void stop() {
+            this.leased = 0;
+        }
+        
+        @Override
+        public boolean isFresh() {
+            // 갱신 중이 아니고 만료된 임대는 제거해도 됨 (남은 토큰은 반납하지 않고 버림)
+            return !renewing.get() && isExpired(System.nanoTime());
+        }
+    }
+}
@@ -3,10 +3,18 @@ package com.example.demo.ratelimiter.algo.bucket;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitWaiter;
+import com.example.demo.ratelimiter.store.ExpirableState;
+import com.example.demo.ratelimiter.store.KeyedStateStore;
+import com.example.demo.ratelimiter.store.OffHeapStateTable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 /**
  * Token Bucket Algorithm
@@ -28,123 +36,414 @@ import java.util.concurrent.atomic.AtomicLong;
 @Component
 public class TokenBucketLimiter implements RateLimiter {
     
-    private final ConcurrentHashMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final KeyedStateStore<TokenBucket> buckets;
+    private final OffHeapStateTable offHeapBuckets;   // null이면 힙 저장소(buckets) 사용
+    private final boolean failOpen;                   // 저장소가 가득 찼을 때 새 키를 추적 없이 판정
+    private final LongSupplier nanoClock;
+    private final long originNanos;
+    private final long originMillis = System.currentTimeMillis();
     private final RateLimitConfig defaultConfig;
     
     public TokenBucketLimiter() {
-        this.defaultConfig = RateLimitConfig.forTokenBucket(10, 1); // 10개 토큰, 초당 1개 보충
+        this(0, false);
+    }
+    
+    /**
+     * Spring 빈 생성자
+     * @param offHeapMaxKeys 0보다 크면 off-heap 테이블에 상태 저장 (ratelimiter.memory.off-heap-max-keys)
+     * @param failOpen 저장소가 가득 찼을 때 새 키를 거부하지 않고 추적 없이 판정할지 여부 (ratelimiter.memory.fail-open)
+     */
+    @Autowired
+    public TokenBucketLimiter(@Value("${ratelimiter.memory.off-heap-max-keys:0}") int offHeapMaxKeys,
+                              @Value("${ratelimiter.memory.fail-open:false}") boolean failOpen) {
+        this(RateLimitConfig.forTokenBucket(10, 1), offHeapMaxKeys, failOpen); // 10개 토큰, 초당 1개 보충
     }
     
     public TokenBucketLimiter(RateLimitConfig config) {
+        this(config, 0);
+    }
+    
+    /**
+     * Off-heap 저장소를 사용하는 생성자
+     * 키별 상태를 "버킷이 가득 차는 시각" long 하나로 저장하므로 키당 16바이트(지문 포함)만 사용
+     * 
+     * @param offHeapMaxKeys off-heap 테이블에 보관할 최대 키 수 (0이면 힙 저장소 사용)
+     */
+    public TokenBucketLimiter(RateLimitConfig config, int offHeapMaxKeys) {
+        this(config, offHeapMaxKeys, false);
+    }
+    
+    /**
+     * @param failOpen 저장소가 가득 찼을 때 새 키를 거부하지 않고 추적 없이 판정할지 여부 (KeyedStateStore 참고)
+     */
+    public TokenBucketLimiter(RateLimitConfig config, int offHeapMaxKeys, boolean failOpen) {
+        this(config, offHeapMaxKeys, failOpen, System::nanoTime);
+    }
+    
+    /**
+     * 현재 시각(나노초)을 주입받는 생성자 (테스트에서 보충 시각을 결정적으로 재현하기 위함)
+     * 대기 중 park는 실제 시간 기준이므로, 주입한 시각을 멈춰 두면 대기자는 인터럽트될 때까지 깨어나지 않음
+     */
+    TokenBucketLimiter(RateLimitConfig config, int offHeapMaxKeys, boolean failOpen, LongSupplier nanoClock) {
         this.defaultConfig = config;
+        this.failOpen = failOpen;
+        this.buckets = new KeyedStateStore<>(KeyedStateStore.DEFAULT_MAX_KEYS, failOpen);
+        this.nanoClock = nanoClock;
+        this.originNanos = nanoClock.getAsLong();
+        this.offHeapBuckets = offHeapMaxKeys > 0 ? new OffHeapStateTable(offHeapMaxKeys, 1, this::isFreshSlot) : null;
     }
     
     @Override
     public RateLimitResult tryAcquire(String key) {
-        TokenBucket bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(defaultConfig));
-        return bucket.tryConsume();
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    /**
+     * 토큰이 보충될 때까지 최대 timeout 동안 대기
+     * 부족한 토큰을 미리 예약(base 전진)하고 보충 시각까지 park하므로, 대기자는 예약 순서대로 허용됨
+     */
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits, long timeout, TimeUnit unit) {
+        return tryAcquire(key, defaultConfig, permits, unit.toNanos(timeout));
     }
     
     @Override
     public RateLimitResult getStatus(String key) {
+        if (offHeapBuckets != null) {
+            return getStatusOffHeap(key, defaultConfig);
+        }
         TokenBucket bucket = buckets.get(key);
         if (bucket == null) {
             return RateLimitResult.allowed(defaultConfig.getCapacity(), 0, "TOKEN_BUCKET");
         }
-        return bucket.getStatus();
+        return bucket.getStatus(defaultConfig);
     }
     
     @Override
     public void reset(String key) {
+        if (offHeapBuckets != null) {
+            offHeapBuckets.remove(key);
+            return;
+        }
         buckets.remove(key);
     }
     
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        TokenBucket bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(config));
-        return bucket.tryConsume();
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 토큰을 한 번에 소비
+     * 설정은 호출마다 적용 (힙/off-heap 저장소 모두 상태에 설정을 묶어두지 않음)
+     * config.timeoutMs가 0보다 크면 그 시간 안에 보충될 토큰을 예약하고 대기
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        return tryAcquire(key, config, permits, TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMs()));
+    }
+    
+    private RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits, long timeoutNanos) {
+        RateLimiter.checkPermits(permits);
+        timeoutNanos = Math.max(0, timeoutNanos);
+        if (offHeapBuckets != null) {
+            return tryConsumeOffHeap(key, config, permits, timeoutNanos);
+        }
+        TokenBucket bucket = getBucket(key, config);
+        if (bucket == null) {
+            // 저장소가 제한 중인 키로 가득 참 - 기존 키의 기록을 지우지 않고 새 키를 거부
+            return RateLimitResult.tooManyKeys(System.currentTimeMillis(), "TOKEN_BUCKET");
+        }
+        return bucket.tryConsume(config, permits, timeoutNanos);
+    }
+    
+    /**
+     * 키에 해당하는 버킷 조회
+     * 이미 존재하는 키는 get 한 번으로 끝내고, computeIfAbsent(람다 캡처 할당)는 최초 생성 시에만 호출
+     * @return 버킷, 저장소가 가득 차 새 키를 받을 수 없으면 null
+     */
+    private TokenBucket getBucket(String key, RateLimitConfig config) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        return buckets.getOrCreate(key, k -> new TokenBucket(config, nanoClock));
+    }
+    
+    /**
+     * Off-heap 슬롯 기반 토큰 소비
+     * 슬롯에는 base 대신 "버킷이 가득 차는 시각"(base + burst)을 저장하여, 0으로 초기화된 새 슬롯이 곧 가득 찬 버킷이 되도록 함
+     * 계산 방식은 TokenBucket.tryConsume과 동일
+     */
+    private RateLimitResult tryConsumeOffHeap(String key, RateLimitConfig config, int permits, long timeoutNanos) {
+        long intervalNanos = TokenBucket.intervalOf(config);
+        long burstNanos = TokenBucket.burstOf(config, intervalNanos);
+        long now = nanoClock.getAsLong() - originNanos;
+        if (permits > burstNanos / intervalNanos) {
+            return TokenBucket.exceedsCapacity(toEpochMillis(now));
+        }
+        boolean refills = config.getRefillIntervalNanos() > 0;
+        long cost = intervalNanos * permits;
+        long fingerprint = OffHeapStateTable.fingerprint(key);
+        long slot = offHeapBuckets.slotOf(fingerprint);
+        
+        while (true) {
+            if (slot < 0) {
+                if (!failOpen) {
+                    // 테이블이 제한 중인 키로 가득 참 - 기존 키의 상태를 지우지 않고 새 키를 거부
+                    return RateLimitResult.tooManyKeys(toEpochMillis(now), "TOKEN_BUCKET");
+                }
+                // fail-open - 저장하지 않고 가득 찬 새 버킷(fullAt = 0)으로 판정
+                long next = now - burstNanos + cost;
+                long remaining = (now - next) / intervalNanos;
+                return RateLimitResult.allowed(
+                    remaining, 
+                    toEpochMillis(next + (remaining + 1) * intervalNanos), 
+                    "TOKEN_BUCKET",
+                    "Token consumed without tracking (too many active keys)"
+                );
+            }
+            long fullAt = offHeapBuckets.get(slot, 0);
+            if (!offHeapBuckets.owns(slot, fingerprint)) {
+                // 읽는 사이 슬롯이 다른 키에 재사용됨 - 다시 할당
+                slot = offHeapBuckets.slotOf(fingerprint);
+                continue;
+            }
+            long start = Math.max(fullAt - burstNanos, now - burstNanos);
+            long next = start + cost;
+            
+            if (next > now && !refills) {
+                return TokenBucket.neverRefills(toEpochMillis(now));
+            }
+            if (next - now > timeoutNanos) {
+                return RateLimitResult.denied(0, toEpochMillis(next), "TOKEN_BUCKET", "No tokens available");
+            }
+            
+            if (offHeapBuckets.compareAndSet(slot, 0, fullAt, next + burstNanos)) {
+                if (!offHeapBuckets.owns(slot, fingerprint)) {
+                    // CAS 직전에 슬롯이 다른 키로 넘어감 - 기록을 되돌리고 다시 할당
+                    offHeapBuckets.compareAndSet(slot, 0, next + burstNanos, fullAt);
+                    slot = offHeapBuckets.slotOf(fingerprint);
+                    continue;
+                }
+                if (next > now) {
+                    // 예약 중인 슬롯은 초기 상태가 아니므로 대기하는 동안 다른 키에 재사용되지 않음
+                    if (!RateLimitWaiter.parkUntil(originNanos + next)) {
+                        // 인터럽트됨 - 예약한 토큰을 돌려놓음 (뒤이은 예약자는 그대로 두고 전체를 cost만큼 당김)
+                        long current;
+                        do {
+                            current = offHeapBuckets.get(slot, 0);
+                        } while (!offHeapBuckets.compareAndSet(slot, 0, current, current - cost));
+                        return TokenBucket.interrupted(toEpochMillis(next));
+                    }
+                    now = next;
+                }
+                long remaining = (now - next) / intervalNanos;
+                return RateLimitResult.allowed(
+                    remaining, 
+                    toEpochMillis(next + (remaining + 1) * intervalNanos), 
+                    "TOKEN_BUCKET",
+                    "Token consumed successfully"
+                );
+            }
+        }
+    }
+    
+    private RateLimitResult getStatusOffHeap(String key, RateLimitConfig config) {
+        long slot = offHeapBuckets.find(key);
+        long intervalNanos = TokenBucket.intervalOf(config);
+        long burstNanos = TokenBucket.burstOf(config, intervalNanos);
+        long now = nanoClock.getAsLong() - originNanos;
+        long fullAt = slot < 0 ? 0 : offHeapBuckets.get(slot, 0);
+        
+        boolean full = fullAt <= now;
+        long start = full ? now - burstNanos : fullAt - burstNanos;
+        // 대기 중인 예약이 있으면 start가 now보다 뒤에 있을 수 있음 (토큰 0개)
+        long tokens = now > start ? (now - start) / intervalNanos : 0;
+        long nextRefill = full ? now : start + (tokens + 1) * intervalNanos;
+        return RateLimitResult.allowed(tokens, toEpochMillis(nextRefill), "TOKEN_BUCKET", "Current status");
+    }
+    
+    /**
+     * 버킷이 가득 찬 슬롯은 재사용 가능
+     */
+    private boolean isFreshSlot(OffHeapStateTable table, long slot) {
+        return table.get(slot, 0) <= nanoClock.getAsLong() - originNanos;
+    }
+    
+    private long toEpochMillis(long nanos) {
+        return originMillis + TimeUnit.NANOSECONDS.toMillis(nanos);
     }
     
     /**
      * Token Bucket 내부 구현 클래스
+     * 
+     * 토큰 수를 "버킷이 비어 있었던 가상 시각(base)" 하나로 표현
+     * - 현재 토큰 수 = min(capacity, (now - base) / 보충 간격)
+     * - 토큰 소비 = base를 보충 간격만큼 전진
+     * System.nanoTime 기준으로 연속적으로 보충되므로 초 경계에서 토큰이 한꺼번에 채워지지 않으며,
+     * 1개 미만의 보충분(소수점 이하)은 now - base의 나머지로 자연스럽게 이월됨
+     * 보충 간격과 용량은 호출마다 전달된 설정으로 계산 (off-heap 경로와 동일)
      */
-    private static class TokenBucket {
-        private final AtomicLong tokens;
-        private final AtomicLong lastRefillTime;
-        private final RateLimitConfig config;
+    private static class TokenBucket implements ExpirableState {
+        private static final VarHandle BASE;
         
-        public TokenBucket(RateLimitConfig config) {
-            this.config = config;
-            this.tokens = new AtomicLong(config.getCapacity());
-            this.lastRefillTime = new AtomicLong(System.currentTimeMillis());
+        static {
+            try {
+                BASE = MethodHandles.lookup().findVarHandle(TokenBucket.class, "base", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+        
+        private final LongSupplier nanoClock;
+        private final long originNanos;
+        private final long originMillis;
+        private volatile long base;           // origin 기준 나노초
+        private volatile long burstNanos;     // 마지막 호출 설정 기준으로 빈 버킷을 가득 채우는 데 걸리는 시간 (isFresh 판단용)
+        
+        public TokenBucket(RateLimitConfig config, LongSupplier nanoClock) {
+            this.burstNanos = burstOf(config, intervalOf(config));
+            this.nanoClock = nanoClock;
+            this.originNanos = nanoClock.getAsLong();
+            this.originMillis = System.currentTimeMillis();
+            this.base = -burstNanos; // 가득 찬 상태로 시작
         }
         
-        public RateLimitResult tryConsume() {
-            refill();
+        public RateLimitResult tryConsume(RateLimitConfig config, int permits, long timeoutNanos) {
+            long intervalNanos = intervalOf(config);
+            long burstNanos = burstOf(config, intervalNanos);
+            boolean refills = config.getRefillIntervalNanos() > 0;
+            long now = nanoClock.getAsLong() - originNanos;
+            if (permits > burstNanos / intervalNanos) {
+                return exceedsCapacity(toEpochMillis(now));
+            }
+            if (this.burstNanos != burstNanos) {
+                this.burstNanos = burstNanos;
+            }
+            long cost = intervalNanos * permits;
             
-            long currentTokens = tokens.get();
-            if (currentTokens > 0) {
-                // CAS (Compare-And-Swap)를 사용한 thread-safe 토큰 소비
-                if (tokens.compareAndSet(currentTokens, currentTokens - 1)) {
+            while (true) {
+                long current = base;
+                // 버킷 용량 이상으로는 쌓이지 않도록 base를 now - burst 이후로 제한
+                long start = Math.max(current, now - burstNanos);
+                long next = start + cost;
+                
+                if (next > now && !refills) {
+                    return neverRefills(toEpochMillis(now));
+                }
+                if (next - now > timeoutNanos) {
+                    // 거부 시에는 상태를 쓰지 않음, permits개가 모두 보충되는 시각 반환
+                    return RateLimitResult.denied(
+                        0, 
+                        toEpochMillis(next), 
+                        "TOKEN_BUCKET",
+                        "No tokens available"
+                    );
+                }
+                
+                // 보충과 소비를 한 번의 CAS로 반영, 실패 시 최신 상태로 다시 계산
+                if (BASE.compareAndSet(this, current, next)) {
+                    if (next > now) {
+                        // 아직 보충되지 않은 토큰을 예약함 - 보충 시각까지 대기
+                        if (!RateLimitWaiter.parkUntil(originNanos + next)) {
+                            // 인터럽트됨 - 예약한 토큰을 돌려놓음 (뒤이은 예약자는 그대로 두고 전체를 cost만큼 당김)
+                            BASE.getAndAdd(this, -cost);
+                            return interrupted(toEpochMillis(next));
+                        }
+                        now = next;
+                    }
+                    long remaining = (now - next) / intervalNanos;
                     return RateLimitResult.allowed(
-                        currentTokens - 1, 
-                        getNextRefillTime(), 
+                        remaining, 
+                        toEpochMillis(next + (remaining + 1) * intervalNanos), 
                         "TOKEN_BUCKET",
                         "Token consumed successfully"
                     );
                 }
-                // CAS 실패 시 재시도
-                return tryConsume();
             }
-            
-            return RateLimitResult.denied(
-                0, 
-                getNextRefillTime(), 
-                "TOKEN_BUCKET",
-                "No tokens available"
-            );
         }
         
-        public RateLimitResult getStatus() {
-            refill();
+        public RateLimitResult getStatus(RateLimitConfig config) {
+            long intervalNanos = intervalOf(config);
+            long burstNanos = burstOf(config, intervalNanos);
+            long now = nanoClock.getAsLong() - originNanos;
+            long current = base;
+            boolean full = current <= now - burstNanos;
+            long start = full ? now - burstNanos : current;
+            // 대기 중인 예약이 있으면 start가 now보다 뒤에 있을 수 있음 (토큰 0개)
+            long tokens = now > start ? (now - start) / intervalNanos : 0;
+            long nextRefill = full ? now : start + (tokens + 1) * intervalNanos;
             return RateLimitResult.allowed(
-                tokens.get(), 
-                getNextRefillTime(), 
+                tokens, 
+                toEpochMillis(nextRefill), 
                 "TOKEN_BUCKET",
                 "Current status"
             );
         }
         
         /**
-         * 토큰 보충 로직
+         * 버킷이 가득 찬 상태이면 초기 상태와 동일
          */
-        private void refill() {
-            long now = System.currentTimeMillis();
-            long lastRefill = lastRefillTime.get();
-            
-            if (now > lastRefill) {
-                long elapsed = now - lastRefill;
-                long tokensToAdd = (elapsed / 1000) * config.getRefillRate();
-                
-                if (tokensToAdd > 0) {
-                    long currentTokens = tokens.get();
-                    long newTokens = Math.min(config.getCapacity(), currentTokens + tokensToAdd);
-                    
-                    // CAS를 사용한 thread-safe 토큰 보충
-                    if (tokens.compareAndSet(currentTokens, newTokens)) {
-                        lastRefillTime.set(now);
-                    }
-                }
+        @Override
+        public boolean isFresh() {
+            return base <= nanoClock.getAsLong() - originNanos - burstNanos;
+        }
+        
+        /**
+         * 버킷 용량보다 많은 토큰을 요청한 경우 (보충을 기다려도 허용될 수 없음)
+         */
+        static RateLimitResult exceedsCapacity(long now) {
+            return RateLimitResult.denied(0, now, -1, "TOKEN_BUCKET", "Requested permits exceed bucket capacity");
+        }
+        
+        /**
+         * 보충이 없는 설정에서 남은 토큰보다 많이 요청한 경우 (기다려도 허용될 수 없음)
+         */
+        static RateLimitResult neverRefills(long now) {
+            return RateLimitResult.denied(0, now, -1, "TOKEN_BUCKET", "No tokens available and refill is disabled");
+        }
+        
+        /**
+         * 토큰 보충을 기다리던 중 인터럽트된 경우
+         */
+        static RateLimitResult interrupted(long next) {
+            return RateLimitResult.denied(0, next, "TOKEN_BUCKET", "Interrupted while waiting for tokens");
+        }
+        
+        /**
+         * 토큰 1개 보충 간격
+         * 보충이 없는 설정은 사실상 무한대인 간격으로 표현 (capacity * interval 오버플로 방지)
+         */
+        static long intervalOf(RateLimitConfig config) {
+            long interval = config.getRefillIntervalNanos();
+            return interval > 0 ? interval : Long.MAX_VALUE / 4 / Math.max(1, config.getCapacity());
+        }
+        
+        /**
+         * 빈 버킷을 가득 채우는 데 걸리는 시간
+         */
+        static long burstOf(RateLimitConfig config, long intervalNanos) {
+            int capacity = Math.max(0, config.getCapacity());
+            try {
+                return Math.multiplyExact(intervalNanos, (long) capacity);
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Token Bucket 용량과 보충 주기가 너무 큽니다: capacity=" + capacity, e);
             }
         }
         
         /**
-         * 다음 토큰 보충 시간 계산
+         * origin 기준 나노초를 epoch 밀리초로 변환
          */
-        private long getNextRefillTime() {
-            return lastRefillTime.get() + 1000; // 1초 후
+        private long toEpochMillis(long nanos) {
+            return originMillis + TimeUnit.NANOSECONDS.toMillis(nanos);
         }
     }
-} 
\ No newline at end of file
+}
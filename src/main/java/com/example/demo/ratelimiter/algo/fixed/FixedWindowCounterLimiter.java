@@ -3,9 +3,14 @@ package com.example.demo.ratelimiter.algo.fixed;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitWaiter;
+import com.example.demo.ratelimiter.store.ExpirableState;
+import com.example.demo.ratelimiter.store.KeyedStateStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -19,21 +24,44 @@ import java.util.concurrent.atomic.AtomicLong;
 @Component
 public class FixedWindowCounterLimiter implements RateLimiter {
     
-    private final ConcurrentHashMap<String, FixedWindow> windows = new ConcurrentHashMap<>();
+    private final KeyedStateStore<FixedWindow> windows;
     private final RateLimitConfig defaultConfig;
     
     public FixedWindowCounterLimiter() {
-        this.defaultConfig = RateLimitConfig.forWindow(10, 60000);
+        this(false);
+    }
+    
+    /**
+     * Spring 빈 생성자
+     * @param failOpen 키 저장소가 가득 찼을 때 새 키를 거부하지 않고 추적 없이 판정할지 여부 (ratelimiter.memory.fail-open)
+     */
+    @Autowired
+    public FixedWindowCounterLimiter(@Value("${ratelimiter.memory.fail-open:false}") boolean failOpen) {
+        this(RateLimitConfig.forWindow(10, 60000), failOpen);
     }
     
     public FixedWindowCounterLimiter(RateLimitConfig config) {
+        this(config, false);
+    }
+    
+    public FixedWindowCounterLimiter(RateLimitConfig config, boolean failOpen) {
+        this.windows = new KeyedStateStore<>(KeyedStateStore.DEFAULT_MAX_KEYS, failOpen);
         this.defaultConfig = config;
     }
     
     @Override
     public RateLimitResult tryAcquire(String key) {
-        FixedWindow window = windows.computeIfAbsent(key, k -> new FixedWindow(defaultConfig));
-        return window.tryIncrement();
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits, long timeout, TimeUnit unit) {
+        return tryAcquire(key, defaultConfig, permits, unit.toNanos(timeout));
     }
     
     @Override
@@ -57,15 +85,60 @@ public class FixedWindowCounterLimiter implements RateLimiter {
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        FixedWindow window = windows.computeIfAbsent(key, k -> new FixedWindow(config));
-        return window.tryIncrement();
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 한 번에 카운트
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        return tryAcquire(key, config, permits, TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMs()));
+    }
+    
+    /**
+     * 거부되면 resetTime에 깨어나 재시도하며 최대 timeoutNanos 동안 대기
+     * 윈도우 기반은 미래 슬롯을 예약할 수 없으므로 대기자 간 허용 순서는 보장하지 않음
+     */
+    private RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits, long timeoutNanos) {
+        RateLimiter.checkPermits(permits);
+        if (permits > config.getCapacity()) {
+            // 윈도우 한도보다 많이 요청하면 기다려도 허용될 수 없음
+            return RateLimitResult.denied(0, System.currentTimeMillis(), -1, "FIXED_WINDOW", "Requested permits exceed window limit");
+        }
+        RateLimitResult result = tryIncrement(key, config, permits);
+        if (result.isAllowed() || timeoutNanos <= 0) {
+            return result;
+        }
+        return RateLimitWaiter.retryUntilReset(result, () -> tryIncrement(key, config, permits), timeoutNanos);
+    }
+    
+    private RateLimitResult tryIncrement(String key, RateLimitConfig config, int permits) {
+        FixedWindow window = getWindow(key, config);
+        if (window == null) {
+            // 저장소가 제한 중인 키로 가득 참 - 기존 키의 기록을 지우지 않고 새 키를 거부
+            return RateLimitResult.tooManyKeys(System.currentTimeMillis() + config.getWindowSizeMs(), "FIXED_WINDOW");
+        }
+        return window.tryIncrement(permits);
+    }
+    
+    /**
+     * 키에 해당하는 윈도우 조회 (람다 캡처 할당은 최초 생성 시에만)
+     * @return 윈도우, 저장소가 가득 차 새 키를 받을 수 없으면 null
+     */
+    private FixedWindow getWindow(String key, RateLimitConfig config) {
+        FixedWindow window = windows.get(key);
+        if (window != null) {
+            return window;
+        }
+        return windows.getOrCreate(key, k -> new FixedWindow(config));
     }
     
     /**
      * Fixed Window 내부 구현 클래스
      */
-    private static class FixedWindow {
+    private static class FixedWindow implements ExpirableState {
         private final AtomicLong counter;
         private final AtomicLong windowStart;
         private final RateLimitConfig config;
@@ -76,7 +149,7 @@ public class FixedWindowCounterLimiter implements RateLimiter {
             this.windowStart = new AtomicLong(getCurrentWindow());
         }
         
-        public RateLimitResult tryIncrement() {
+        public RateLimitResult tryIncrement(int permits) {
             long currentWindow = getCurrentWindow();
             long windowStartTime = windowStart.get();
             
@@ -89,18 +162,18 @@ public class FixedWindowCounterLimiter implements RateLimiter {
             }
             
             long currentCount = counter.get();
-            if (currentCount < config.getCapacity()) {
+            if (currentCount + permits <= config.getCapacity()) {
                 // CAS를 사용한 thread-safe 카운터 증가
-                if (counter.compareAndSet(currentCount, currentCount + 1)) {
+                if (counter.compareAndSet(currentCount, currentCount + permits)) {
                     return RateLimitResult.allowed(
-                        config.getCapacity() - currentCount - 1,
+                        config.getCapacity() - currentCount - permits,
                         getWindowEnd(),
                         "FIXED_WINDOW",
                         "Request counted in current window"
                     );
                 }
                 // CAS 실패 시 재시도
-                return tryIncrement();
+                return tryIncrement(permits);
             }
             
             return RateLimitResult.denied(
@@ -133,6 +206,14 @@ public class FixedWindowCounterLimiter implements RateLimiter {
             );
         }
         
+        /**
+         * 윈도우가 지났거나 카운트가 0이면 초기 상태와 동일
+         */
+        @Override
+        public boolean isFresh() {
+            return getCurrentWindow() > windowStart.get() || counter.get() == 0;
+        }
+        
         /**
          * 현재 윈도우 번호 계산
          * 시간을 윈도우 크기로 나누어 윈도우 식별
@@ -3,19 +3,31 @@ package com.example.demo.ratelimiter.algo.fixed;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RedisClock;
+import com.example.demo.ratelimiter.common.RedisDenialCache;
+import com.example.demo.ratelimiter.common.RedisKeyLayout;
+import com.example.demo.ratelimiter.common.RedisMicroBatcher;
 import com.example.demo.ratelimiter.common.RedisRateLimiter;
+import com.example.demo.ratelimiter.common.RedisReplies;
+import com.example.demo.ratelimiter.common.RedisScriptRegistry;
 
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Redis Fixed Window Counter Algorithm
  * 
  * 동작 원리:
  * - Redis의 INCR 명령어와 EXPIRE를 사용하여 고정 윈도우 구현
- * - 윈도우별로 독립적인 카운터 관리
+ * - 윈도우별로 독립적인 카운터 관리 (키 = 키:윈도우 번호, 윈도우 번호 = 현재 시각 / 윈도우 크기)
+ * - 확인, 증가, 만료 설정을 Lua 스크립트 하나로 원자적으로 처리하고, 허용한 요청만 카운트
  * - 윈도우 만료 시 자동으로 카운터 리셋
  * 
  * 장점:
@@ -29,18 +41,91 @@ import java.time.Duration;
  */
 @Component
 public class RedisFixedWindowRateLimiter implements RedisRateLimiter {
-
+    
     private final RedisTemplate<String, String> redisTemplate;
+    private final RedisScriptRegistry scriptRegistry;
+    private final RedisKeyLayout keyLayout;
+    private final RedisClock clock;
+    private final RedisMicroBatcher batcher;
+    private final RedisDenialCache denialCache;
     private final RateLimitConfig defaultConfig;
-
-    public RedisFixedWindowRateLimiter(RedisTemplate<String, String> redisTemplate) {
+    @SuppressWarnings("rawtypes")
+    private final RedisScript<List> fixedWindowScript;
+    
+    // Lua 스크립트 - 윈도우 번호가 붙은 카운터 확인/증가와 만료 시간 설정 (KEYS의 모든 카운터를 한 번에 처리)
+    // 허용할 때만 증가하므로 거부가 이어져도 카운터는 limit을 넘지 않음
+    private static final String LUA_SCRIPT = RedisClock.LUA_TIME + """
+        local window_size = tonumber(ARGV[1])
+        local permits = tonumber(ARGV[2])
+        local limit = tonumber(ARGV[3])
+        local current_time = script_time(ARGV[4])
+        local results = {}
+        
+        -- 현재 윈도우 번호와 종료 시각 (모든 인스턴스에서 같은 경계 사용)
+        local window = math.floor(current_time / window_size)
+        local window_end = (window + 1) * window_size
+        
+        for i, key in ipairs(KEYS) do
+            local window_key = key .. ':' .. string.format('%d', window)
+            local count = tonumber(redis.call('GET', window_key)) or 0
+            
+            local allowed = 0
+            local retry_after = 0
+            if count + permits <= limit then
+                count = redis.call('INCRBY', window_key, permits)
+                -- 키가 처음 생성되었다면 윈도우 종료 시각(+ 인스턴스 간 시계 차이 여유 1초)에 만료
+                if count == permits then
+                    redis.call('PEXPIREAT', window_key, string.format('%d', window_end + 1000))
+                end
+                allowed = 1
+            elseif permits > limit then
+                retry_after = -1
+            else
+                retry_after = window_end - current_time
+            end
+            
+            -- [허용 여부, 남은 요청 수, 윈도우 종료 시간, 대기 시간]
+            local base = (i - 1) * 4
+            results[base + 1] = allowed
+            results[base + 2] = math.max(0, limit - count)
+            results[base + 3] = window_end
+            results[base + 4] = retry_after
+        end
+        return results
+        """;
+    
+    public RedisFixedWindowRateLimiter(RedisTemplate<String, String> redisTemplate,
+                                       RedisScriptRegistry scriptRegistry, RedisKeyLayout keyLayout,
+                                       RedisClock clock, RedisMicroBatcher batcher,
+                                       RedisDenialCache denialCache) {
         this.redisTemplate = redisTemplate;
+        this.scriptRegistry = scriptRegistry;
+        this.keyLayout = keyLayout;
+        this.clock = clock;
+        this.batcher = batcher;
+        this.denialCache = denialCache;
         this.defaultConfig = RateLimitConfig.forWindow(10, 60000); // 1분당 10개 요청
+        this.fixedWindowScript = scriptRegistry.register("fixed_window", LUA_SCRIPT, List.class);
     }
-
+    
     @Override
     public RateLimitResult tryAcquire(String key) {
-        return tryAcquire(key, defaultConfig);
+        return tryAcquire(key, defaultConfig, 1);
+    }
+    
+    @Override
+    public RateLimitResult tryAcquire(String key, int permits) {
+        return tryAcquire(key, defaultConfig, permits);
+    }
+    
+    @Override
+    public List<RateLimitResult> tryAcquireEach(List<String> keys) {
+        return tryAcquireEach(keys, defaultConfig);
+    }
+    
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, int permits) {
+        return tryAcquireAsync(key, defaultConfig, permits);
     }
     
     @Override
@@ -51,54 +136,131 @@ public class RedisFixedWindowRateLimiter implements RedisRateLimiter {
     @Override
     public void reset(String key) {
         // 현재 윈도우 키를 삭제
-        String redisKey = "fixed_window:" + key;
-        long currentTime = System.currentTimeMillis();
+        String redisKey = keyLayout.key("fixed_window", key);
+        long currentTime = clock.now();
         long window = currentTime / defaultConfig.getWindowSizeMs();
         String windowKey = redisKey + ":" + window;
         redisTemplate.delete(windowKey);
+        denialCache.invalidate(redisKey);
     }
     
     /**
      * 특정 설정으로 요청 처리
      */
+    @Override
     public RateLimitResult tryAcquire(String key, RateLimitConfig config) {
-        String redisKey = "fixed_window:" + key;
-        long currentTime = System.currentTimeMillis();
-        
-        // Lua 스크립트를 사용하지 않는 간단한 구현
-        Long count = redisTemplate.opsForValue().increment(redisKey);
-
-        // 키가 처음 생성되었다면, 만료 시간 설정 (윈도우 리셋 자동화)
-        if (count != null && count == 1) {
-            redisTemplate.expire(redisKey, Duration.ofMillis(config.getWindowSizeMs()));
+        return tryAcquire(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 한 번에 카운트
+     */
+    public RateLimitResult tryAcquire(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        if (batcher.isEnabled()) {
+            return RedisMicroBatcher.join(tryAcquireAsync(key, config, permits));
         }
-
-        // 제한 확인
-        if (count != null && count <= config.getCapacity()) {
-            return RateLimitResult.allowed(
-                config.getCapacity() - count,
-                getWindowEnd(currentTime, config.getWindowSizeMs()),
-                "REDIS_FIXED_WINDOW",
-                "Request counted in current window"
-            );
-        } else {
-            return RateLimitResult.denied(
-                0,
-                getWindowEnd(currentTime, config.getWindowSizeMs()),
-                "REDIS_FIXED_WINDOW",
-                "Window limit exceeded"
-            );
+        String redisKey = keyLayout.key("fixed_window", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            return denied;
+        }
+        long currentTime = clock.now();
+        List<Long> counts = execute(Collections.singletonList(redisKey), config, permits, currentTime);
+        return denialCache.record(redisKey, config, permits, toResult(counts, 0, currentTime));
+    }
+    
+    /**
+     * 여러 키를 Lua 스크립트 한 번(Redis 왕복 1회)으로 처리
+     * 키마다 독립적으로 요청 1개씩 카운트하며, 결과는 keys와 같은 순서
+     * 단일 키 호출과 마찬가지로 거부 결과는 RedisDenialCache에 기록하고, 기록된 키는 Redis 호출 없이 거부
+     */
+    public List<RateLimitResult> tryAcquireEach(List<String> keys, RateLimitConfig config) {
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        List<String> redisKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            redisKeys.add(keyLayout.key("fixed_window", key));
+        }
+        // 거부가 기록된 키는 Redis에 보내지 않고, 나머지 키만 한 번에 실행
+        return denialCache.acquireEach(redisKeys, config, 1, pending -> {
+            long currentTime = clock.now();
+            List<Long> counts = execute(pending, config, 1, currentTime);
+            
+            List<RateLimitResult> limitResults = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                limitResults.add(toResult(counts, i, currentTime));
+            }
+            return limitResults;
+        });
+    }
+    
+    /**
+     * 특정 설정으로 비동기 요청 처리
+     */
+    @Override
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config) {
+        return tryAcquireAsync(key, config, 1);
+    }
+    
+    /**
+     * 특정 설정으로 permits개의 요청을 비동기로 처리 (Redis 응답을 기다리는 동안 스레드를 점유하지 않음)
+     */
+    public CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config, int permits) {
+        RateLimiter.checkPermits(permits);
+        String redisKey = keyLayout.key("fixed_window", key);
+        RateLimitResult denied = denialCache.check(redisKey, config, permits);
+        if (denied != null) {
+            // 거부가 기록된 키는 Redis를 호출하지 않음
+            return CompletableFuture.completedFuture(denied);
         }
+        if (batcher.isEnabled()) {
+            // 동시에 들어온 다른 호출과 묶어서 한 번에 실행
+            return batcher.submit(fixedWindowScript, redisKey, config, permits, this::scriptArgs)
+                .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, clock.now())));
+        }
+        long currentTime = clock.now();
+        return executeAsync(Collections.singletonList(redisKey), config, permits, currentTime)
+            .thenApply(results -> denialCache.record(redisKey, config, permits, toResult(results, 0, currentTime)));
+    }
+    
+    private List<Long> execute(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeys(fixedWindowScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    /**
+     * 리액티브 명령으로 스크립트 실행 - 응답은 Redis 클라이언트의 I/O 스레드에서 완료됨
+     */
+    private CompletionStage<List<Long>> executeAsync(List<String> redisKeys, RateLimitConfig config, int permits, long currentTime) {
+        return scriptRegistry.executeForKeysAsync(fixedWindowScript, redisKeys, scriptArgs(config, permits, currentTime));
+    }
+    
+    private List<String> scriptArgs(RateLimitConfig config, int permits, long currentTime) {
+        return List.of(
+            String.valueOf(config.getWindowSizeMs()),
+            String.valueOf(permits),
+            String.valueOf(config.getCapacity()),
+            clock.scriptTime(currentTime)
+        );
+    }
+    
+    /**
+     * 스크립트 응답에서 index번째 키의 결과 추출 (허용 여부, 남은 수, 리셋 시간, 대기 시간을 한 번에 받음)
+     */
+    private RateLimitResult toResult(List<Long> results, int index, long currentTime) {
+        return RedisReplies.toResult(results, index, currentTime, "REDIS_FIXED_WINDOW", "Request counted in current window", "Window limit exceeded");
     }
     
     /**
      * 상태 조회 (카운터 증가 없이)
      */
     public RateLimitResult getStatus(String key, RateLimitConfig config) {
-        String redisKey = "fixed_window:" + key;
-        long currentTime = System.currentTimeMillis();
+        String redisKey = keyLayout.key("fixed_window", key);
+        long currentTime = clock.now();
+        long window = currentTime / config.getWindowSizeMs();
         
-        String countStr = redisTemplate.opsForValue().get(redisKey);
+        String countStr = redisTemplate.opsForValue().get(redisKey + ":" + window);
         long count = countStr != null ? Long.parseLong(countStr) : 0;
         
         return RateLimitResult.allowed(
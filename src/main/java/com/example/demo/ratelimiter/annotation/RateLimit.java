@@ -49,6 +49,25 @@ public @interface RateLimit {
      */
     int refillRate() default 1;
     
+    /**
+     * 토큰 보충 주기 (밀리초)
+     * refillPeriodMs마다 refillRate개의 토큰이 연속적으로 보충됨 (예: refillRate = 1, refillPeriodMs = 250)
+     * Token Bucket과 Leaky Bucket에서 사용
+     */
+    long refillPeriodMs() default 1000;
+    
+    /**
+     * 하위 윈도우 수
+     * Sliding Window Counter에서 사용 (1 = 현재/이전 윈도우 가중 평균, 클수록 정확)
+     */
+    int subWindows() default 1;
+    
+    /**
+     * 최대 대기 시간 (밀리초)
+     * 0보다 크면 즉시 거부하지 않고, 이 시간 안에 허용될 수 있는 요청은 허용 시각까지 대기 후 처리
+     */
+    long timeoutMs() default 0;
+    
     /**
      * Rate Limit 초과 시 반환할 메시지
      */
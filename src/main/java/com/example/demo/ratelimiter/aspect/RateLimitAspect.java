@@ -4,11 +4,13 @@ import com.example.demo.ratelimiter.annotation.RateLimit;
 import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.key.ClientKeyResolver;
+import com.example.demo.ratelimiter.key.CompactKey;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.request.RequestContextHolder;
@@ -17,45 +19,46 @@ import org.springframework.web.server.ResponseStatusException;
 
 import jakarta.servlet.http.HttpServletRequest;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Rate Limit AOP Aspect
  * @RateLimit 어노테이션이 적용된 메서드의 호출을 가로채서 Rate Limiting을 적용합니다.
+ * 
+ * 메서드별 실행 계획(LimitPlan):
+ * - 메서드가 처음 호출될 때 Rate Limiter 빈, 설정, 키 생성 방식, 거부 메시지를 한 번만 준비해 캐시
+ * - 이후 호출은 빈 조회, 설정 생성, 리플렉션 없이 계획의 Rate Limiter를 바로 호출
  */
 @Aspect
 @Component
 public class RateLimitAspect {
     
     @Autowired
-    private ApplicationContext applicationContext;
+    private RateLimiterRegistry limiterRegistry;
+    
+    @Autowired
+    private ClientKeyResolver clientKeyResolver;
+    
+    /**
+     * 메서드별 실행 계획 캐시
+     */
+    private final Map<Method, LimitPlan> plans = new ConcurrentHashMap<>();
     
     /**
      * @RateLimit 어노테이션이 적용된 메서드에 대해 Rate Limiting 적용
      */
     @Around("@annotation(rateLimit)")
     public Object around(ProceedingJoinPoint joinPoint, RateLimit rateLimit) throws Throwable {
-        // Rate Limit 키 생성
-        String key = generateKey(rateLimit);
-        
-        // 해당 알고리즘의 Rate Limiter 선택
-        RateLimiter limiter = getRateLimiter(rateLimit.algorithm());
+        LimitPlan plan = getPlan(((MethodSignature) joinPoint.getSignature()).getMethod(), rateLimit);
         
-        // 설정에 따른 Rate Limiter 구성
-        RateLimitResult result;
-        if (needsCustomConfig(rateLimit)) {
-            RateLimitConfig config = createConfig(rateLimit);
-            result = tryAcquireWithConfig(limiter, key, config);
-        } else {
-            result = limiter.tryAcquire(key);
-        }
+        // Rate Limit 검사
+        RateLimitResult result = plan.tryAcquire();
         
         // Rate Limit 검사 결과 처리
         if (!result.isAllowed()) {
-            long retryAfterSeconds = (result.getResetTime() - System.currentTimeMillis()) / 1000;
-            String message = String.format("%s (Retry after %d seconds)", 
-                rateLimit.message(), Math.max(1, retryAfterSeconds));
-            
-            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, message);
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, plan.deniedMessage(result));
         }
         
         // 정상 처리
@@ -63,25 +66,51 @@ public class RateLimitAspect {
     }
     
     /**
-     * Rate Limit 키 생성
+     * 메서드의 실행 계획 조회 (없으면 생성)
+     * 이미 있는 계획은 get 한 번으로 끝내고, computeIfAbsent(람다 캡처 할당)는 최초 생성 시에만 호출
+     */
+    private LimitPlan getPlan(Method method, RateLimit rateLimit) {
+        LimitPlan plan = plans.get(method);
+        if (plan != null) {
+            return plan;
+        }
+        return plans.computeIfAbsent(method, m -> new LimitPlan(
+            limiterRegistry.get(rateLimit.algorithm()),
+            needsCustomConfig(rateLimit) ? createConfig(rateLimit) : null,
+            keyExtractor(rateLimit),
+            rateLimit.message()
+        ));
+    }
+    
+    /**
+     * Rate Limit 키 생성 함수
+     * 접두사는 seed로 미리 해싱하고, 요청마다 식별자만 이어서 해싱한 압축 키(CompactKey) 사용
      */
-    private String generateKey(RateLimit rateLimit) {
+    private Supplier<String> keyExtractor(RateLimit rateLimit) {
         String prefix = rateLimit.algorithm().name() + ":";
         
         switch (rateLimit.keyType()) {
+            case USER: {
+                long userSeed = CompactKey.seed(prefix + "user:");
+                return () -> CompactKey.of(userSeed, clientKeyResolver.currentUserId());
+            }
+            case API: {
+                long apiSeed = CompactKey.seed(prefix + "method:");
+                return () -> CompactKey.of(CompactKey.append(CompactKey.append(
+                    CompactKey.append(apiSeed, getHttpMethod()), ':'), getApiPath()));
+            }
+            case CUSTOM: {
+                String customKey = CompactKey.of(CompactKey.seed(prefix + "custom:"), rateLimit.customKey());
+                return () -> customKey;
+            }
             case IP:
-                return prefix + getClientIp();
-            case USER:
-                return prefix + "user:" + getUserId();
-            case API:
-                return prefix + "method:" + getHttpMethod() + ":" + getApiPath();
-            case CUSTOM:
-                return prefix + "custom:" + rateLimit.customKey();
-            default:
-                return prefix + getClientIp();
+            default: {
+                long ipSeed = CompactKey.seed(prefix);
+                return () -> CompactKey.of(ipSeed, clientKeyResolver.currentClientIp());
+            }
         }
     }
-
+    
     /**
      * API 경로 추출
      */
@@ -93,7 +122,7 @@ public class RateLimitAspect {
         }
         return "unknown";
     }
-
+    
     /**
      * HTTP 메서드 추출
      */
@@ -106,70 +135,6 @@ public class RateLimitAspect {
         return "unknown";
     }
     
-    /**
-     * 클라이언트 IP 주소 추출
-     */
-    private String getClientIp() {
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-        if (attributes != null) {
-            HttpServletRequest request = attributes.getRequest();
-            
-            // X-Forwarded-For 헤더 확인 (프록시 환경)
-            String xForwardedFor = request.getHeader("X-Forwarded-For");
-            if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
-                return xForwardedFor.split(",")[0].trim();
-            }
-            
-            // X-Real-IP 헤더 확인
-            String xRealIp = request.getHeader("X-Real-IP");
-            if (xRealIp != null && !xRealIp.isEmpty()) {
-                return xRealIp;
-            }
-            
-            // 기본 Remote Address
-            return request.getRemoteAddr();
-        }
-        return "unknown";
-    }
-    
-    /**
-     * 사용자 ID 추출 (현재는 간단한 구현)
-     * 실제 환경에서는 JWT 토큰이나 세션에서 사용자 정보를 추출
-     */
-    private String getUserId() {
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-        if (attributes != null) {
-            HttpServletRequest request = attributes.getRequest();
-            
-            // Authorization 헤더에서 사용자 정보 추출 (간단한 예시)
-            String authorization = request.getHeader("Authorization");
-            if (authorization != null && !authorization.isEmpty()) {
-                return authorization.replaceAll("[^a-zA-Z0-9]", ""); // 간단한 정리
-            }
-            
-            // 세션에서 사용자 정보 추출
-            Object userId = request.getSession().getAttribute("userId");
-            if (userId != null) {
-                return userId.toString();
-            }
-        }
-        
-        // 사용자 정보가 없으면 IP로 대체
-        return getClientIp();
-    }
-    
-    /**
-     * 알고리즘에 해당하는 Rate Limiter 빈 조회
-     */
-    private RateLimiter getRateLimiter(RateLimit.AlgorithmType algorithm) {
-        try {
-            return applicationContext.getBean(algorithm.getBeanName(), RateLimiter.class);
-        } catch (Exception e) {
-            // 기본값으로 Token Bucket 사용
-            return applicationContext.getBean("tokenBucketLimiter", RateLimiter.class);
-        }
-    }
-    
     /**
      * 커스텀 설정이 필요한지 확인
      */
@@ -177,38 +142,69 @@ public class RateLimitAspect {
         // 기본값과 다른 설정이 있는지 확인
         return rateLimit.limit() != 10 || 
                rateLimit.windowSeconds() != 60 || 
-               rateLimit.refillRate() != 1;
+               rateLimit.refillRate() != 1 ||
+               rateLimit.refillPeriodMs() != 1000 ||
+               rateLimit.subWindows() != 1 ||
+               rateLimit.timeoutMs() != 0;
     }
     
     /**
-     * Rate Limit 설정 생성
+     * Rate Limit 설정 생성 (timeoutMs가 지정되면 대기 시간 반영)
      */
     private RateLimitConfig createConfig(RateLimit rateLimit) {
+        RateLimitConfig config = createAlgorithmConfig(rateLimit);
+        if (rateLimit.timeoutMs() > 0) {
+            return config.toBuilder().timeoutMs(rateLimit.timeoutMs()).build();
+        }
+        return config;
+    }
+    
+    /**
+     * 알고리즘별 Rate Limit 설정 생성
+     */
+    private RateLimitConfig createAlgorithmConfig(RateLimit rateLimit) {
         switch (rateLimit.algorithm()) {
             case TOKEN_BUCKET:
             case LEAKY_BUCKET:
-                return RateLimitConfig.forTokenBucket(rateLimit.limit(), rateLimit.refillRate());
+                return RateLimitConfig.forTokenBucket(rateLimit.limit(), rateLimit.refillRate(), rateLimit.refillPeriodMs());
             case FIXED_WINDOW:
             case SLIDING_WINDOW_LOG:
-            case SLIDING_WINDOW_COUNTER:
                 return RateLimitConfig.forWindow(rateLimit.limit(), rateLimit.windowSeconds() * 1000L);
+            case SLIDING_WINDOW_COUNTER:
+                return RateLimitConfig.forSlidingWindow(rateLimit.limit(), rateLimit.windowSeconds() * 1000L, rateLimit.subWindows());
             default:
                 return RateLimitConfig.defaultConfig();
         }
     }
     
     /**
-     * 커스텀 설정으로 Rate Limiter 호출
-     * 리플렉션을 사용하여 설정을 전달
+     * 메서드별 실행 계획 (불변)
      */
-    private RateLimitResult tryAcquireWithConfig(RateLimiter limiter, String key, RateLimitConfig config) {
-        try {
-            // tryAcquire(String key, RateLimitConfig config) 메서드가 있는지 확인
-            Method method = limiter.getClass().getMethod("tryAcquire", String.class, RateLimitConfig.class);
-            return (RateLimitResult) method.invoke(limiter, key, config);
-        } catch (Exception e) {
-            // 메서드가 없으면 기본 메서드 사용
-            return limiter.tryAcquire(key);
+    private static final class LimitPlan {
+        private final RateLimiter limiter;
+        private final RateLimitConfig config;       // null이면 Rate Limiter의 기본 설정 사용
+        private final Supplier<String> keyExtractor;
+        private final String message;
+        
+        LimitPlan(RateLimiter limiter, RateLimitConfig config, Supplier<String> keyExtractor, String message) {
+            this.limiter = limiter;
+            this.config = config;
+            this.keyExtractor = keyExtractor;
+            this.message = message;
+        }
+        
+        RateLimitResult tryAcquire() {
+            String key = keyExtractor.get();
+            return config != null ? limiter.tryAcquire(key, config) : limiter.tryAcquire(key);
+        }
+        
+        String deniedMessage(RateLimitResult result) {
+            if (result.getRetryAfterMs() < 0) {
+                // 요청량이 한도를 넘어 재시도해도 허용되지 않음
+                return message + " (Request exceeds the limit)";
+            }
+            long retryAfterSeconds = (result.getRetryAfterMs() + 999) / 1000;
+            return message + " (Retry after " + Math.max(1, retryAfterSeconds) + " seconds)";
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package com.example.demo.ratelimiter.aspect;
+
+import com.example.demo.ratelimiter.annotation.RateLimit;
+import com.example.demo.ratelimiter.annotation.RedisRateLimit;
+import com.example.demo.ratelimiter.common.RateLimiter;
+import com.example.demo.ratelimiter.common.RedisRateLimiter;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * 알고리즘 타입별 Rate Limiter 레지스트리
+ * 
+ * 동작 원리:
+ * - 메모리 기반과 Redis 기반 Rate Limiter를 모두 공통 인터페이스(RateLimiter) 빈으로 주입받음
+ * - 시작 시 알고리즘 타입마다 빈 이름(getBeanName)으로 Rate Limiter를 찾아 EnumMap에 등록
+ * - 빈이 없는 타입은 Token Bucket(tokenBucketLimiter / redisTokenBucketLimiter)으로 대체
+ * - 요청 처리 중에는 EnumMap 조회만 하며, 빈 조회나 예외 처리가 없음
+ * 
+ * 어노테이션마다 알고리즘 enum이 달라 EnumMap은 둘이지만, 같은 빈 목록에서 만든 조회 캐시일 뿐이며
+ * Redis 알고리즘 조회는 비동기 연산(tryAcquireAsync)을 쓸 수 있도록 RedisRateLimiter 타입으로 반환
+ */
+@Component
+public class RateLimiterRegistry {
+    
+    private final Map<RateLimit.AlgorithmType, RateLimiter> limiters = new EnumMap<>(RateLimit.AlgorithmType.class);
+    private final Map<RedisRateLimit.RedisAlgorithmType, RedisRateLimiter> redisLimiters =
+        new EnumMap<>(RedisRateLimit.RedisAlgorithmType.class);
+    
+    /**
+     * @param limiterBeans 빈 이름별 Rate Limiter (메모리 기반, Redis 기반 모두 포함)
+     */
+    public RateLimiterRegistry(Map<String, RateLimiter> limiterBeans) {
+        RateLimiter defaultLimiter = require(limiterBeans, "tokenBucketLimiter", RateLimiter.class);
+        for (RateLimit.AlgorithmType type : RateLimit.AlgorithmType.values()) {
+            limiters.put(type, find(limiterBeans, type.getBeanName(), RateLimiter.class, defaultLimiter));
+        }
+        
+        RedisRateLimiter defaultRedisLimiter = require(limiterBeans, "redisTokenBucketLimiter", RedisRateLimiter.class);
+        for (RedisRateLimit.RedisAlgorithmType type : RedisRateLimit.RedisAlgorithmType.values()) {
+            redisLimiters.put(type, find(limiterBeans, type.getBeanName(), RedisRateLimiter.class, defaultRedisLimiter));
+        }
+    }
+    
+    /**
+     * 알고리즘에 해당하는 Rate Limiter
+     */
+    public RateLimiter get(RateLimit.AlgorithmType algorithm) {
+        return limiters.get(algorithm);
+    }
+    
+    /**
+     * Redis 알고리즘에 해당하는 Rate Limiter
+     */
+    public RedisRateLimiter get(RedisRateLimit.RedisAlgorithmType algorithm) {
+        return redisLimiters.get(algorithm);
+    }
+    
+    private static <T extends RateLimiter> T require(Map<String, RateLimiter> beans, String beanName, Class<T> type) {
+        T bean = find(beans, beanName, type, null);
+        if (bean == null) {
+            throw new IllegalStateException("기본 Rate Limiter 빈이 없습니다: " + beanName);
+        }
+        return bean;
+    }
+    
+    /**
+     * 빈 이름으로 Rate Limiter 조회 (없으면 fallback)
+     * 이름은 있지만 타입이 다르면 설정 오류이므로 시작 시 실패
+     */
+    private static <T extends RateLimiter> T find(Map<String, RateLimiter> beans, String beanName, Class<T> type, T fallback) {
+        RateLimiter bean = beans.get(beanName);
+        if (bean == null) {
+            return fallback;
+        }
+        if (!type.isInstance(bean)) {
+            throw new IllegalStateException("Rate Limiter 빈 타입이 다릅니다: " + beanName + " (" + type.getSimpleName() + " 필요)");
+        }
+        return type.cast(bean);
+    }
+}
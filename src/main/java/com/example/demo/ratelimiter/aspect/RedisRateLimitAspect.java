@@ -1,22 +1,32 @@
 package com.example.demo.ratelimiter.aspect;
 
 import com.example.demo.ratelimiter.annotation.RedisRateLimit;
-import com.example.demo.ratelimiter.common.RateLimiter;
 import com.example.demo.ratelimiter.common.RateLimitResult;
 import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RedisRateLimiter;
+import com.example.demo.ratelimiter.key.ClientKeyResolver;
+import com.example.demo.ratelimiter.key.CompactKey;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
-import org.springframework.web.context.request.ServletRequestAttributes;
 import org.springframework.web.server.ResponseStatusException;
 
-import jakarta.servlet.http.HttpServletRequest;
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * Redis Rate Limit AOP Aspect
@@ -28,43 +38,62 @@ import java.lang.reflect.Method;
  * - 분산 환경에서 일관된 제한
  * - Lua 스크립트로 원자적 연산 보장
  * - 여러 인스턴스 간 상태 공유
+ * - CompletionStage를 반환하는 메서드는 Redis 응답을 기다리지 않고 비동기로 검사
+ * 
+ * RateLimitAspect와 같이 메서드별 실행 계획(RedisLimitPlan)을 처음 호출 시 한 번만 준비해 캐시
  */
 @Aspect
 @Component
 public class RedisRateLimitAspect {
     
+    /**
+     * 알고리즘별 키 접두사("redis:알고리즘:")를 미리 해싱한 seed (ordinal 순)
+     */
+    private static final long[] ALGORITHM_SEEDS = new long[RedisRateLimit.RedisAlgorithmType.values().length];
+    
+    static {
+        for (RedisRateLimit.RedisAlgorithmType type : RedisRateLimit.RedisAlgorithmType.values()) {
+            ALGORITHM_SEEDS[type.ordinal()] = CompactKey.seed("redis:" + type.name().toLowerCase() + ":");
+        }
+    }
+    
     @Autowired
-    private ApplicationContext applicationContext;
+    private RateLimiterRegistry limiterRegistry;
+    
+    @Autowired
+    private ClientKeyResolver clientKeyResolver;
+    
+    /**
+     * 비동기 검사 통과 후 원래 메서드를 호출할 Executor
+     * Spring Boot의 기본 작업 Executor를 사용하고, 없으면 공용 ForkJoinPool 사용
+     */
+    @Autowired(required = false)
+    @Qualifier("applicationTaskExecutor")
+    private Executor asyncExecutor = ForkJoinPool.commonPool();
+    
+    /**
+     * 메서드별 실행 계획 캐시
+     */
+    private final Map<Method, RedisLimitPlan> plans = new ConcurrentHashMap<>();
     
     /**
      * @RedisRateLimit 어노테이션이 적용된 메서드에 대해 Redis 기반 Rate Limiting 적용
      */
     @Around("@annotation(redisRateLimit)")
     public Object around(ProceedingJoinPoint joinPoint, RedisRateLimit redisRateLimit) throws Throwable {
-        // Rate Limit 키 생성
-        String key = generateKey(redisRateLimit);
+        RedisLimitPlan plan = getPlan((MethodSignature) joinPoint.getSignature(), redisRateLimit);
         
-        // 해당 Redis 알고리즘의 Rate Limiter 선택
-        RateLimiter limiter = getRedisRateLimiter(redisRateLimit.algorithm());
-        
-        // 설정에 따른 Rate Limiter 구성
-        RateLimitResult result;
-        if (needsCustomConfig(redisRateLimit)) {
-            RateLimitConfig config = createConfig(redisRateLimit);
-            result = tryAcquireWithConfig(limiter, key, config);
-        } else {
-            result = limiter.tryAcquire(key);
+        // 비동기 메서드는 Redis 응답을 기다리지 않고 바로 반환
+        if (plan.async) {
+            return aroundAsync(joinPoint, plan);
         }
         
+        // Rate Limit 검사
+        RateLimitResult result = plan.tryAcquire();
+        
         // Rate Limit 검사 결과 처리
         if (!result.isAllowed()) {
-            long retryAfterSeconds = (result.getResetTime() - System.currentTimeMillis()) / 1000;
-            String message = String.format("%s (Retry after %d seconds) [Redis: %s]", 
-                redisRateLimit.message(), 
-                Math.max(1, retryAfterSeconds),
-                result.getAlgorithm());
-            
-            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, message);
+            throw tooManyRequests(plan.message, result);
         }
         
         // 정상 처리
@@ -72,84 +101,92 @@ public class RedisRateLimitAspect {
     }
     
     /**
-     * Redis Rate Limit 키 생성
+     * CompletionStage를 반환하는 메서드 처리
+     * 검사 결과를 기다리지 않고 CompletableFuture를 바로 반환하여 요청 스레드를 점유하지 않음
+     * 허용되면 asyncExecutor에서 원래 메서드를 호출 (Redis I/O 스레드에서 비즈니스 로직이 실행되지 않도록)
+     * 호출 스레드의 RequestContextHolder 속성을 실행 스레드에 옮겨, 원래 메서드에서 현재 요청에 접근할 수 있도록 함
+     * (MVC 비동기 처리 중에는 응답이 완료될 때까지 요청이 유지됨)
      */
-    private String generateKey(RedisRateLimit redisRateLimit) {
-        String prefix = "redis:" + redisRateLimit.algorithm().name().toLowerCase() + ":";
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Object> aroundAsync(ProceedingJoinPoint joinPoint, RedisLimitPlan plan) {
+        CompletionStage<RateLimitResult> check = plan.tryAcquireAsync();
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
         
-        switch (redisRateLimit.keyType()) {
-            case IP:
-                return prefix + getClientIp();
-            case USER:
-                return prefix + "user:" + getUserId();
-            case CUSTOM:
-                return prefix + "custom:" + redisRateLimit.customKey();
-            default:
-                return prefix + getClientIp();
-        }
+        return check.thenComposeAsync(result -> {
+            if (!result.isAllowed()) {
+                throw tooManyRequests(plan.message, result);
+            }
+            RequestAttributes previous = RequestContextHolder.getRequestAttributes();
+            RequestContextHolder.setRequestAttributes(requestAttributes);
+            try {
+                CompletionStage<Object> response = (CompletionStage<Object>) joinPoint.proceed();
+                return response != null ? response : CompletableFuture.completedFuture(null);
+            } catch (Throwable e) {
+                throw new CompletionException(e);
+            } finally {
+                // 실행 스레드는 재사용되므로 이전 상태로 복원
+                RequestContextHolder.setRequestAttributes(previous);
+            }
+        }, asyncExecutor).toCompletableFuture();
     }
     
     /**
-     * 클라이언트 IP 주소 추출
+     * 메서드의 실행 계획 조회 (없으면 생성)
+     * 이미 있는 계획은 get 한 번으로 끝내고, computeIfAbsent(람다 캡처 할당)는 최초 생성 시에만 호출
      */
-    private String getClientIp() {
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-        if (attributes != null) {
-            HttpServletRequest request = attributes.getRequest();
-            
-            // X-Forwarded-For 헤더 확인 (프록시 환경)
-            String xForwardedFor = request.getHeader("X-Forwarded-For");
-            if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
-                return xForwardedFor.split(",")[0].trim();
-            }
-            
-            // X-Real-IP 헤더 확인
-            String xRealIp = request.getHeader("X-Real-IP");
-            if (xRealIp != null && !xRealIp.isEmpty()) {
-                return xRealIp;
-            }
-            
-            // 기본 Remote Address
-            return request.getRemoteAddr();
+    private RedisLimitPlan getPlan(MethodSignature signature, RedisRateLimit redisRateLimit) {
+        Method method = signature.getMethod();
+        RedisLimitPlan plan = plans.get(method);
+        if (plan != null) {
+            return plan;
         }
-        return "unknown";
+        return plans.computeIfAbsent(method, m -> new RedisLimitPlan(
+            limiterRegistry.get(redisRateLimit.algorithm()),
+            needsCustomConfig(redisRateLimit) ? createConfig(redisRateLimit) : null,
+            keyExtractor(redisRateLimit),
+            redisRateLimit.message(),
+            CompletionStage.class.isAssignableFrom(signature.getReturnType())
+        ));
     }
     
     /**
-     * 사용자 ID 추출 (현재는 간단한 구현)
-     * 실제 환경에서는 JWT 토큰이나 세션에서 사용자 정보를 추출
+     * Rate Limit 초과 응답 생성
      */
-    private String getUserId() {
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-        if (attributes != null) {
-            HttpServletRequest request = attributes.getRequest();
-            
-            // Authorization 헤더에서 사용자 정보 추출 (간단한 예시)
-            String authorization = request.getHeader("Authorization");
-            if (authorization != null && !authorization.isEmpty()) {
-                return authorization.replaceAll("[^a-zA-Z0-9]", ""); // 간단한 정리
-            }
-            
-            // 세션에서 사용자 정보 추출
-            Object userId = request.getSession().getAttribute("userId");
-            if (userId != null) {
-                return userId.toString();
-            }
+    private static ResponseStatusException tooManyRequests(String planMessage, RateLimitResult result) {
+        if (result.getRetryAfterMs() < 0) {
+            // 요청량이 한도를 넘어 재시도해도 허용되지 않음
+            return new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, String.format("%s (Request exceeds the limit) [Redis: %s]",
+                planMessage,
+                result.getAlgorithm()));
         }
+        long retryAfterSeconds = (result.getRetryAfterMs() + 999) / 1000;
+        String message = String.format("%s (Retry after %d seconds) [Redis: %s]", 
+            planMessage, 
+            Math.max(1, retryAfterSeconds),
+            result.getAlgorithm());
         
-        // 사용자 정보가 없으면 IP로 대체
-        return getClientIp();
+        return new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, message);
     }
     
     /**
-     * Redis 알고리즘에 해당하는 Rate Limiter 빈 조회
+     * Redis Rate Limit 키 생성 함수
+     * 알고리즘 접두사를 미리 해싱한 seed에 식별자를 이어서 해싱한 압축 키(CompactKey) 사용
      */
-    private RateLimiter getRedisRateLimiter(RedisRateLimit.RedisAlgorithmType algorithm) {
-        try {
-            return applicationContext.getBean(algorithm.getBeanName(), RateLimiter.class);
-        } catch (Exception e) {
-            // 기본값으로 Redis Token Bucket 사용
-            return applicationContext.getBean("redisTokenBucketLimiter", RateLimiter.class);
+    private Supplier<String> keyExtractor(RedisRateLimit redisRateLimit) {
+        long seed = ALGORITHM_SEEDS[redisRateLimit.algorithm().ordinal()];
+        
+        switch (redisRateLimit.keyType()) {
+            case USER: {
+                long userSeed = CompactKey.append(seed, "user:");
+                return () -> CompactKey.of(userSeed, clientKeyResolver.currentUserId());
+            }
+            case CUSTOM: {
+                String customKey = CompactKey.of(CompactKey.append(seed, "custom:"), redisRateLimit.customKey());
+                return () -> customKey;
+            }
+            case IP:
+            default:
+                return () -> CompactKey.of(seed, clientKeyResolver.currentClientIp());
         }
     }
     
@@ -181,18 +218,32 @@ public class RedisRateLimitAspect {
     }
     
     /**
-     * 커스텀 설정으로 Rate Limiter 호출
-     * 리플렉션을 사용하여 설정을 전달
+     * 메서드별 실행 계획 (불변)
      */
-    private RateLimitResult tryAcquireWithConfig(RateLimiter limiter, String key, RateLimitConfig config) {
-        try {
-            // tryAcquire(String key, RateLimitConfig config) 메서드가 있는지 확인
-            Method method = limiter.getClass().getMethod("tryAcquire", String.class, RateLimitConfig.class);
-            return (RateLimitResult) method.invoke(limiter, key, config);
-        } catch (Exception e) {
-            // 메서드가 없으면 기본 메서드 사용
-            return limiter.tryAcquire(key);
+    private static final class RedisLimitPlan {
+        private final RedisRateLimiter limiter;
+        private final RateLimitConfig config;       // null이면 Rate Limiter의 기본 설정 사용
+        private final Supplier<String> keyExtractor;
+        private final String message;
+        private final boolean async;                // CompletionStage를 반환하는 메서드
+        
+        RedisLimitPlan(RedisRateLimiter limiter, RateLimitConfig config, Supplier<String> keyExtractor,
+                       String message, boolean async) {
+            this.limiter = limiter;
+            this.config = config;
+            this.keyExtractor = keyExtractor;
+            this.message = message;
+            this.async = async;
+        }
+        
+        RateLimitResult tryAcquire() {
+            String key = keyExtractor.get();
+            return config != null ? limiter.tryAcquire(key, config) : limiter.tryAcquire(key);
+        }
+        
+        CompletionStage<RateLimitResult> tryAcquireAsync() {
+            String key = keyExtractor.get();
+            return config != null ? limiter.tryAcquireAsync(key, config) : limiter.tryAcquireAsync(key);
         }
     }
 }
-
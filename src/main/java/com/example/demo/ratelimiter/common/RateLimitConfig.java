@@ -1,20 +1,31 @@
 package com.example.demo.ratelimiter.common;
 
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Rate Limiter 설정을 담는 클래스
+ * 값이 같은 설정은 동일하게 취급 (Redis 배칭 시 같은 설정의 요청끼리 묶음)
  */
 @Getter
-@Builder
+@EqualsAndHashCode
+@Builder(toBuilder = true)
 public class RateLimitConfig {
     
     private final int capacity;           // 최대 용량 (토큰 수, 윈도우 크기 등)
-    private final int refillRate;         // 보충 속도 (초당 토큰 수)
+    private final int refillRate;         // 보충 속도 (refillPeriodMs당 토큰 수)
     private final long windowSizeMs;      // 윈도우 크기 (밀리초)
     private final long timeoutMs;         // 타임아웃 (밀리초)
     
+    @Builder.Default
+    private final long refillPeriodMs = 1000;   // 보충 주기 (밀리초, 기본 1초)
+    
+    @Builder.Default
+    private final int subWindows = 1;           // 슬라이딩 윈도우 카운터의 하위 윈도우 수 (1 = 현재/이전 윈도우 근사)
+    
     /**
      * 기본 설정으로 생성
      */
@@ -23,7 +34,7 @@ public class RateLimitConfig {
                 .capacity(10)
                 .refillRate(1)
                 .windowSizeMs(60000)  // 1분
-                .timeoutMs(1000)      // 1초
+                .timeoutMs(0)         // 대기 없이 즉시 판정
                 .build();
     }
     
@@ -39,6 +50,20 @@ public class RateLimitConfig {
                 .build();
     }
     
+    /**
+     * 주기 단위 Token Bucket용 설정
+     * 예) forTokenBucket(10, 1, 250) → 250ms마다 토큰 1개 보충
+     */
+    public static RateLimitConfig forTokenBucket(int capacity, int refillRate, long refillPeriodMs) {
+        return RateLimitConfig.builder()
+                .capacity(capacity)
+                .refillRate(refillRate)
+                .refillPeriodMs(refillPeriodMs)
+                .windowSizeMs(1000)   // 1초
+                .timeoutMs(0)
+                .build();
+    }
+    
     /**
      * Window 기반 알고리즘용 설정
      */
@@ -50,4 +75,34 @@ public class RateLimitConfig {
                 .timeoutMs(0)
                 .build();
     }
+    
+    /**
+     * 하위 윈도우 기반 Sliding Window Counter용 설정
+     * subWindows가 클수록 Sliding Window Log에 가까운 정확도 (키당 subWindows + 1개의 카운터 사용)
+     * windowSizeMs는 subWindows로 나누어떨어져야 함 (하위 윈도우 합이 윈도우 크기와 같도록)
+     */
+    public static RateLimitConfig forSlidingWindow(int capacity, long windowSizeMs, int subWindows) {
+        if (subWindows <= 0 || windowSizeMs % subWindows != 0) {
+            throw new IllegalArgumentException(
+                "windowSizeMs(" + windowSizeMs + ")는 subWindows(" + subWindows + ")로 나누어떨어져야 합니다");
+        }
+        return RateLimitConfig.builder()
+                .capacity(capacity)
+                .refillRate(0)
+                .windowSizeMs(windowSizeMs)
+                .subWindows(subWindows)
+                .timeoutMs(0)
+                .build();
+    }
+    
+    /**
+     * 토큰 1개가 보충되는 간격 (나노초)
+     * 보충이 없는 설정(refillRate <= 0)이면 0 반환
+     */
+    public long getRefillIntervalNanos() {
+        if (refillRate <= 0) {
+            return 0;
+        }
+        return Math.max(1, TimeUnit.MILLISECONDS.toNanos(refillPeriodMs) / refillRate);
+    }
 } 
\ No newline at end of file
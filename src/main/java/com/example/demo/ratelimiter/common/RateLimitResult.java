@@ -15,6 +15,7 @@ public class RateLimitResult {
     private final boolean allowed;        // 요청 허용 여부
     private final long remainingTokens;   // 남은 토큰/요청 수
     private final long resetTime;         // 다음 리셋 시간 (milliseconds)
+    private final long retryAfterMs;      // 다시 시도할 때까지 대기 시간 (허용 시 0, -1이면 재시도해도 허용되지 않음)
     private final String algorithm;       // 사용된 알고리즘
     private final String message;         // 상태 메시지
     
@@ -22,51 +23,49 @@ public class RateLimitResult {
      * 허용된 요청에 대한 결과 생성
      */
     public static RateLimitResult allowed(long remainingTokens, long resetTime, String algorithm) {
-        return RateLimitResult.builder()
-                .allowed(true)
-                .remainingTokens(remainingTokens)
-                .resetTime(resetTime)
-                .algorithm(algorithm)
-                .message("Request allowed")
-                .build();
+        return new RateLimitResult(true, remainingTokens, resetTime, 0, algorithm, "Request allowed");
     }
     
     /**
      * 거부된 요청에 대한 결과 생성
      */
     public static RateLimitResult denied(long remainingTokens, long resetTime, String algorithm) {
-        return RateLimitResult.builder()
-                .allowed(false)
-                .remainingTokens(remainingTokens)
-                .resetTime(resetTime)
-                .algorithm(algorithm)
-                .message("Rate limit exceeded")
-                .build();
+        return new RateLimitResult(false, remainingTokens, resetTime, retryAfterOf(resetTime), algorithm, "Rate limit exceeded");
     }
     
     /**
      * 커스텀 메시지와 함께 허용된 요청 결과 생성
      */
     public static RateLimitResult allowed(long remainingTokens, long resetTime, String algorithm, String message) {
-        return RateLimitResult.builder()
-                .allowed(true)
-                .remainingTokens(remainingTokens)
-                .resetTime(resetTime)
-                .algorithm(algorithm)
-                .message(message)
-                .build();
+        return new RateLimitResult(true, remainingTokens, resetTime, 0, algorithm, message);
     }
     
     /**
      * 커스텀 메시지와 함께 거부된 요청 결과 생성
      */
     public static RateLimitResult denied(long remainingTokens, long resetTime, String algorithm, String message) {
-        return RateLimitResult.builder()
-                .allowed(false)
-                .remainingTokens(remainingTokens)
-                .resetTime(resetTime)
-                .algorithm(algorithm)
-                .message(message)
-                .build();
+        return new RateLimitResult(false, remainingTokens, resetTime, retryAfterOf(resetTime), algorithm, message);
+    }
+    
+    /**
+     * 대기 시간을 직접 지정한 거부 결과 생성 (Redis 스크립트가 계산한 값 사용)
+     */
+    public static RateLimitResult denied(long remainingTokens, long resetTime, long retryAfterMs, String algorithm, String message) {
+        return new RateLimitResult(false, remainingTokens, resetTime, retryAfterMs, algorithm, message);
+    }
+    
+    /**
+     * 키별 상태 저장소가 제한 중인 키로 가득 차 새 키를 받을 수 없는 경우의 거부 결과
+     * (기존 키의 소진 기록을 지우는 대신 새 키를 거부)
+     */
+    public static RateLimitResult tooManyKeys(long resetTime, String algorithm) {
+        return denied(0, resetTime, algorithm, "Too many active rate limit keys");
+    }
+    
+    /**
+     * 리셋 시간까지 남은 시간을 대기 시간으로 사용
+     */
+    private static long retryAfterOf(long resetTime) {
+        return Math.max(0, resetTime - System.currentTimeMillis());
     }
 } 
\ No newline at end of file
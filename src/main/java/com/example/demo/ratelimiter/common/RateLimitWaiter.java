@@ -0,0 +1,64 @@
+package com.example.demo.ratelimiter.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * 대기형 획득 공용 유틸리티
+ * 
+ * 거부 즉시 반환하는 대신, 다음 허용 가능 시각까지 스레드를 LockSupport.parkNanos로 재움
+ * - 폴링하지 않으므로 대기 중에는 CPU를 사용하지 않음
+ * - 버킷 알고리즘은 미래 슬롯을 CAS로 먼저 예약한 뒤 parkUntil로 대기 (예약 순서 = 허용 순서, FIFO)
+ *   인터럽트되면 대기를 멈추고, 호출자가 예약을 되돌린 뒤 거부 결과를 반환
+ * - 윈도우 알고리즘은 예약할 수 없으므로 retryUntilReset으로 retryAfterMs 뒤에 깨어나 재시도
+ */
+public final class RateLimitWaiter {
+    
+    private static final long MIN_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    
+    private RateLimitWaiter() {
+    }
+    
+    /**
+     * 예약된 시각(System.nanoTime 기준)까지 대기
+     * 인터럽트되면 바로 반환하며 인터럽트 상태는 그대로 유지
+     * @return 예약 시각에 도달하면 true, 인터럽트되면 false (호출자가 예약을 되돌려야 함)
+     */
+    public static boolean parkUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            LockSupport.parkNanos(remaining);
+        }
+        return true;
+    }
+    
+    /**
+     * 거부된 결과의 retryAfterMs만큼 대기한 뒤 다시 시도하는 과정을 timeoutNanos 동안 반복
+     * 대기 시간이 남은 시간을 넘거나, 재시도해도 허용될 수 없거나(retryAfterMs < 0), 스레드가 인터럽트되면 마지막 거부 결과를 반환
+     *
+     * @param denied 첫 시도의 거부 결과
+     * @param attempt 재시도
+     * @param timeoutNanos 최대 대기 시간
+     */
+    public static RateLimitResult retryUntilReset(RateLimitResult denied, Supplier<RateLimitResult> attempt, long timeoutNanos) {
+        long start = System.nanoTime();
+        RateLimitResult result = denied;
+        
+        while (!result.isAllowed()) {
+            if (result.getRetryAfterMs() < 0) {
+                return result;
+            }
+            long waitNanos = Math.max(MIN_RETRY_NANOS, TimeUnit.MILLISECONDS.toNanos(result.getRetryAfterMs()));
+            if (waitNanos > timeoutNanos - (System.nanoTime() - start) || Thread.currentThread().isInterrupted()) {
+                return result;
+            }
+            LockSupport.parkNanos(waitNanos);
+            result = attempt.get();
+        }
+        return result;
+    }
+}
@@ -1,5 +1,9 @@
 package com.example.demo.ratelimiter.common;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Rate Limiter 공통 인터페이스
  * 모든 Rate Limiting 알고리즘이 구현해야 하는 기본 메서드를 정의
@@ -13,6 +17,73 @@ public interface RateLimiter {
      */
     RateLimitResult tryAcquire(String key);
     
+    /**
+     * permits개의 토큰/요청을 한 번에 소비 (전부 허용되거나 전부 거부)
+     * 요청 크기에 비례한 가중치 제한에 사용
+     * @param key 고유 식별자
+     * @param permits 소비할 개수 (1 이상)
+     * @return 제한 결과
+     */
+    RateLimitResult tryAcquire(String key, int permits);
+    
+    /**
+     * 특정 설정으로 요청 처리
+     * 버킷 알고리즘은 호출마다 설정을 적용하고, 윈도우 알고리즘은 키별 상태가 처음 생성될 때 적용
+     * @param key 고유 식별자
+     * @param config 용량, 보충 속도, 윈도우 크기 등의 설정
+     * @return 제한 결과
+     */
+    RateLimitResult tryAcquire(String key, RateLimitConfig config);
+    
+    /**
+     * 허용될 때까지 최대 timeout 동안 대기한 뒤 permits개를 소비
+     * 다음 허용 가능 시각까지 스레드를 park하며, 시간 내에 허용될 수 없으면 거부 결과를 바로 반환
+     * 기본 구현은 거부 결과의 resetTime에 깨어나 재시도 (구현체에서 예약 방식으로 오버라이드 가능)
+     * @param key 고유 식별자
+     * @param permits 소비할 개수 (1 이상)
+     * @param timeout 최대 대기 시간 (0 이하면 대기하지 않음)
+     * @param unit timeout 단위
+     * @return 제한 결과
+     */
+    default RateLimitResult tryAcquire(String key, int permits, long timeout, TimeUnit unit) {
+        RateLimitResult result = tryAcquire(key, permits);
+        if (result.isAllowed() || timeout <= 0) {
+            return result;
+        }
+        return RateLimitWaiter.retryUntilReset(result, () -> tryAcquire(key, permits), unit.toNanos(timeout));
+    }
+    
+    /**
+     * 허용될 때까지 최대 timeout 동안 대기한 뒤 1개를 소비
+     */
+    default RateLimitResult tryAcquire(String key, long timeout, TimeUnit unit) {
+        return tryAcquire(key, 1, timeout, unit);
+    }
+    
+    /**
+     * 허용될 때까지 대기한 뒤 1개를 소비
+     * 기다려도 허용될 수 없거나(용량 0, 보충 없음) 스레드가 인터럽트된 경우에만 거부 결과 반환
+     */
+    default RateLimitResult acquire(String key) {
+        return tryAcquire(key, 1, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * 여러 키를 한 번에 확인하고 각 키에서 1개씩 소비
+     * 키마다 독립적으로 판단하므로, 일부 키가 거부되어도 허용된 키의 소비분은 되돌리지 않음
+     * (IP·사용자·API 제한을 모두 통과해야 하는 경우처럼 전부 허용/전부 거부가 필요하면 사용하지 말 것)
+     * 결과는 keys와 같은 순서로 반환
+     * @param keys 고유 식별자 목록
+     * @return 키별 제한 결과
+     */
+    default List<RateLimitResult> tryAcquireEach(List<String> keys) {
+        List<RateLimitResult> results = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            results.add(tryAcquire(key));
+        }
+        return results;
+    }
+    
     /**
      * 현재 상태 조회 (토큰 소비 없이)
      * @param key 고유 식별자
@@ -27,4 +98,13 @@ public interface RateLimiter {
     default void reset(String key) {
         // 기본 구현은 비어있음 - 필요시 각 구현체에서 오버라이드
     }
+    
+    /**
+     * permits 인자 검증
+     */
+    static void checkPermits(int permits) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("permits는 1 이상이어야 합니다: " + permits);
+        }
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,157 @@
+package com.example.demo.ratelimiter.common;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis Rate Limiter 시각 기준
+ * 
+ * 동작 원리:
+ * - 인스턴스마다 JVM 시계가 조금씩 다르면(NTP 오차) Token Bucket의 last_refill이 뒤로 가거나
+ *   Sliding Log의 기록 순서가 뒤섞여 허용 수가 달라짐
+ * - local: JVM 시계(System.currentTimeMillis)를 스크립트에 전달 (기존 동작)
+ * - offset: Redis TIME과의 차이를 주기적으로 측정하고, System.nanoTime 기준 단조 시계에 더해 전달
+ *   측정은 여러 번 하여 왕복 시간이 가장 짧은 값을 사용 (오차는 왕복 시간의 절반 이내)
+ * - redis: 스크립트가 직접 Redis TIME을 읽음 (모든 인스턴스가 같은 시계 사용)
+ *   TIME 뒤에 쓰기를 하므로 스크립트 효과 복제(replicate_commands)로 복제본에 결과 값이 반영됨
+ *   Java 쪽에서 필요한 시각(상태 조회, 응답 없음 처리 등)은 offset 방식으로 추정
+ * 
+ * 단조성:
+ * - 재측정 결과가 이전 추정보다 뒤이면 반영하지 않음 (시각이 뒤로 가지 않음)
+ *   단, 차이가 1초를 넘으면(Redis 장애 조치로 다른 노드의 시계 사용 등) 그대로 반영
+ * - 첫 측정 전이나 측정에 실패하면 JVM 시계 사용
+ * 
+ * 설정:
+ * - ratelimiter.redis.clock.source: local | offset | redis (기본 local)
+ * - ratelimiter.redis.clock.sync-interval-millis: Redis TIME 측정 주기 (기본 30000ms)
+ * 
+ * 메트릭:
+ * - ratelimiter.redis.clock.offset: 추정 시각 - JVM 시각 (ms)
+ */
+@Slf4j
+@Component
+public class RedisClock {
+    
+    /**
+     * 스크립트 앞에 붙이는 시각 함수 - 인자가 음수이면 Redis TIME(밀리초) 반환
+     * 사용 예: local current_time = script_time(ARGV[3])
+     */
+    public static final String LUA_TIME = """
+        local function script_time(arg)
+            local t = tonumber(arg)
+            if t >= 0 then
+                return t
+            end
+            if redis.replicate_commands then
+                redis.replicate_commands()
+            end
+            local time = redis.call('TIME')
+            return tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+        end
+        
+        """;
+    
+    private static final int SAMPLES = 3;
+    private static final long MAX_BACKWARD_STEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    private enum Source { LOCAL, OFFSET, REDIS }
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final Source source;
+    private final ScheduledExecutorService syncExecutor;
+    
+    private volatile boolean synced;
+    private volatile long offsetNanos;      // Redis 시각(ns) - System.nanoTime()
+    
+    public RedisClock(RedisTemplate<String, String> redisTemplate,
+                      MeterRegistry meterRegistry,
+                      @Value("${ratelimiter.redis.clock.source:local}") String source,
+                      @Value("${ratelimiter.redis.clock.sync-interval-millis:30000}") long syncIntervalMillis) {
+        if (syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("sync-interval-millis는 0보다 커야 합니다: " + syncIntervalMillis);
+        }
+        this.redisTemplate = redisTemplate;
+        this.source = Source.valueOf(source.trim().toUpperCase(Locale.ROOT));
+        Gauge.builder("ratelimiter.redis.clock.offset", this, clock -> clock.now() - System.currentTimeMillis())
+            .description("추정 시각 - JVM 시각 (ms)")
+            .register(meterRegistry);
+        
+        if (this.source != Source.LOCAL) {
+            this.syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "redis-clock-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.syncExecutor.scheduleWithFixedDelay(this::sync, 0, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncExecutor = null;
+        }
+    }
+    
+    /**
+     * 현재 시각 (밀리초) - local이면 JVM 시각, 그 외에는 Redis 시각 추정값
+     */
+    public long now() {
+        if (!synced) {
+            return System.currentTimeMillis();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() + offsetNanos);
+    }
+    
+    /**
+     * 스크립트에 전달할 시각 인자 (redis이면 "-1"로 스크립트가 TIME을 읽게 함)
+     * @param currentTime now()로 얻은 시각
+     */
+    public String scriptTime(long currentTime) {
+        return source == Source.REDIS ? "-1" : String.valueOf(currentTime);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Redis TIME을 여러 번 읽어 왕복 시간이 가장 짧은 측정으로 offset 갱신
+     */
+    private void sync() {
+        try {
+            long bestRtt = Long.MAX_VALUE;
+            long bestOffset = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                long start = System.nanoTime();
+                Long serverMicros = redisTemplate.execute(
+                    (RedisCallback<Long>) connection -> connection.serverCommands().time(TimeUnit.MICROSECONDS));
+                long end = System.nanoTime();
+                if (serverMicros != null && end - start < bestRtt) {
+                    bestRtt = end - start;
+                    // Redis는 왕복의 중간 지점에 시각을 읽었다고 가정
+                    bestOffset = TimeUnit.MICROSECONDS.toNanos(serverMicros) - (start + (end - start) / 2);
+                }
+            }
+            if (bestRtt == Long.MAX_VALUE) {
+                return;
+            }
+            if (!synced || bestOffset >= offsetNanos || offsetNanos - bestOffset > MAX_BACKWARD_STEP_NANOS) {
+                offsetNanos = bestOffset;
+            }
+            synced = true;
+        } catch (RuntimeException e) {
+            log.warn("Redis 시각 측정 실패: {}", e.getMessage());
+        }
+    }
+}
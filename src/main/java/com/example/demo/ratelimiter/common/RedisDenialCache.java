@@ -0,0 +1,157 @@
+package com.example.demo.ratelimiter.common;
+
+import com.example.demo.ratelimiter.store.ExpirableState;
+import com.example.demo.ratelimiter.store.KeyedStateStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Redis Rate Limiter 거부 결과 니어 캐시
+ * 
+ * 동작 원리:
+ * - Redis 스크립트가 거부한 키를 "거부 시각 + retryAfterMs까지 거부"로 로컬에 기록
+ * - 그 시각 전에 같은 설정으로 같거나 더 많은 permits를 요청하면 Redis를 호출하지 않고 바로 거부
+ * - 한도를 넘긴 키(공격 트래픽 등)에 대한 반복 요청이 Redis로 가지 않아, 부하가 몰릴 때 Redis 호출이 줄어듦
+ * 
+ * 제약:
+ * - 기록 기간은 max-ttl-millis로 제한 (다른 인스턴스의 reset 등이 늦게 반영되는 시간의 상한)
+ * - retryAfterMs가 -1(재시도해도 허용되지 않음)인 거부도 max-ttl-millis 동안 기록
+ * - 저장 키 수는 max-keys로 제한하며, 만료된 항목은 새 키가 추가될 때 정리 (KeyedStateStore)
+ * 
+ * 설정:
+ * - ratelimiter.redis.denial-cache.enabled: 사용 여부 (기본 true)
+ * - ratelimiter.redis.denial-cache.max-keys: 최대 키 수 (기본 100000)
+ * - ratelimiter.redis.denial-cache.max-ttl-millis: 최대 기록 기간 (기본 10000ms)
+ * 
+ * 메트릭:
+ * - ratelimiter.redis.denial-cache.hits: Redis 호출 없이 거부한 요청 수
+ */
+@Component
+public class RedisDenialCache {
+    
+    private final boolean enabled;
+    private final long maxTtlMillis;
+    private final KeyedStateStore<Denial> denials;
+    private final Counter hitCounter;
+    
+    public RedisDenialCache(MeterRegistry meterRegistry,
+                            @Value("${ratelimiter.redis.denial-cache.enabled:true}") boolean enabled,
+                            @Value("${ratelimiter.redis.denial-cache.max-keys:100000}") int maxKeys,
+                            @Value("${ratelimiter.redis.denial-cache.max-ttl-millis:10000}") long maxTtlMillis) {
+        if (maxTtlMillis <= 0) {
+            throw new IllegalArgumentException("max-ttl-millis는 0보다 커야 합니다: " + maxTtlMillis);
+        }
+        this.enabled = enabled;
+        this.maxTtlMillis = maxTtlMillis;
+        this.denials = new KeyedStateStore<>(maxKeys);
+        this.hitCounter = Counter.builder("ratelimiter.redis.denial-cache.hits")
+            .description("Redis 호출 없이 거부한 요청 수")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * 기록된 거부가 아직 유효하면 거부 결과 반환
+     * @param redisKey Redis 키
+     * @param config 요청 설정 (기록된 설정과 같아야 함)
+     * @param permits 요청 개수 (기록된 개수 이상이어야 함)
+     * @return 거부 결과, Redis를 호출해야 하면 null
+     */
+    public RateLimitResult check(String redisKey, RateLimitConfig config, int permits) {
+        if (!enabled) {
+            return null;
+        }
+        Denial denial = denials.get(redisKey);
+        if (denial == null || permits < denial.permits || !config.equals(denial.config)) {
+            return null;
+        }
+        long retryAfterMs = denial.deniedUntil - System.currentTimeMillis();
+        if (retryAfterMs <= 0) {
+            return null;
+        }
+        hitCounter.increment();
+        RateLimitResult result = denial.result;
+        return RateLimitResult.denied(result.getRemainingTokens(), result.getResetTime(),
+            result.getRetryAfterMs() < 0 ? -1 : retryAfterMs, result.getAlgorithm(), result.getMessage());
+    }
+    
+    /**
+     * Redis 결과가 거부이면 기록 (허용이면 그대로 반환)
+     * @return result
+     */
+    public RateLimitResult record(String redisKey, RateLimitConfig config, int permits, RateLimitResult result) {
+        if (!enabled || result.isAllowed()) {
+            return result;
+        }
+        long ttl = result.getRetryAfterMs() < 0 ? maxTtlMillis : Math.min(result.getRetryAfterMs(), maxTtlMillis);
+        if (ttl > 0) {
+            // 저장소가 가득 차 기록하지 못하면 다음 요청은 Redis에서 판단
+            denials.put(redisKey, new Denial(config, permits, System.currentTimeMillis() + ttl, result));
+        }
+        return result;
+    }
+    
+    /**
+     * 여러 키를 한 번에 처리 (tryAcquireEach)
+     * 거부가 기록된 키는 바로 거부하고, 나머지 키만 execute로 Redis에 보낸 뒤 그 결과 중 거부를 기록
+     * @param redisKeys Redis 키 목록
+     * @param execute 남은 키 목록을 받아 같은 순서의 결과를 반환 (남은 키가 없으면 호출하지 않음)
+     * @return redisKeys와 같은 순서의 결과
+     */
+    public List<RateLimitResult> acquireEach(List<String> redisKeys, RateLimitConfig config, int permits,
+                                             Function<List<String>, List<RateLimitResult>> execute) {
+        RateLimitResult[] results = new RateLimitResult[redisKeys.size()];
+        List<String> pending = new ArrayList<>(redisKeys.size());
+        for (int i = 0; i < results.length; i++) {
+            results[i] = check(redisKeys.get(i), config, permits);
+            if (results[i] == null) {
+                pending.add(redisKeys.get(i));
+            }
+        }
+        if (pending.isEmpty()) {
+            return Arrays.asList(results);
+        }
+        
+        List<RateLimitResult> executed = execute.apply(pending);
+        int next = 0;
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = record(redisKeys.get(i), config, permits, executed.get(next++));
+            }
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * 키의 거부 기록 제거 (reset 시 호출)
+     */
+    public void invalidate(String redisKey) {
+        denials.remove(redisKey);
+    }
+    
+    private static final class Denial implements ExpirableState {
+        private final RateLimitConfig config;
+        private final int permits;
+        private final long deniedUntil;       // 이 시각(밀리초)까지 거부
+        private final RateLimitResult result;
+        
+        Denial(RateLimitConfig config, int permits, long deniedUntil, RateLimitResult result) {
+            this.config = config;
+            this.permits = permits;
+            this.deniedUntil = deniedUntil;
+            this.result = result;
+        }
+        
+        @Override
+        public boolean isFresh() {
+            return System.currentTimeMillis() >= deniedUntil;
+        }
+    }
+}
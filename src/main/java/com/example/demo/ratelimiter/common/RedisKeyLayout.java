@@ -0,0 +1,135 @@
+package com.example.demo.ratelimiter.common;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis Rate Limiter 키 구성
+ * 
+ * 동작 원리:
+ * - 키는 "알고리즘 약어:키" 형태 (예: lb:user1)
+ *   알고리즘 접두사는 2~3자 약어로 바꾸어 저장하고, 어노테이션/필터 키는 CompactKey로 11자 고정이므로
+ *   키 하나가 Redis에서 차지하는 길이가 식별자 길이와 관계없이 짧게 유지됨
+ * - 클러스터 모드에서는 키를 해시 태그로 감쌈 (예: lb:{user1})
+ *   스크립트가 만드는 파생 키(swc:{user1}:윈도우 번호 등)가
+ *   모두 같은 슬롯에 놓이므로 CROSSSLOT 오류 없이 한 노드에서 실행됨
+ * - 여러 키를 한 번에 처리할 때는 슬롯별로 나누어 스크립트를 실행 (partition)
+ * 
+ * 설정:
+ * - ratelimiter.redis.cluster.enabled: 클러스터 모드 사용 여부 (기본 false, 기존 키 형식 유지)
+ * 
+ * 참고: 클러스터 모드를 켜면 키 형식이 바뀌므로 기존 Rate Limit 상태는 이어지지 않음
+ * (약어 키 형식 도입 이전의 상태도 마찬가지로 이어지지 않음)
+ */
+@Component
+public class RedisKeyLayout {
+    
+    /**
+     * Redis Cluster 해시 슬롯 수
+     */
+    public static final int SLOT_COUNT = 16384;
+    
+    /**
+     * 알고리즘 접두사별 약어 (목록에 없는 접두사는 그대로 사용)
+     */
+    private static final Map<String, String> SHORT_PREFIXES = Map.of(
+        "token_bucket", "tb",
+        "leaky_bucket", "lb",
+        "fixed_window", "fw",
+        "sliding_window_counter", "swc",
+        "sliding_window_log", "swl"
+    );
+    
+    private final boolean cluster;
+    
+    public RedisKeyLayout(@Value("${ratelimiter.redis.cluster.enabled:false}") boolean cluster) {
+        this.cluster = cluster;
+    }
+    
+    public boolean isCluster() {
+        return cluster;
+    }
+    
+    /**
+     * 알고리즘 접두사와 키로 Redis 키 생성
+     * @param prefix 알고리즘 접두사 (예: token_bucket)
+     * @param key 고유 식별자
+     */
+    public String key(String prefix, String key) {
+        String shortPrefix = SHORT_PREFIXES.getOrDefault(prefix, prefix);
+        return cluster ? shortPrefix + ":{" + key + "}" : shortPrefix + ":" + key;
+    }
+    
+    /**
+     * 키가 속한 클러스터 슬롯 계산 (CRC16 mod 16384, 해시 태그가 있으면 태그만 사용)
+     */
+    public static int slot(String redisKey) {
+        byte[] bytes = redisKey.getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        int end = bytes.length;
+        
+        // 첫 '{'와 그 뒤의 첫 '}' 사이가 비어 있지 않으면 그 부분만 해시
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '{') {
+                for (int j = i + 1; j < bytes.length; j++) {
+                    if (bytes[j] == '}') {
+                        if (j > i + 1) {
+                            start = i + 1;
+                            end = j;
+                        }
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+        return crc16(bytes, start, end) % SLOT_COUNT;
+    }
+    
+    /**
+     * 여러 키를 같은 슬롯끼리 묶음
+     * 클러스터 모드가 아니면 전체를 한 그룹으로 반환
+     * @return 그룹별 redisKeys 인덱스 목록 (그룹 순서는 처음 등장한 순서)
+     */
+    public List<List<Integer>> partition(List<String> redisKeys) {
+        List<Integer> all = new ArrayList<>(redisKeys.size());
+        if (!cluster) {
+            for (int i = 0; i < redisKeys.size(); i++) {
+                all.add(i);
+            }
+            return List.of(all);
+        }
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < redisKeys.size(); i++) {
+            groups.computeIfAbsent(slot(redisKeys.get(i)), slot -> new ArrayList<>()).add(i);
+        }
+        return new ArrayList<>(groups.values());
+    }
+    
+    /**
+     * 배칭 그룹 구분용 슬롯 (클러스터 모드가 아니면 모든 키가 같은 그룹)
+     */
+    public int groupSlot(String redisKey) {
+        return cluster ? slot(redisKey) : 0;
+    }
+    
+    /**
+     * CRC16-CCITT (XMODEM) - Redis Cluster 키 슬롯 계산에 사용하는 체크섬
+     */
+    private static int crc16(byte[] bytes, int start, int end) {
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc ^= (bytes[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return crc & 0xFFFF;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.demo.ratelimiter.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis Rate Limiter 호출 마이크로 배칭
+ * 
+ * 동작 원리:
+ * - 동시에 들어온 단일 키 스크립트 호출을 큐에 모음
+ * - 첫 요청 후 maxDelay가 지나거나 maxBatchSize개가 모이면 한 번에 전송 (flush)
+ * - 같은 스크립트·설정·permits(클러스터 모드에서는 슬롯까지)인 요청끼리 묶어 멀티 키 EVALSHA 한 번으로 실행하고,
+ *   그룹이 여러 개면 공유 연결에 연달아 보내 파이프라인으로 처리됨
+ * - 응답을 키별 결과(RedisReplies.RESULT_FIELDS개 값)로 나누어 각 호출자에게 전달
+ * - 스크립트 시각(currentTime)은 flush 시점 기준 (RedisClock)
+ * 
+ * 설정 (기본 비활성화):
+ * - ratelimiter.redis.batch.enabled: 배칭 사용 여부
+ * - ratelimiter.redis.batch.max-size: 한 번에 보낼 최대 요청 수 (기본 64)
+ * - ratelimiter.redis.batch.max-delay-micros: 첫 요청 후 최대 대기 시간 (기본 200µs)
+ * 
+ * 메트릭:
+ * - ratelimiter.redis.batch.size: flush당 요청 수
+ * - ratelimiter.redis.batch.fill: flush당 채움 비율 (요청 수 / max-size)
+ * - ratelimiter.redis.batch.flushes{reason=full|delay}: flush 횟수
+ */
+@Slf4j
+@Component
+public class RedisMicroBatcher {
+    
+    /**
+     * 스크립트 인자 생성 (flush 시점의 currentTime으로 호출됨)
+     */
+    @FunctionalInterface
+    public interface ScriptArgs {
+        List<String> create(RateLimitConfig config, int permits, long currentTime);
+    }
+    
+    private final RedisScriptRegistry scriptRegistry;
+    private final RedisKeyLayout keyLayout;
+    private final RedisClock clock;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final DistributionSummary batchSize;
+    private final DistributionSummary batchFill;
+    private final Counter fullFlushes;
+    private final Counter delayFlushes;
+    private final Thread dispatcher;
+    
+    public RedisMicroBatcher(RedisScriptRegistry scriptRegistry,
+                             RedisKeyLayout keyLayout,
+                             RedisClock clock,
+                             MeterRegistry meterRegistry,
+                             @Value("${ratelimiter.redis.batch.enabled:false}") boolean enabled,
+                             @Value("${ratelimiter.redis.batch.max-size:64}") int maxBatchSize,
+                             @Value("${ratelimiter.redis.batch.max-delay-micros:200}") long maxDelayMicros) {
+        if (maxBatchSize <= 0 || maxDelayMicros < 0) {
+            throw new IllegalArgumentException("max-size는 1 이상, max-delay-micros는 0 이상이어야 합니다");
+        }
+        this.scriptRegistry = scriptRegistry;
+        this.keyLayout = keyLayout;
+        this.clock = clock;
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.batchSize = DistributionSummary.builder("ratelimiter.redis.batch.size")
+            .description("flush당 요청 수")
+            .register(meterRegistry);
+        this.batchFill = DistributionSummary.builder("ratelimiter.redis.batch.fill")
+            .description("flush당 채움 비율 (요청 수 / 최대 배치 크기)")
+            .register(meterRegistry);
+        this.fullFlushes = Counter.builder("ratelimiter.redis.batch.flushes")
+            .tag("reason", "full")
+            .register(meterRegistry);
+        this.delayFlushes = Counter.builder("ratelimiter.redis.batch.flushes")
+            .tag("reason", "delay")
+            .register(meterRegistry);
+        
+        if (enabled) {
+            this.dispatcher = new Thread(this::dispatchLoop, "redis-micro-batcher");
+            this.dispatcher.setDaemon(true);
+            this.dispatcher.start();
+        } else {
+            this.dispatcher = null;
+        }
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 단일 키 스크립트 호출을 배치에 추가
+     * @param script 멀티 키 Rate Limit 스크립트 (키마다 RESULT_FIELDS개 값 반환)
+     * @param redisKey Redis 키
+     * @param config 설정 (같은 설정끼리만 묶임)
+     * @param permits 소비할 개수 (같은 값끼리만 묶임)
+     * @param args 스크립트 인자 생성
+     * @return 이 키의 응답 (RESULT_FIELDS개 값)
+     */
+    @SuppressWarnings("rawtypes")
+    public CompletionStage<List<Long>> submit(RedisScript<List> script, String redisKey, RateLimitConfig config,
+                                              int permits, ScriptArgs args) {
+        if (!enabled) {
+            throw new IllegalStateException("Redis 배칭이 비활성화되어 있습니다");
+        }
+        Pending pending = new Pending(new GroupKey(script, config, permits, keyLayout.groupSlot(redisKey)), redisKey, args);
+        queue.add(pending);
+        return pending.future;
+    }
+    
+    /**
+     * 배치 결과를 기다림 (동기 API용) - 실행 중 발생한 예외는 그대로 다시 던짐
+     */
+    public static <T> T join(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+    }
+    
+    private void dispatchLoop() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            try {
+                Pending first = queue.take();
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+                failAll(batch, new IllegalStateException("Redis 배칭이 종료되었습니다"));
+                return;
+            }
+            
+            flush(batch);
+            batch = new ArrayList<>(maxBatchSize);
+        }
+    }
+    
+    /**
+     * 그룹별로 멀티 키 스크립트를 실행하고 응답을 호출자별로 나눠 전달
+     */
+    private void flush(List<Pending> batch) {
+        batchSize.record(batch.size());
+        batchFill.record((double) batch.size() / maxBatchSize);
+        (batch.size() >= maxBatchSize ? fullFlushes : delayFlushes).increment();
+        
+        Map<GroupKey, List<Pending>> groups = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            groups.computeIfAbsent(pending.group, group -> new ArrayList<>()).add(pending);
+        }
+        
+        long currentTime = clock.now();
+        for (Map.Entry<GroupKey, List<Pending>> entry : groups.entrySet()) {
+            GroupKey group = entry.getKey();
+            List<Pending> members = entry.getValue();
+            List<String> redisKeys = new ArrayList<>(members.size());
+            for (Pending pending : members) {
+                redisKeys.add(pending.redisKey);
+            }
+            
+            try {
+                List<String> args = members.get(0).args.create(group.config, group.permits, currentTime);
+                scriptRegistry.executeReactive(group.script, redisKeys, args)
+                    .collectList()
+                    .map(RedisReplies::toLongs)
+                    .toFuture()
+                    .whenComplete((reply, error) -> complete(members, reply, error));
+            } catch (RuntimeException e) {
+                log.warn("Redis 배치 실행 실패: {}", e.getMessage());
+                failAll(members, e);
+            }
+        }
+    }
+    
+    private void complete(List<Pending> members, List<Long> reply, Throwable error) {
+        if (error != null) {
+            failAll(members, error);
+            return;
+        }
+        int fields = RedisReplies.RESULT_FIELDS;
+        for (int i = 0; i < members.size(); i++) {
+            int from = Math.min(reply.size(), i * fields);
+            int to = Math.min(reply.size(), from + fields);
+            members.get(i).future.complete(reply.subList(from, to));
+        }
+    }
+    
+    private static void failAll(List<Pending> members, Throwable error) {
+        for (Pending pending : members) {
+            pending.future.completeExceptionally(error);
+        }
+    }
+    
+    /**
+     * 한 번의 스크립트 호출로 묶을 수 있는 요청의 기준 (스크립트, 설정, permits, 클러스터 슬롯이 모두 같아야 함)
+     */
+    @SuppressWarnings("rawtypes")
+    private static final class GroupKey {
+        private final RedisScript<List> script;
+        private final RateLimitConfig config;
+        private final int permits;
+        private final int slot;
+        
+        GroupKey(RedisScript<List> script, RateLimitConfig config, int permits, int slot) {
+            this.script = script;
+            this.config = config;
+            this.permits = permits;
+            this.slot = slot;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof GroupKey other)) {
+                return false;
+            }
+            return script == other.script && permits == other.permits && slot == other.slot && config.equals(other.config);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(script), config, permits, slot);
+        }
+    }
+    
+    private static final class Pending {
+        private final GroupKey group;
+        private final String redisKey;
+        private final ScriptArgs args;
+        private final CompletableFuture<List<Long>> future = new CompletableFuture<>();
+        
+        Pending(GroupKey group, String redisKey, ScriptArgs args) {
+            this.group = group;
+            this.redisKey = redisKey;
+            this.args = args;
+        }
+    }
+}
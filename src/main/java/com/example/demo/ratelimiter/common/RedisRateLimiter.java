@@ -1,30 +1,42 @@
 package com.example.demo.ratelimiter.common;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 /**
- * Rate Limiter 공통 인터페이스
- * 모든 Rate Limiting 알고리즘이 구현해야 하는 기본 메서드를 정의
+ * Redis 기반 Rate Limiter 인터페이스
+ * 동기 제한 연산은 RateLimiter와 같고(메모리 기반 구현과 같은 방식으로 호출 가능),
+ * Redis 응답을 기다리지 않는 비동기 연산을 추가로 정의
  */
-public interface RedisRateLimiter {
+public interface RedisRateLimiter extends RateLimiter {
     
     /**
-     * 요청이 허용되는지 확인하고 토큰/요청을 소비
-     * @param key 고유 식별자 (IP, 사용자 ID 등)
-     * @return 제한 결과
+     * 비동기로 요청 허용 여부를 확인하고 1개를 소비
+     * Redis 응답을 기다리는 동안 호출 스레드를 점유하지 않음
+     * @param key 고유 식별자
+     * @return Redis 응답 시 완료되는 제한 결과
      */
-    RateLimitResult tryAcquire(String key);
+    default CompletionStage<RateLimitResult> tryAcquireAsync(String key) {
+        return tryAcquireAsync(key, 1);
+    }
     
     /**
-     * 현재 상태 조회 (토큰 소비 없이)
+     * 특정 설정으로 비동기 요청 처리
      * @param key 고유 식별자
-     * @return 현재 상태 정보
+     * @param config 용량, 보충 속도, 윈도우 크기 등의 설정
+     * @return Redis 응답 시 완료되는 제한 결과
      */
-    RateLimitResult getStatus(String key);
+    CompletionStage<RateLimitResult> tryAcquireAsync(String key, RateLimitConfig config);
     
     /**
-     * 특정 키의 상태를 초기화
+     * 비동기로 permits개를 한 번에 소비
+     * 기본 구현은 동기 호출 결과를 감싸서 반환 (구현체에서 비동기 명령으로 오버라이드)
+     * 결과 스테이지는 Redis 클라이언트의 I/O 스레드에서 완료될 수 있으므로, 후속 작업에서 블로킹하지 말 것
      * @param key 고유 식별자
+     * @param permits 소비할 개수 (1 이상)
+     * @return Redis 응답 시 완료되는 제한 결과
      */
-    default void reset(String key) {
-        // 기본 구현은 비어있음 - 필요시 각 구현체에서 오버라이드
+    default CompletionStage<RateLimitResult> tryAcquireAsync(String key, int permits) {
+        return CompletableFuture.completedFuture(tryAcquire(key, permits));
     }
-} 
\ No newline at end of file
+}
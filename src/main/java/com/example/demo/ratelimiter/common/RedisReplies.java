@@ -0,0 +1,63 @@
+package com.example.demo.ratelimiter.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Redis Lua 스크립트 응답 변환 유틸리티
+ */
+public final class RedisReplies {
+    
+    /**
+     * Rate Limit 스크립트가 키마다 반환하는 값 수: [허용 여부(1/0), 남은 토큰/요청 수, 리셋 시간, 대기 시간(ms)]
+     */
+    public static final int RESULT_FIELDS = 4;
+    
+    private RedisReplies() {
+    }
+    
+    /**
+     * 스크립트의 배열 응답을 List<Long>으로 변환
+     * 동기 실행은 배열을 그대로, 리액티브 실행은 배열을 원소 하나로 감싸서 내보낼 수 있으므로 중첩 리스트는 펼침
+     */
+    public static List<Long> toLongs(List<?> reply) {
+        if (reply == null) {
+            return List.of();
+        }
+        List<Long> values = new ArrayList<>(reply.size());
+        for (Object element : reply) {
+            if (element instanceof List<?> nested) {
+                values.addAll(toLongs(nested));
+            } else if (element instanceof Number number) {
+                values.add(number.longValue());
+            } else {
+                values.add(null);
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * Rate Limit 스크립트 응답에서 index번째 키의 결과 생성
+     * 응답이 없으면 거부 결과 반환 (리셋 시간은 currentTime)
+     */
+    public static RateLimitResult toResult(List<Long> reply, int index, long currentTime,
+                                           String algorithm, String allowedMessage, String deniedMessage) {
+        int offset = index * RESULT_FIELDS;
+        if (reply.size() < offset + RESULT_FIELDS) {
+            return RateLimitResult.denied(0, currentTime, algorithm, deniedMessage);
+        }
+        long remaining = valueAt(reply, offset + 1);
+        long resetTime = valueAt(reply, offset + 2);
+        
+        if (valueAt(reply, offset) == 1) {
+            return RateLimitResult.allowed(remaining, resetTime, algorithm, allowedMessage);
+        }
+        return RateLimitResult.denied(remaining, resetTime, valueAt(reply, offset + 3), algorithm, deniedMessage);
+    }
+    
+    private static long valueAt(List<Long> reply, int index) {
+        Long value = reply.get(index);
+        return value != null ? value : 0;
+    }
+}
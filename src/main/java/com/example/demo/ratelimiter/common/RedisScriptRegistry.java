@@ -0,0 +1,266 @@
+package com.example.demo.ratelimiter.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.ReactiveScriptingCommands;
+import org.springframework.data.redis.connection.RedisScriptingCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.ReactiveRedisCallback;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis Lua 스크립트 레지스트리
+ * 
+ * 동작 원리:
+ * - Redis 기반 Rate Limiter들이 생성 시점에 사용할 스크립트를 이름으로 등록 (SHA1은 등록 시 한 번만 계산)
+ * - 애플리케이션 시작 후 등록된 스크립트를 SCRIPT LOAD로 미리 적재
+ * - 호출은 항상 EVALSHA로 SHA만 전송하고, NOSCRIPT 응답(Redis 재시작, SCRIPT FLUSH 등)이면
+ *   스크립트를 다시 적재한 뒤 한 번 재시도
+ * 
+ * 메트릭:
+ * - ratelimiter.redis.script.calls{result=hit}: EVALSHA로 바로 실행된 호출 수
+ * - ratelimiter.redis.script.calls{result=miss}: NOSCRIPT로 다시 적재한 호출 수
+ * - ratelimiter.redis.script.load: SCRIPT LOAD 소요 시간
+ * 
+ * 클러스터 모드(RedisKeyLayout)에서 여러 키를 처리하는 호출은 슬롯별로 나누어 실행 (executeForKeys)
+ * 
+ * 시작 시 Redis에 연결할 수 없어도 애플리케이션은 정상 기동하며, 첫 호출에서 적재됨
+ * 스크립트 응답은 정수 또는 정수 배열만 지원 (결과를 역직렬화하지 않음)
+ */
+@Slf4j
+@Component
+public class RedisScriptRegistry {
+    
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    private final RedisKeyLayout keyLayout;
+    private final Map<String, RedisScript<?>> scripts = new ConcurrentHashMap<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Timer loadTimer;
+    
+    public RedisScriptRegistry(RedisTemplate<String, String> redisTemplate,
+                               ReactiveStringRedisTemplate reactiveRedisTemplate,
+                               RedisKeyLayout keyLayout,
+                               MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.reactiveRedisTemplate = reactiveRedisTemplate;
+        this.keyLayout = keyLayout;
+        this.hitCounter = Counter.builder("ratelimiter.redis.script.calls")
+            .tag("result", "hit")
+            .description("EVALSHA로 바로 실행된 스크립트 호출 수")
+            .register(meterRegistry);
+        this.missCounter = Counter.builder("ratelimiter.redis.script.calls")
+            .tag("result", "miss")
+            .description("NOSCRIPT 응답으로 스크립트를 다시 적재한 호출 수")
+            .register(meterRegistry);
+        this.loadTimer = Timer.builder("ratelimiter.redis.script.load")
+            .description("SCRIPT LOAD 소요 시간")
+            .register(meterRegistry);
+    }
+    
+    /**
+     * 스크립트 등록
+     * @param name 스크립트 이름 (로그 표시용, 중복 불가)
+     * @param lua 스크립트 본문
+     * @param resultType 응답 타입 (Long 또는 List)
+     * @return EVALSHA 실행에 사용할 스크립트
+     */
+    public <T> RedisScript<T> register(String name, String lua, Class<T> resultType) {
+        RedisScript<T> script = RedisScript.of(lua, resultType);
+        RedisScript<?> previous = scripts.putIfAbsent(name, script);
+        if (previous != null && !previous.getSha1().equals(script.getSha1())) {
+            throw new IllegalStateException("같은 이름으로 다른 스크립트가 이미 등록되어 있습니다: " + name);
+        }
+        return script;
+    }
+    
+    /**
+     * 등록된 모든 스크립트를 Redis에 적재
+     * 실패해도 예외를 던지지 않음 (NOSCRIPT 복구로 첫 호출 시 적재)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadAll() {
+        try {
+            redisTemplate.execute((RedisCallback<Void>) connection -> {
+                for (RedisScript<?> script : scripts.values()) {
+                    load(connection.scriptingCommands(), script);
+                }
+                return null;
+            });
+            log.info("Redis 스크립트 {}개 적재 완료", scripts.size());
+        } catch (RuntimeException e) {
+            log.warn("Redis 스크립트 사전 적재 실패 - 첫 호출 시 다시 적재합니다: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * EVALSHA로 스크립트 실행 (동기)
+     */
+    public <T> T execute(RedisScript<T> script, List<String> keys, List<String> args) {
+        ReturnType returnType = ReturnType.fromJavaType(script.getResultType());
+        byte[][] keysAndArgs = encode(keys, args);
+        
+        return redisTemplate.execute((RedisCallback<T>) connection -> {
+            RedisScriptingCommands commands = connection.scriptingCommands();
+            try {
+                T result = commands.evalSha(script.getSha1(), returnType, keys.size(), keysAndArgs);
+                hitCounter.increment();
+                return result;
+            } catch (RuntimeException e) {
+                if (!isNoScript(e)) {
+                    throw e;
+                }
+                missCounter.increment();
+                load(commands, script);
+                return commands.evalSha(script.getSha1(), returnType, keys.size(), keysAndArgs);
+            }
+        });
+    }
+    
+    /**
+     * EVALSHA로 스크립트 실행 (리액티브)
+     * 응답은 Redis 클라이언트의 I/O 스레드에서 전달됨
+     */
+    public <T> Flux<T> executeReactive(RedisScript<T> script, List<String> keys, List<String> args) {
+        ReturnType returnType = ReturnType.fromJavaType(script.getResultType());
+        
+        return reactiveRedisTemplate.execute((ReactiveRedisCallback<T>) connection -> {
+            ReactiveScriptingCommands commands = connection.scriptingCommands();
+            Flux<T> evalSha = commands.evalSha(script.getSha1(), returnType, keys.size(), encodeBuffers(keys, args));
+            return evalSha
+                .doOnComplete(hitCounter::increment)
+                .onErrorResume(this::isNoScript, e -> {
+                    missCounter.increment();
+                    return load(commands, script).thenMany(
+                        commands.evalSha(script.getSha1(), returnType, keys.size(), encodeBuffers(keys, args)));
+                });
+        });
+    }
+    
+    /**
+     * 키마다 RedisReplies.RESULT_FIELDS개 값을 반환하는 Rate Limit 스크립트 실행 (동기)
+     * 클러스터 모드에서 키가 여러 슬롯에 걸치면 executeForKeysAsync로 슬롯별로 나누어 실행
+     * @return keys 순서대로 이어 붙인 응답
+     */
+    @SuppressWarnings("rawtypes")
+    public List<Long> executeForKeys(RedisScript<List> script, List<String> keys, List<String> args) {
+        if (!keyLayout.isCluster() || keys.size() == 1) {
+            return RedisReplies.toLongs(execute(script, keys, args));
+        }
+        return RedisMicroBatcher.join(executeForKeysAsync(script, keys, args));
+    }
+    
+    /**
+     * 키마다 RedisReplies.RESULT_FIELDS개 값을 반환하는 Rate Limit 스크립트 실행 (리액티브)
+     * 같은 슬롯의 키끼리 스크립트 한 번으로 묶고, 슬롯별 호출을 응답을 기다리지 않고 연달아 보냄
+     * (클러스터 클라이언트가 노드별 연결로 보내므로 노드마다 파이프라인으로 처리됨)
+     * @return keys 순서대로 이어 붙인 응답
+     */
+    @SuppressWarnings("rawtypes")
+    public CompletionStage<List<Long>> executeForKeysAsync(RedisScript<List> script, List<String> keys, List<String> args) {
+        List<List<Integer>> groups = keyLayout.partition(keys);
+        if (groups.size() == 1) {
+            return executeReactive(script, keys, args).collectList().map(RedisReplies::toLongs).toFuture();
+        }
+        
+        List<CompletableFuture<List<Long>>> replies = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            List<String> groupKeys = new ArrayList<>(group.size());
+            for (int index : group) {
+                groupKeys.add(keys.get(index));
+            }
+            replies.add(executeReactive(script, groupKeys, args).collectList().map(RedisReplies::toLongs).toFuture());
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> merge(keys.size(), groups, replies));
+    }
+    
+    /**
+     * 슬롯별 응답을 원래 키 순서로 합침 (응답이 모자란 키의 값은 null)
+     */
+    private static List<Long> merge(int keyCount, List<List<Integer>> groups, List<CompletableFuture<List<Long>>> replies) {
+        int fields = RedisReplies.RESULT_FIELDS;
+        Long[] merged = new Long[keyCount * fields];
+        for (int g = 0; g < groups.size(); g++) {
+            List<Integer> group = groups.get(g);
+            List<Long> reply = replies.get(g).join();
+            for (int i = 0; i < group.size(); i++) {
+                int from = i * fields;
+                int to = Math.min(reply.size(), from + fields);
+                for (int j = from; j < to; j++) {
+                    merged[group.get(i) * fields + (j - from)] = reply.get(j);
+                }
+            }
+        }
+        return Arrays.asList(merged);
+    }
+    
+    private void load(RedisScriptingCommands commands, RedisScript<?> script) {
+        loadTimer.record(() -> commands.scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    private Mono<String> load(ReactiveScriptingCommands commands, RedisScript<?> script) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return commands.scriptLoad(ByteBuffer.wrap(script.getScriptAsString().getBytes(StandardCharsets.UTF_8)))
+                .doOnSuccess(sha -> loadTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+    
+    /**
+     * 예외 원인 중에 NOSCRIPT 응답이 있는지 확인
+     */
+    private boolean isNoScript(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null && message.contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static byte[][] encode(List<String> keys, List<String> args) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+        int i = 0;
+        for (String key : keys) {
+            keysAndArgs[i++] = key.getBytes(StandardCharsets.UTF_8);
+        }
+        for (String arg : args) {
+            keysAndArgs[i++] = arg.getBytes(StandardCharsets.UTF_8);
+        }
+        return keysAndArgs;
+    }
+    
+    private static ByteBuffer[] encodeBuffers(List<String> keys, List<String> args) {
+        byte[][] encoded = encode(keys, args);
+        ByteBuffer[] buffers = new ByteBuffer[encoded.length];
+        for (int i = 0; i < encoded.length; i++) {
+            buffers[i] = ByteBuffer.wrap(encoded[i]);
+        }
+        return buffers;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.demo.ratelimiter.config;
+
+import com.example.demo.ratelimiter.aspect.RateLimiterRegistry;
+import com.example.demo.ratelimiter.filter.RateLimitFilter;
+import com.example.demo.ratelimiter.filter.RateLimitFilterProperties;
+import com.example.demo.ratelimiter.key.ClientKeyResolver;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * 필터 기반 Rate Limiting 설정
+ * 
+ * ratelimiter.filter.enabled=true이면 RateLimitFilter를 등록합니다.
+ * 다른 필터보다 먼저 실행되도록 높은 우선순위를 주어, 거부되는 요청이 최소한의 처리만 거치게 합니다.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "ratelimiter.filter", name = "enabled", havingValue = "true")
+public class RateLimitFilterConfig {
+    
+    /**
+     * RateLimitFilter 등록 (모든 경로, 규칙에 일치하지 않는 요청은 그대로 통과)
+     */
+    @Bean
+    public FilterRegistrationBean<RateLimitFilter> rateLimitFilter(RateLimitFilterProperties properties,
+                                                                   RateLimiterRegistry limiterRegistry,
+                                                                   ClientKeyResolver clientKeyResolver,
+                                                                   ObjectMapper objectMapper) {
+        FilterRegistrationBean<RateLimitFilter> registration =
+            new FilterRegistrationBean<>(new RateLimitFilter(properties, limiterRegistry, clientKeyResolver, objectMapper));
+        registration.addUrlPatterns("/*");
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+}
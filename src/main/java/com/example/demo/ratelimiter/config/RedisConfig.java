@@ -2,7 +2,9 @@ package com.example.demo.ratelimiter.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -11,6 +13,7 @@ import org.springframework.data.redis.serializer.StringRedisSerializer;
  * 
  * RedisTemplate Bean을 정의하여 Redis 기반 Rate Limiter들이 
  * 의존성 주입을 받을 수 있도록 설정
+ * 비동기 API(tryAcquireAsync)는 ReactiveStringRedisTemplate으로 Lettuce 리액티브 명령을 사용
  */
 @Configuration
 public class RedisConfig {
@@ -44,5 +47,18 @@ public class RedisConfig {
         
         return template;
     }
+    
+    /**
+     * ReactiveStringRedisTemplate Bean 등록
+     * 
+     * Redis 기반 Rate Limiter의 비동기 API가 사용합니다.
+     * Lettuce 연결 팩토리는 동기/리액티브 연결을 모두 제공하므로 같은 팩토리를 공유합니다.
+     * 
+     * @param connectionFactory Spring Boot가 자동으로 생성하는 리액티브 Redis 연결 팩토리
+     * @return Key와 Value를 String으로 직렬화하는 리액티브 템플릿
+     */
+    @Bean
+    public ReactiveStringRedisTemplate reactiveStringRedisTemplate(ReactiveRedisConnectionFactory connectionFactory) {
+        return new ReactiveStringRedisTemplate(connectionFactory);
+    }
 }
-
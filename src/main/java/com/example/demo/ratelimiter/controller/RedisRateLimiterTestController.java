@@ -268,6 +268,7 @@ public class RedisRateLimiterTestController {
         data.put("remaining_tokens", result.getRemainingTokens());
         data.put("reset_time", result.getResetTime());
         data.put("reset_time_readable", new java.util.Date(result.getResetTime()));
+        data.put("retry_after_ms", result.getRetryAfterMs());
         data.put("algorithm_type", result.getAlgorithm());
         data.put("message", result.getMessage());
         data.put("description", description);
@@ -0,0 +1,132 @@
+package com.example.demo.ratelimiter.filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 경로 패턴 트라이
+ * 
+ * 동작 원리:
+ * - 시작 시 패턴을 '/' 단위 세그먼트로 나누어 트라이에 등록 (요청마다 패턴을 해석하지 않음)
+ * - 고정 세그먼트는 HashMap으로 바로 찾고, *와 {변수}는 세그먼트 하나, **는 0개 이상의 세그먼트와 일치
+ * - 요청 경로는 세그먼트 수만큼만 내려가며, 고정 세그먼트 > * > ** 순으로 먼저 일치한 값을 반환
+ * - 같은 패턴에 여러 값이 있으면 HTTP 메서드가 맞는 첫 번째 값 사용
+ */
+final class PathPatternTrie<T> {
+    
+    private final Node<T> root = new Node<>();
+    
+    /**
+     * 패턴 등록
+     * @param pattern '/'로 시작하는 경로 패턴
+     * @param methods HTTP 메서드 (비어 있으면 모든 메서드)
+     */
+    void add(String pattern, Collection<String> methods, T value) {
+        if (pattern == null || !pattern.startsWith("/")) {
+            throw new IllegalArgumentException("경로 패턴은 '/'로 시작해야 합니다: " + pattern);
+        }
+        Node<T> node = root;
+        for (String segment : pattern.substring(1).split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (segment.equals("**")) {
+                node = node.multi != null ? node.multi : (node.multi = new Node<>());
+            } else if (segment.equals("*") || (segment.startsWith("{") && segment.endsWith("}"))) {
+                node = node.single != null ? node.single : (node.single = new Node<>());
+            } else {
+                node = node.literals.computeIfAbsent(segment, s -> new Node<>());
+            }
+        }
+        Set<String> methodSet = new HashSet<>();
+        for (String method : methods) {
+            methodSet.add(method.toUpperCase(Locale.ROOT));
+        }
+        node.values.add(new Entry<>(methodSet, value));
+    }
+    
+    /**
+     * 경로와 HTTP 메서드에 일치하는 값 조회
+     * @param path 요청 경로 (컨텍스트 경로 제외)
+     * @return 일치하는 값, 없으면 null
+     */
+    T match(String path, String method) {
+        return match(root, path, path.startsWith("/") ? 1 : 0, method);
+    }
+    
+    private T match(Node<T> node, String path, int pos, String method) {
+        if (pos >= path.length()) {
+            T value = node.valueFor(method);
+            if (value != null) {
+                return value;
+            }
+        } else {
+            int end = path.indexOf('/', pos);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (!node.literals.isEmpty()) {
+                Node<T> literal = node.literals.get(path.substring(pos, end));
+                if (literal != null) {
+                    T value = match(literal, path, end + 1, method);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+            if (node.single != null) {
+                T value = match(node.single, path, end + 1, method);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        if (node.multi != null) {
+            // **는 남은 세그먼트 중 0개 이상을 소비
+            for (int next = pos; ; ) {
+                T value = match(node.multi, path, next, method);
+                if (value != null) {
+                    return value;
+                }
+                if (next >= path.length()) {
+                    break;
+                }
+                int end = path.indexOf('/', next);
+                next = end < 0 ? path.length() : end + 1;
+            }
+        }
+        return null;
+    }
+    
+    private static final class Node<T> {
+        private final Map<String, Node<T>> literals = new HashMap<>();
+        private final List<Entry<T>> values = new ArrayList<>(1);
+        private Node<T> single;     // * 또는 {변수}
+        private Node<T> multi;      // **
+        
+        T valueFor(String method) {
+            for (Entry<T> entry : values) {
+                if (entry.methods.isEmpty() || entry.methods.contains(method)) {
+                    return entry.value;
+                }
+            }
+            return null;
+        }
+    }
+    
+    private static final class Entry<T> {
+        private final Set<String> methods;
+        private final T value;
+        
+        Entry(Set<String> methods, T value) {
+            this.methods = methods;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.demo.ratelimiter.filter;
+
+import com.example.demo.common.ApiResponse;
+import com.example.demo.ratelimiter.annotation.RateLimit;
+import com.example.demo.ratelimiter.annotation.RedisRateLimit;
+import com.example.demo.ratelimiter.aspect.RateLimiterRegistry;
+import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitResult;
+import com.example.demo.ratelimiter.common.RateLimiter;
+import com.example.demo.ratelimiter.key.ClientKeyResolver;
+import com.example.demo.ratelimiter.key.CompactKey;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 경로 패턴 기반 Rate Limit 필터
+ * 
+ * 동작 원리:
+ * - DispatcherServlet 앞에서 실행되어, 한도를 넘은 요청은 핸들러 조회, 인자 바인딩(JSON 파싱),
+ *   세션 생성 전에 429로 응답 (어노테이션 방식보다 거부 비용이 작음)
+ * - 시작 시 규칙(ratelimiter.filter.rules)마다 Rate Limiter, 설정, 키 접두사를 준비하고 경로 트라이에 등록
+ * - 요청마다 트라이에서 규칙을 찾아 Rate Limiter를 바로 호출하며, 일치하는 규칙이 없으면 그대로 통과
+ * - 경로는 디코딩하고 세미콜론 파라미터(;jsessionid 등)와 중복 '/'를 제거한 애플리케이션 내 경로로 매칭
+ *   (/api/%6Cogin, /api/login;x=1 등으로 규칙을 우회하지 못하도록 MVC 핸들러 매칭과 같은 경로 사용)
+ * 
+ * 응답 헤더:
+ * - X-RateLimit-Remaining: 남은 요청 수
+ * - Retry-After: 재시도까지 대기 시간 (초, 거부 시, 재시도해도 허용될 수 없으면 생략)
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+    
+    private final PathPatternTrie<FilterRule> rules = new PathPatternTrie<>();
+    private final ObjectMapper objectMapper;
+    
+    public RateLimitFilter(RateLimitFilterProperties properties, RateLimiterRegistry limiterRegistry,
+                           ClientKeyResolver clientKeyResolver, ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        for (RateLimitFilterProperties.Rule rule : properties.getRules()) {
+            rules.add(rule.getPattern(), rule.getMethods(), new FilterRule(rule, limiterRegistry, clientKeyResolver));
+        }
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+        FilterRule rule = rules.match(path, request.getMethod());
+        if (rule == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        
+        RateLimitResult result = rule.tryAcquire(request, path);
+        response.setHeader("X-RateLimit-Remaining", String.valueOf(result.getRemainingTokens()));
+        if (!result.isAllowed()) {
+            String message;
+            if (result.getRetryAfterMs() < 0) {
+                // 요청량이 한도를 넘어 재시도해도 허용되지 않음
+                message = rule.message + " (Request exceeds the limit)";
+            } else {
+                long retryAfterSeconds = Math.max(1, (result.getRetryAfterMs() + 999) / 1000);
+                response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+                message = rule.message + " (Retry after " + retryAfterSeconds + " seconds)";
+            }
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            objectMapper.writeValue(response.getOutputStream(), ApiResponse.fail(message));
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+    
+    /**
+     * 시작 시 준비된 규칙 (Rate Limiter, 설정, 키 접두사)
+     */
+    private static final class FilterRule {
+        private final RateLimiter limiter;
+        private final RateLimitConfig config;
+        private final ClientKeyResolver clientKeyResolver;
+        private final RateLimit.KeyType keyType;
+        private final long keySeed;
+        private final String customKey;
+        private final String message;
+        
+        FilterRule(RateLimitFilterProperties.Rule rule, RateLimiterRegistry limiterRegistry,
+                   ClientKeyResolver clientKeyResolver) {
+            String algorithm = rule.getAlgorithm();
+            if (algorithm.startsWith("REDIS_")) {
+                RedisRateLimit.RedisAlgorithmType type = RedisRateLimit.RedisAlgorithmType.valueOf(algorithm);
+                this.limiter = limiterRegistry.get(type);
+                this.config = createConfig(rule, type);
+            } else {
+                RateLimit.AlgorithmType type = RateLimit.AlgorithmType.valueOf(algorithm);
+                this.limiter = limiterRegistry.get(type);
+                this.config = createConfig(rule, type);
+            }
+            this.clientKeyResolver = clientKeyResolver;
+            this.keyType = rule.getKeyType();
+            this.keySeed = CompactKey.seed("filter:" + algorithm + ":" + rule.getPattern() + ":");
+            this.customKey = CompactKey.of(CompactKey.append(keySeed, "custom:"), rule.getCustomKey());
+            this.message = rule.getMessage();
+        }
+        
+        RateLimitResult tryAcquire(HttpServletRequest request, String path) {
+            return limiter.tryAcquire(generateKey(request, path), config);
+        }
+        
+        /**
+         * Rate Limit 키 생성 (규칙마다 다른 접두사 seed로 해싱하여 규칙 간 카운터를 분리)
+         * @param path 매칭에 사용한 정규화된 경로 (표기만 다른 같은 경로가 하나의 카운터를 쓰도록)
+         */
+        private String generateKey(HttpServletRequest request, String path) {
+            switch (keyType) {
+                case USER:
+                    return CompactKey.of(CompactKey.append(keySeed, "user:"), clientKeyResolver.userId(request));
+                case API:
+                    return CompactKey.of(CompactKey.append(CompactKey.append(CompactKey.append(
+                        CompactKey.append(keySeed, "method:"), request.getMethod()), ':'), path));
+                case CUSTOM:
+                    return customKey;
+                case IP:
+                default:
+                    return CompactKey.of(keySeed, clientKeyResolver.clientIp(request));
+            }
+        }
+        
+        private static RateLimitConfig createConfig(RateLimitFilterProperties.Rule rule, RateLimit.AlgorithmType type) {
+            switch (type) {
+                case TOKEN_BUCKET:
+                case LEAKY_BUCKET:
+                    return RateLimitConfig.forTokenBucket(rule.getLimit(), rule.getRefillRate(), rule.getRefillPeriodMs());
+                case SLIDING_WINDOW_COUNTER:
+                    return RateLimitConfig.forSlidingWindow(rule.getLimit(), rule.getWindowSeconds() * 1000L, rule.getSubWindows());
+                case FIXED_WINDOW:
+                case SLIDING_WINDOW_LOG:
+                default:
+                    return RateLimitConfig.forWindow(rule.getLimit(), rule.getWindowSeconds() * 1000L);
+            }
+        }
+        
+        /**
+         * Redis 알고리즘은 보충 주기와 하위 윈도우를 지원하지 않으므로, 기본값이 아니면 시작 시 실패
+         * (설정이 조용히 무시되어 의도와 다른 한도가 적용되지 않도록)
+         */
+        private static RateLimitConfig createConfig(RateLimitFilterProperties.Rule rule, RedisRateLimit.RedisAlgorithmType type) {
+            if (rule.getRefillPeriodMs() != 1000 || rule.getSubWindows() != 1) {
+                throw new IllegalArgumentException(
+                    type + " 규칙은 refill-period-ms, sub-windows를 지원하지 않습니다: " + rule.getPattern());
+            }
+            switch (type) {
+                case REDIS_TOKEN_BUCKET:
+                case REDIS_LEAKY_BUCKET:
+                    return RateLimitConfig.forTokenBucket(rule.getLimit(), rule.getRefillRate());
+                default:
+                    return RateLimitConfig.forWindow(rule.getLimit(), rule.getWindowSeconds() * 1000L);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.demo.ratelimiter.filter;
+
+import com.example.demo.ratelimiter.annotation.RateLimit;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 필터 기반 Rate Limiting 설정 (ratelimiter.filter)
+ * 
+ * 예)
+ * ratelimiter.filter.enabled: true
+ * ratelimiter.filter.rules[0].pattern: /api/**
+ * ratelimiter.filter.rules[0].algorithm: REDIS_TOKEN_BUCKET
+ * ratelimiter.filter.rules[0].limit: 100
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "ratelimiter.filter")
+public class RateLimitFilterProperties {
+    
+    private boolean enabled = false;      // 필터 사용 여부
+    private List<Rule> rules = new ArrayList<>();
+    
+    /**
+     * 경로 패턴별 Rate Limit 규칙
+     */
+    @Getter
+    @Setter
+    public static class Rule {
+        
+        /**
+         * 경로 패턴 (예: /api/login, /api/users/*, /api/**)
+         * *, {변수}는 세그먼트 하나, **는 0개 이상의 세그먼트와 일치
+         * 여러 규칙이 일치하면 고정 세그먼트 > * > ** 순으로 구체적인 규칙 적용
+         */
+        private String pattern;
+        
+        private List<String> methods = new ArrayList<>();   // HTTP 메서드 (비어 있으면 모든 메서드)
+        private String algorithm = "TOKEN_BUCKET";          // RateLimit.AlgorithmType 또는 RedisRateLimit.RedisAlgorithmType
+        private RateLimit.KeyType keyType = RateLimit.KeyType.IP;
+        private String customKey = "";                     // keyType이 CUSTOM일 때 사용
+        private int limit = 10;                             // 최대 허용 요청 수 (용량)
+        private int windowSeconds = 60;                     // 시간 윈도우 (초)
+        private int refillRate = 1;                         // 토큰 보충 속도 (refillPeriodMs당 토큰 수)
+        private long refillPeriodMs = 1000;                 // 토큰 보충 주기 (밀리초)
+        private int subWindows = 1;                         // Sliding Window Counter 하위 윈도우 수
+        private String message = "Rate limit exceeded. Please try again later.";
+    }
+}
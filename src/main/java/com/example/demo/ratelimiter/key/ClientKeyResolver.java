@@ -0,0 +1,173 @@
+package com.example.demo.ratelimiter.key;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Rate Limit 클라이언트 키 추출
+ * 
+ * 동작 원리:
+ * - IP: 직접 연결한 주소(remoteAddr)가 신뢰할 프록시일 때만 X-Forwarded-For를 사용하고,
+ *   오른쪽(가장 가까운 프록시)부터 읽어 신뢰 대역이 아닌 첫 주소를 클라이언트로 판단
+ *   (클라이언트가 임의로 붙인 왼쪽 값으로 다른 사용자의 한도를 쓰거나 한도를 피할 수 없음)
+ *   헤더가 여러 줄로 오면 줄 순서대로 이어진 하나의 목록으로 보고 마지막 줄부터 읽음
+ * - 사용자: Authorization 헤더를 64비트 해시(CompactKey)로 바꿔 사용 (토큰 원문을 키에 남기지 않음),
+ *   없으면 기존 세션의 userId, 그것도 없으면 IP
+ * - 세션은 getSession(false)로만 조회하여 새로 만들지 않음
+ * - 결과는 요청 속성에 저장하여, 한 요청에 여러 제한이 걸려도 한 번만 계산
+ * - 헤더 파싱은 split/정규식 없이 인덱스로 처리
+ * 
+ * 설정:
+ * - ratelimiter.client-key.trusted-proxies: 신뢰할 프록시 CIDR 목록 (쉼표 구분, 기본 127.0.0.0/8,::1/128)
+ */
+@Component
+public class ClientKeyResolver {
+    
+    private static final String IP_ATTRIBUTE = ClientKeyResolver.class.getName() + ".IP";
+    private static final String USER_ATTRIBUTE = ClientKeyResolver.class.getName() + ".USER";
+    private static final String UNKNOWN = "unknown";
+    
+    private final TrustedProxies trustedProxies;
+    
+    public ClientKeyResolver(@Value("${ratelimiter.client-key.trusted-proxies:127.0.0.0/8,::1/128}") List<String> trustedProxies) {
+        this.trustedProxies = new TrustedProxies(trustedProxies);
+    }
+    
+    /**
+     * 현재 요청의 클라이언트 IP (요청 범위 밖이면 "unknown")
+     */
+    public String currentClientIp() {
+        HttpServletRequest request = currentRequest();
+        return request != null ? clientIp(request) : UNKNOWN;
+    }
+    
+    /**
+     * 현재 요청의 사용자 ID (요청 범위 밖이면 "unknown")
+     */
+    public String currentUserId() {
+        HttpServletRequest request = currentRequest();
+        return request != null ? userId(request) : UNKNOWN;
+    }
+    
+    /**
+     * 클라이언트 IP 추출
+     */
+    public String clientIp(HttpServletRequest request) {
+        if (request.getAttribute(IP_ATTRIBUTE) instanceof String ip) {
+            return ip;
+        }
+        String ip = resolveClientIp(request);
+        request.setAttribute(IP_ATTRIBUTE, ip);
+        return ip;
+    }
+    
+    /**
+     * 사용자 ID 추출 (Authorization 해시 > 세션 userId > IP)
+     */
+    public String userId(HttpServletRequest request) {
+        if (request.getAttribute(USER_ATTRIBUTE) instanceof String userId) {
+            return userId;
+        }
+        String userId = resolveUserId(request);
+        request.setAttribute(USER_ATTRIBUTE, userId);
+        return userId;
+    }
+    
+    private String resolveClientIp(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (remoteAddr == null || !trustedProxies.contains(remoteAddr, 0, remoteAddr.length())) {
+            // 신뢰하지 않는 곳에서 온 전달 헤더는 무시
+            return remoteAddr != null ? remoteAddr : UNKNOWN;
+        }
+        
+        // X-Forwarded-For: client, proxy1, proxy2 - 오른쪽부터 신뢰 대역이 아닌 첫 주소
+        Enumeration<String> headers = request.getHeaders("X-Forwarded-For");
+        if (headers != null && headers.hasMoreElements()) {
+            String xForwardedFor = headers.nextElement();
+            if (!headers.hasMoreElements()) {
+                String ip = forwardedClient(xForwardedFor, true);
+                if (ip != null) {
+                    return ip;
+                }
+            } else {
+                // 프록시마다 헤더 줄을 따로 붙인 경우 - 마지막 줄이 가장 가까운 프록시
+                List<String> lines = new ArrayList<>();
+                lines.add(xForwardedFor);
+                while (headers.hasMoreElements()) {
+                    lines.add(headers.nextElement());
+                }
+                for (int i = lines.size() - 1; i >= 0; i--) {
+                    String ip = forwardedClient(lines.get(i), i == 0);
+                    if (ip != null) {
+                        return ip;
+                    }
+                }
+            }
+        }
+        
+        // X-Real-IP 헤더 확인
+        String xRealIp = request.getHeader("X-Real-IP");
+        if (xRealIp != null && !xRealIp.isEmpty()) {
+            return xRealIp;
+        }
+        return remoteAddr;
+    }
+    
+    /**
+     * X-Forwarded-For 한 줄을 오른쪽부터 읽어 신뢰 대역이 아닌 첫 주소를 반환
+     * @param first 첫 번째 줄이면 true (모두 신뢰 대역이면 가장 왼쪽 주소를 클라이언트로 사용)
+     * @return 클라이언트 주소, 이 줄에서 찾지 못하면 null
+     */
+    private String forwardedClient(String xForwardedFor, boolean first) {
+        int end = xForwardedFor.length();
+        while (end > 0) {
+            int comma = xForwardedFor.lastIndexOf(',', end - 1);
+            int start = comma + 1;
+            while (start < end && xForwardedFor.charAt(start) <= ' ') {
+                start++;
+            }
+            int trimmedEnd = end;
+            while (trimmedEnd > start && xForwardedFor.charAt(trimmedEnd - 1) <= ' ') {
+                trimmedEnd--;
+            }
+            if (start < trimmedEnd && ((first && comma < 0) || !trustedProxies.contains(xForwardedFor, start, trimmedEnd))) {
+                return xForwardedFor.substring(start, trimmedEnd);
+            }
+            end = comma;
+        }
+        return null;
+    }
+    
+    private String resolveUserId(HttpServletRequest request) {
+        String authorization = request.getHeader("Authorization");
+        if (authorization != null && !authorization.isEmpty()) {
+            return "auth:" + CompactKey.encode(CompactKey.hash(authorization));
+        }
+        
+        HttpSession session = request.getSession(false);
+        if (session != null) {
+            Object userId = session.getAttribute("userId");
+            if (userId != null) {
+                return userId.toString();
+            }
+        }
+        
+        // 사용자 정보가 없으면 IP로 대체
+        return clientIp(request);
+    }
+    
+    private static HttpServletRequest currentRequest() {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            return attributes.getRequest();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.demo.ratelimiter.key;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 해시 기반 압축 Rate Limit 키
+ * 
+ * 동작 원리:
+ * - "접두사 + 식별자" 문자열을 이어 붙이지 않고, FNV-1a로 조각을 차례로 해싱한 뒤 murmur3 finalizer로 64비트 해시 생성
+ * - 접두사(알고리즘, 키 종류 등)는 시작 시 seed로 한 번만 해싱하고, 요청마다 식별자만 이어서 해싱
+ * - 결과는 base64url 11자로 인코딩 (예: "TOKEN_BUCKET:user:auth:..." 대신 "q3XbF0k-Zb8")
+ *   인메모리 맵 키와 Redis 키가 식별자 길이와 관계없이 고정 길이가 되어 hashCode 계산과 메모리 사용량이 줄어듦
+ * 
+ * 참고: 64비트 해시 충돌 시 두 키가 같은 카운터를 공유함 (1천만 키 기준 충돌 확률 약 10^-5)
+ */
+public final class CompactKey {
+    
+    /**
+     * 인코딩된 키 길이 (64비트 / 6비트)
+     */
+    public static final int ENCODED_LENGTH = 11;
+    
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+    private static final byte[] DIGITS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+    
+    private CompactKey() {
+    }
+    
+    /**
+     * 접두사를 해싱한 중간 상태 (append로 식별자를 이어서 해싱)
+     */
+    public static long seed(String prefix) {
+        return append(OFFSET_BASIS, prefix);
+    }
+    
+    /**
+     * 해싱 중간 상태에 문자열 조각을 이어서 해싱
+     */
+    public static long append(long state, String part) {
+        for (int i = 0; i < part.length(); i++) {
+            state ^= part.charAt(i);
+            state *= PRIME;
+        }
+        return state;
+    }
+    
+    /**
+     * 해싱 중간 상태에 문자 하나를 이어서 해싱 (구분자용)
+     */
+    public static long append(long state, char c) {
+        return (state ^ c) * PRIME;
+    }
+    
+    /**
+     * 해싱 중간 상태를 최종 64비트 해시로 변환 (murmur3 fmix64로 비트 분산)
+     */
+    public static long finish(long state) {
+        state ^= state >>> 33;
+        state *= 0xff51afd7ed558ccdL;
+        state ^= state >>> 33;
+        state *= 0xc4ceb9fe1a85ec53L;
+        state ^= state >>> 33;
+        return state;
+    }
+    
+    /**
+     * 문자열의 64비트 해시
+     */
+    public static long hash(String value) {
+        return finish(append(OFFSET_BASIS, value));
+    }
+    
+    /**
+     * 접두사 seed와 식별자로 압축 키 생성
+     */
+    public static String of(long seed, String id) {
+        return encode(finish(append(seed, id)));
+    }
+    
+    /**
+     * 해싱 중간 상태를 그대로 압축 키로 변환 (여러 조각을 append한 경우)
+     */
+    public static String of(long state) {
+        return encode(finish(state));
+    }
+    
+    /**
+     * 64비트 해시를 base64url 11자로 인코딩
+     */
+    public static String encode(long hash) {
+        byte[] chars = new byte[ENCODED_LENGTH];
+        for (int i = ENCODED_LENGTH - 1; i >= 0; i--) {
+            chars[i] = DIGITS[(int) (hash & 0x3F)];
+            hash >>>= 6;
+        }
+        return new String(chars, StandardCharsets.ISO_8859_1);
+    }
+}
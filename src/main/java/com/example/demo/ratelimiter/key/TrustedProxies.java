@@ -0,0 +1,243 @@
+package com.example.demo.ratelimiter.key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 신뢰할 프록시 주소 대역 (CIDR)
+ * 
+ * 동작 원리:
+ * - 시작 시 CIDR 목록을 IPv4(int)와 IPv6(long 2개) 네트워크/마스크로 변환
+ * - 주소 문자열의 [start, end) 구간을 직접 파싱하므로, 헤더 값을 잘라낸 문자열이나 정규식 없이 비교
+ * - InetAddress를 쓰지 않으므로 호스트 이름이 들어와도 DNS 조회를 하지 않음 (신뢰하지 않는 주소로 취급)
+ */
+final class TrustedProxies {
+    
+    private final int[] v4Networks;
+    private final int[] v4Masks;
+    private final long[] v6Networks;    // [hi, lo] 쌍
+    private final long[] v6Masks;
+    
+    TrustedProxies(List<String> cidrs) {
+        List<int[]> v4 = new ArrayList<>();
+        List<long[]> v6 = new ArrayList<>();
+        for (String cidr : cidrs) {
+            String value = cidr.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            int slash = value.indexOf('/');
+            int end = slash < 0 ? value.length() : slash;
+            long address = parseV4(value, 0, end);
+            if (address >= 0) {
+                int prefix = slash < 0 ? 32 : parsePrefix(value, slash + 1, 32);
+                int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+                v4.add(new int[] {(int) address & mask, mask});
+                continue;
+            }
+            long[] address6 = new long[2];
+            if (!parseV6(value, 0, end, address6)) {
+                throw new IllegalArgumentException("CIDR 형식이 올바르지 않습니다: " + cidr);
+            }
+            int prefix = slash < 0 ? 128 : parsePrefix(value, slash + 1, 128);
+            long maskHi = prefix == 0 ? 0 : prefix >= 64 ? -1L : -1L << (64 - prefix);
+            long maskLo = prefix <= 64 ? 0 : prefix == 128 ? -1L : -1L << (128 - prefix);
+            v6.add(new long[] {address6[0] & maskHi, address6[1] & maskLo, maskHi, maskLo});
+        }
+        
+        this.v4Networks = new int[v4.size()];
+        this.v4Masks = new int[v4.size()];
+        for (int i = 0; i < v4.size(); i++) {
+            v4Networks[i] = v4.get(i)[0];
+            v4Masks[i] = v4.get(i)[1];
+        }
+        this.v6Networks = new long[v6.size() * 2];
+        this.v6Masks = new long[v6.size() * 2];
+        for (int i = 0; i < v6.size(); i++) {
+            long[] entry = v6.get(i);
+            v6Networks[i * 2] = entry[0];
+            v6Networks[i * 2 + 1] = entry[1];
+            v6Masks[i * 2] = entry[2];
+            v6Masks[i * 2 + 1] = entry[3];
+        }
+    }
+    
+    /**
+     * 주소 문자열 s의 [start, end) 구간이 신뢰 대역에 속하는지 확인
+     * [IPv6]:포트, IPv4:포트 형식의 포트는 무시하며, 주소가 아니면 false
+     */
+    boolean contains(String s, int start, int end) {
+        if (start < end && s.charAt(start) == '[') {
+            int close = s.indexOf(']', start);
+            if (close < 0 || close >= end) {
+                return false;
+            }
+            start++;
+            end = close;
+        }
+        int colon = s.indexOf(':', start);
+        if (colon < 0 || colon >= end) {
+            return containsV4(parseV4(s, start, end));
+        }
+        int nextColon = s.indexOf(':', colon + 1);
+        if (nextColon < 0 || nextColon >= end) {
+            // 콜론이 하나뿐이면 IPv4:포트
+            return containsV4(parseV4(s, start, colon));
+        }
+        if (v6Networks.length == 0) {
+            return false;
+        }
+        long[] address = new long[2];
+        if (!parseV6(s, start, end, address)) {
+            return false;
+        }
+        for (int i = 0; i < v6Networks.length; i += 2) {
+            if ((address[0] & v6Masks[i]) == v6Networks[i] && (address[1] & v6Masks[i + 1]) == v6Networks[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private boolean containsV4(long address) {
+        if (address < 0) {
+            return false;
+        }
+        for (int i = 0; i < v4Networks.length; i++) {
+            if (((int) address & v4Masks[i]) == v4Networks[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 점으로 구분된 IPv4 주소 파싱
+     * @return 32비트 주소 (부호 없는 값), 형식이 다르면 -1
+     */
+    private static long parseV4(String s, int start, int end) {
+        long address = 0;
+        int parts = 0;
+        int i = start;
+        while (i < end) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                value = value * 10 + (s.charAt(i) - '0');
+                if (++digits > 3) {
+                    return -1;
+                }
+                i++;
+            }
+            if (digits == 0 || value > 255 || ++parts > 4) {
+                return -1;
+            }
+            address = (address << 8) | value;
+            if (i < end) {
+                if (s.charAt(i) != '.' || i + 1 == end) {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return parts == 4 ? address : -1;
+    }
+    
+    /**
+     * IPv6 주소 파싱 (:: 축약, 끝부분 IPv4 표기, %zone 지원)
+     * @param out [상위 64비트, 하위 64비트]
+     * @return 형식이 올바르면 true
+     */
+    private static boolean parseV6(String s, int start, int end, long[] out) {
+        int percent = s.indexOf('%', start);
+        if (percent >= 0 && percent < end) {
+            end = percent;
+        }
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;       // :: 위치 (그 앞의 그룹 수)
+        int i = start;
+        if (end - start >= 2 && s.charAt(start) == ':' && s.charAt(start + 1) == ':') {
+            gap = 0;
+            i = start + 2;
+        } else if (start < end && s.charAt(start) == ':') {
+            return false;
+        }
+        while (i < end) {
+            int segmentEnd = i;
+            while (segmentEnd < end && s.charAt(segmentEnd) != ':') {
+                segmentEnd++;
+            }
+            if (segmentEnd == end && s.indexOf('.', i) >= 0 && s.indexOf('.', i) < end) {
+                // 마지막 두 그룹을 IPv4로 표기 (예: ::ffff:10.0.0.1)
+                long v4 = parseV4(s, i, end);
+                if (v4 < 0 || count > 6) {
+                    return false;
+                }
+                groups[count++] = (int) (v4 >>> 16);
+                groups[count++] = (int) (v4 & 0xFFFF);
+                break;
+            }
+            int length = segmentEnd - i;
+            if (length == 0 || length > 4 || count == 8) {
+                return false;
+            }
+            int value = 0;
+            for (int j = i; j < segmentEnd; j++) {
+                int digit = Character.digit(s.charAt(j), 16);
+                if (digit < 0) {
+                    return false;
+                }
+                value = (value << 4) | digit;
+            }
+            groups[count++] = value;
+            i = segmentEnd;
+            if (i < end) {
+                i++;
+                if (i < end && s.charAt(i) == ':') {
+                    if (gap >= 0) {
+                        return false;
+                    }
+                    gap = count;
+                    i++;
+                } else if (i == end) {
+                    return false;
+                }
+            }
+        }
+        if (gap < 0 ? count != 8 : count == 8) {
+            return false;
+        }
+        
+        long hi = 0;
+        long lo = 0;
+        int position = 0;
+        for (int k = 0; k < count; k++) {
+            if (k == gap) {
+                position += 8 - count;
+            }
+            if (position < 4) {
+                hi |= (long) groups[k] << (48 - 16 * position);
+            } else {
+                lo |= (long) groups[k] << (48 - 16 * (position - 4));
+            }
+            position++;
+        }
+        out[0] = hi;
+        out[1] = lo;
+        return true;
+    }
+    
+    private static int parsePrefix(String s, int start, int max) {
+        int prefix;
+        try {
+            prefix = Integer.parseInt(s.substring(start).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("CIDR 접두사 길이가 올바르지 않습니다: " + s, e);
+        }
+        if (prefix < 0 || prefix > max) {
+            throw new IllegalArgumentException("CIDR 접두사 길이가 범위를 벗어났습니다: " + s);
+        }
+        return prefix;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.demo.ratelimiter.store;
+
+/**
+ * 키별 Rate Limiter 상태가 구현하는 인터페이스
+ * KeyedStateStore가 제거해도 되는 상태인지 판단할 때 사용
+ */
+public interface ExpirableState {
+    
+    /**
+     * 새로 생성한 상태와 동일한지 확인 (가득 찬 버킷, 비어 있는 윈도우 등)
+     * true이면 제거 후 다시 생성해도 제한 결과가 달라지지 않음
+     * @return 초기 상태 여부
+     */
+    boolean isFresh();
+}
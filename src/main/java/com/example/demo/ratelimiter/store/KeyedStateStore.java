@@ -0,0 +1,171 @@
+package com.example.demo.ratelimiter.store;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 인메모리 Rate Limiter 공용 키별 상태 저장소
+ * 
+ * 동작 원리:
+ * - ConcurrentHashMap에 키별 상태를 저장 (기존 조회 경로는 get 한 번)
+ * - 새 키가 추가될 때마다 순회 커서를 조금씩 전진시키며 초기 상태(isFresh)로 돌아간 항목을 제거
+ * - 저장된 키 수가 maxKeys에 도달하면 더 넓게 정리해 보고, 그래도 자리가 없으면 새 키를 저장하지 않음
+ *   (제한 중인 키를 제거하면 그 키의 소진 기록이 초기화되므로, 초기 상태가 아닌 항목은 제거하지 않음)
+ * 
+ * 자리가 없을 때 새 키 처리 (failOpen, ratelimiter.memory.fail-open):
+ * - false (기본, fail-closed): getOrCreate가 null을 반환하고 호출자는 요청을 거부 (RateLimitResult.tooManyKeys)
+ *   제한 중인 키의 기록은 지켜지지만, 새 키가 폭증하면 정상 사용자의 처음 보는 키도 거부됨
+ * - true (fail-open): getOrCreate가 저장하지 않은 새 상태를 반환하여 처음 보는 키처럼 판정
+ *   새 키를 거부하지는 않지만, 자리가 생길 때까지 그 키의 요청은 누적되지 않아 사실상 제한되지 않음
+ * 
+ * 별도 스레드 없이 키 추가 속도에 비례해 정리되므로, IP 스캔처럼 새 키가 폭증할수록 정리도 빨라짐
+ * 
+ * 참고: 제거 직전에 상태 객체를 가져간 요청의 소비분은 새 상태에 반영되지 않을 수 있음 (동시 요청 수만큼 추가 허용 가능)
+ * 동시에 추가되는 새 키는 상한을 동시 요청 수만큼 넘을 수 있음
+ */
+public class KeyedStateStore<S extends ExpirableState> {
+    
+    public static final int DEFAULT_MAX_KEYS = 1_000_000;
+    
+    private static final int SWEEP_BATCH = 8;          // 키 추가 1회당 점검할 항목 수
+    private static final int FULL_SWEEP_BATCH = 64;    // 상한에 도달했을 때 점검할 항목 수
+    
+    private final ConcurrentHashMap<String, S> states = new ConcurrentHashMap<>();
+    private final int maxKeys;
+    private final boolean failOpen;
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private Iterator<Map.Entry<String, S>> cursor;   // sweepLock으로 보호
+    
+    public KeyedStateStore() {
+        this(DEFAULT_MAX_KEYS);
+    }
+    
+    public KeyedStateStore(int maxKeys) {
+        this(maxKeys, false);
+    }
+    
+    /**
+     * @param maxKeys 저장할 최대 키 수
+     * @param failOpen 자리가 없을 때 새 키를 거부하지 않고 저장하지 않은 상태로 판정할지 여부
+     */
+    public KeyedStateStore(int maxKeys, boolean failOpen) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys는 0보다 커야 합니다: " + maxKeys);
+        }
+        this.maxKeys = maxKeys;
+        this.failOpen = failOpen;
+    }
+    
+    /**
+     * 키에 해당하는 상태 조회
+     * @return 상태, 없으면 null
+     */
+    public S get(String key) {
+        return states.get(key);
+    }
+    
+    /**
+     * 키에 해당하는 상태를 조회하고, 없으면 생성
+     * 새 키를 추가하기 전에 정리 작업을 먼저 수행 (막 생성된 초기 상태가 소비 전에 제거되지 않도록)
+     * @return 상태, 상한에 도달해 새 키를 받을 수 없으면 null (호출자는 요청을 거부)
+     *         failOpen이면 null 대신 저장하지 않은 새 상태
+     */
+    public S getOrCreate(String key, Function<? super String, ? extends S> factory) {
+        S state = states.get(key);
+        if (state != null) {
+            return state;
+        }
+        if (!makeRoom()) {
+            return failOpen ? factory.apply(key) : null;
+        }
+        return states.computeIfAbsent(key, factory);
+    }
+    
+    /**
+     * 키의 상태를 교체 (없으면 추가)
+     * 새 키이면 getOrCreate와 마찬가지로 정리 작업을 먼저 수행
+     * @return 저장 여부, 상한에 도달해 새 키를 받을 수 없으면 false
+     */
+    public boolean put(String key, S state) {
+        if (!states.containsKey(key) && !makeRoom()) {
+            return false;
+        }
+        states.put(key, state);
+        return true;
+    }
+    
+    /**
+     * 특정 키의 상태 제거
+     */
+    public void remove(String key) {
+        states.remove(key);
+    }
+    
+    /**
+     * 현재 저장된 키 수
+     */
+    public int size() {
+        return states.size();
+    }
+    
+    /**
+     * 새 키를 추가하기 전 정리 작업, 상한에 도달했으면 더 넓게 정리
+     * @return 새 키를 추가할 자리가 있으면 true
+     */
+    private boolean makeRoom() {
+        sweep(SWEEP_BATCH);
+        if (states.size() < maxKeys) {
+            return true;
+        }
+        sweep(FULL_SWEEP_BATCH);
+        return states.size() < maxKeys;
+    }
+    
+    /**
+     * 커서 위치부터 최대 maxVisits개 항목을 점검하여 초기 상태인 항목을 제거
+     * 다른 스레드가 정리 중이면 기다리지 않고 바로 반환
+     * @return 제거한 항목 수
+     */
+    public int sweep(int maxVisits) {
+        if (!sweepLock.tryLock()) {
+            return 0;
+        }
+        try {
+            int removed = 0;
+            for (int i = 0; i < maxVisits; i++) {
+                if (cursor == null || !cursor.hasNext()) {
+                    cursor = states.entrySet().iterator();
+                    if (!cursor.hasNext()) {
+                        break;
+                    }
+                }
+                Map.Entry<String, S> entry = cursor.next();
+                S state = entry.getValue();
+                if (state.isFresh() && states.remove(entry.getKey(), state)) {
+                    removed++;
+                }
+            }
+            return removed;
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+    
+    /**
+     * 전체 항목을 한 번 순회하며 초기 상태인 항목을 모두 제거
+     * @return 제거한 항목 수
+     */
+    public int evictFresh() {
+        int removed = 0;
+        for (Map.Entry<String, S> entry : states.entrySet()) {
+            S state = entry.getValue();
+            if (state.isFresh() && states.remove(entry.getKey(), state)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.demo.ratelimiter.store;
+
+import com.example.demo.ratelimiter.key.CompactKey;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Off-heap 키별 상태 테이블
+ * 
+ * 동작 원리:
+ * - ByteBuffer.allocateDirect로 할당한 메모리에 open addressing 해시 테이블 구성
+ * - 각 슬롯은 [키 지문 8바이트][상태 워드 8바이트 × wordsPerKey] 고정 폭
+ * - 키 문자열 대신 64비트 지문만 저장하고, 선형 탐사(최대 MAX_PROBES칸)로 슬롯 탐색
+ * - 상태 워드는 VarHandle CAS로 갱신하여 락 없이 동작
+ * 
+ * 상태 규약:
+ * - 모든 상태 워드가 0이면 초기 상태 (새 슬롯은 0으로 초기화됨)
+ * - 탐사 범위가 가득 차면 초기 상태인 슬롯만 재사용하고, 없으면 slotOf가 -1을 반환
+ *   (제한 중인 키의 상태를 지우지 않도록 새 키를 받지 않음, 호출자는 요청을 거부)
+ *   메모리 사용량은 생성 시 정한 크기로 고정됨
+ * 
+ * 슬롯 소유권:
+ * - 슬롯 번호는 고정되지 않으므로, 초기 상태가 된 슬롯은 언제든 다른 키에 재사용될 수 있음
+ * - 호출자는 상태를 읽은 뒤 owns로 지문을 확인하고, CAS에 성공한 뒤에도 owns로 다시 확인
+ *   (그 사이 슬롯이 넘어갔으면 기록을 되돌리고 slotOf로 다시 할당)
+ * 
+ * 힙에는 세그먼트 배열만 남으므로 키 수가 수천만 개여도 GC 부담이 거의 없음
+ * 단, 64비트 지문 충돌 시 두 키가 상태를 공유할 수 있음 (1천만 키 기준 충돌 확률 약 10^-5)
+ */
+public class OffHeapStateTable {
+    
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    
+    private static final long EMPTY = 0;             // 한 번도 사용되지 않은 슬롯
+    private static final long BUSY = 1;              // 다른 키로 교체 중인 슬롯
+    private static final int MAX_PROBES = 16;
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+    
+    /**
+     * 슬롯의 상태가 초기 상태와 동일한지 판단 (슬롯 재사용 시 사용)
+     */
+    @FunctionalInterface
+    public interface FreshCheck {
+        boolean isFresh(OffHeapStateTable table, long slot);
+    }
+    
+    private final ByteBuffer[] segments;
+    private final int wordsPerKey;
+    private final int slotBytes;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final long slotMask;
+    private final FreshCheck freshCheck;
+    
+    /**
+     * @param maxKeys 저장할 최대 키 수 (부하율 75% 기준으로 슬롯 수 결정)
+     * @param wordsPerKey 키당 상태 워드(long) 수
+     * @param freshCheck 슬롯 재사용 가능 여부 판단
+     */
+    public OffHeapStateTable(int maxKeys, int wordsPerKey, FreshCheck freshCheck) {
+        if (maxKeys <= 0 || wordsPerKey <= 0) {
+            throw new IllegalArgumentException("maxKeys와 wordsPerKey는 0보다 커야 합니다");
+        }
+        this.wordsPerKey = wordsPerKey;
+        this.slotBytes = (wordsPerKey + 1) * Long.BYTES;
+        this.freshCheck = freshCheck;
+    
+        long slots = Long.highestOneBit(Math.max(MAX_PROBES, (long) maxKeys * 4 / 3) - 1) << 1;
+        int slotsPerSegment = (int) Math.min(slots, Long.highestOneBit(MAX_SEGMENT_BYTES / slotBytes));
+        this.slotMask = slots - 1;
+        this.segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+        this.segmentMask = slotsPerSegment - 1;
+    
+        this.segments = new ByteBuffer[(int) (slots / slotsPerSegment)];
+        for (int i = 0; i < segments.length; i++) {
+            // VarHandle CAS는 8바이트 정렬된 주소에서만 동작
+            segments[i] = ByteBuffer.allocateDirect(slotsPerSegment * slotBytes + Long.BYTES)
+                    .alignedSlice(Long.BYTES)
+                    .order(ByteOrder.nativeOrder());
+        }
+    }
+    
+    /**
+     * 키에 해당하는 슬롯 번호 조회, 없으면 할당 (새 슬롯의 상태 워드는 모두 0)
+     * @return 슬롯 번호, 탐사 범위에 빈 슬롯과 초기 상태 슬롯이 모두 없으면 -1
+     */
+    public long slotOf(String key) {
+        return slotOf(fingerprint(key));
+    }
+    
+    /**
+     * 지문에 해당하는 슬롯 번호 조회, 없으면 할당
+     * @return 슬롯 번호, 할당할 수 없으면 -1
+     */
+    public long slotOf(long fingerprint) {
+        long start = fingerprint & slotMask;
+    
+        while (true) {
+            long reusable = -1;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                long slot = (start + probe) & slotMask;
+                long current = awaitFingerprint(slot);
+    
+                if (current == fingerprint) {
+                    return slot;
+                }
+                if (current == EMPTY) {
+                    if (claim(slot, EMPTY, fingerprint)) {
+                        return slot;
+                    }
+                    reusable = -2; // 다른 스레드가 먼저 차지함 - 처음부터 다시 탐색
+                    break;
+                }
+                if (reusable == -1 && freshCheck.isFresh(this, slot)) {
+                    reusable = slot;
+                }
+            }
+    
+            if (reusable == -2) {
+                continue;
+            }
+            if (reusable < 0) {
+                // 탐사 범위가 제한 중인 키로 가득 참 - 기존 키를 밀어내지 않음
+                return -1;
+            }
+            long previous = fingerprintAt(reusable);
+            if (previous != BUSY && previous != fingerprint && claim(reusable, previous, fingerprint)) {
+                return reusable;
+            }
+        }
+    }
+    
+    /**
+     * 슬롯이 아직 지문의 키에 속하는지 확인
+     */
+    public boolean owns(long slot, long fingerprint) {
+        return awaitFingerprint(slot) == fingerprint;
+    }
+    
+    /**
+     * 키에 해당하는 슬롯 번호 조회 (할당하지 않음)
+     * @return 슬롯 번호, 없으면 -1
+     */
+    public long find(String key) {
+        long fingerprint = fingerprint(key);
+        long start = fingerprint & slotMask;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            long slot = (start + probe) & slotMask;
+            long current = awaitFingerprint(slot);
+            if (current == fingerprint) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 키의 상태를 초기화 (슬롯은 탐사 체인 유지를 위해 남겨두고 상태 워드만 0으로)
+     */
+    public void remove(String key) {
+        long slot = find(key);
+        if (slot < 0) {
+            return;
+        }
+        for (int word = 0; word < wordsPerKey; word++) {
+            set(slot, word, 0);
+        }
+    }
+    
+    public long get(long slot, int word) {
+        return (long) LONGS.getVolatile(segment(slot), offset(slot, word + 1));
+    }
+    
+    public void set(long slot, int word, long value) {
+        LONGS.setVolatile(segment(slot), offset(slot, word + 1), value);
+    }
+    
+    public boolean compareAndSet(long slot, int word, long expect, long update) {
+        return LONGS.compareAndSet(segment(slot), offset(slot, word + 1), expect, update);
+    }
+    
+    public int getWordsPerKey() {
+        return wordsPerKey;
+    }
+    
+    /**
+     * 전체 슬롯 수
+     */
+    public long getSlotCount() {
+        return slotMask + 1;
+    }
+    
+    /**
+     * 슬롯을 새 키로 교체
+     * 지문을 BUSY로 잠근 뒤 상태 워드를 0으로 초기화하고 새 지문을 기록하여,
+     * 다른 스레드가 이전 키의 상태를 새 키의 상태로 읽지 않도록 함
+     * 재사용하는 슬롯은 잠근 뒤 초기 상태인지 다시 확인 (확인 후 이전 키가 갱신했으면 포기)
+     */
+    private boolean claim(long slot, long expect, long fingerprint) {
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot, 0);
+        if (!LONGS.compareAndSet(segment, offset, expect, BUSY)) {
+            return false;
+        }
+        if (expect != EMPTY) {
+            if (!freshCheck.isFresh(this, slot)) {
+                LONGS.setVolatile(segment, offset, expect);
+                return false;
+            }
+            for (int word = 0; word < wordsPerKey; word++) {
+                set(slot, word, 0);
+            }
+        }
+        LONGS.setVolatile(segment, offset, fingerprint);
+        return true;
+    }
+    
+    private long awaitFingerprint(long slot) {
+        long current;
+        while ((current = fingerprintAt(slot)) == BUSY) {
+            Thread.onSpinWait();
+        }
+        return current;
+    }
+    
+    private long fingerprintAt(long slot) {
+        return (long) LONGS.getVolatile(segment(slot), offset(slot, 0));
+    }
+    
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> segmentShift)];
+    }
+    
+    private int offset(long slot, int word) {
+        return (int) (slot & segmentMask) * slotBytes + word * Long.BYTES;
+    }
+    
+    /**
+     * 키 문자열의 64비트 지문 (FNV-1a + murmur3 finalizer)
+     * EMPTY, BUSY 값과 겹치지 않도록 보정
+     */
+    public static long fingerprint(String key) {
+        long hash = CompactKey.hash(key);
+        return hash == EMPTY || hash == BUSY ? hash + 2 : hash;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.demo.ratelimiter.algo;
+
+import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlidingWindowCounterLimiterTest {
+    
+    private static final String KEY = "client";
+    
+    @Test
+    void weighsOldestSubWindowAndReusesItsSlot() {
+        AtomicLong now = new AtomicLong(0);
+        RateLimitConfig config = RateLimitConfig.forSlidingWindow(4, 1000, 2);
+        SlidingWindowCounterLimiter limiter = new SlidingWindowCounterLimiter(config, false, now::get);
+        
+        assertTrue(limiter.tryAcquire(KEY, config, 4).isAllowed());
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+        
+        // 하위 윈도우 0은 다음 하위 윈도우에서 전부, 그다음 하위 윈도우에서는 겹치는 비율만큼 반영
+        now.set(500);
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+        now.set(1000);
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+        now.set(1250);
+        assertTrue(limiter.tryAcquire(KEY, config, 2).isAllowed());
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+        
+        // 하위 윈도우 3은 하위 윈도우 0의 칸을 재사용 - 이전 카운트는 더 이상 반영되지 않음
+        now.set(1500);
+        assertTrue(limiter.tryAcquire(KEY, config, 2).isAllowed());
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+    }
+    
+    @Test
+    void undoesIncrementOfSubWindowAlreadyReadByNewerRequest() {
+        AtomicLong now = new AtomicLong(999);
+        AtomicReference<Runnable> onClockRead = new AtomicReference<>();
+        LongSupplier clock = () -> {
+            long time = now.get();
+            Runnable hook = onClockRead.getAndSet(null);
+            if (hook != null) {
+                hook.run();
+            }
+            return time;
+        };
+        RateLimitConfig config = RateLimitConfig.forSlidingWindow(1, 1000, 1);
+        SlidingWindowCounterLimiter limiter = new SlidingWindowCounterLimiter(config, false, clock);
+        
+        // 윈도우 0의 요청이 시각을 읽은 직후, 윈도우 1의 요청이 먼저 윈도우 0 칸(비어 있음)을 읽고 허용됨
+        AtomicReference<RateLimitResult> newer = new AtomicReference<>();
+        onClockRead.set(() -> {
+            now.set(1000);
+            newer.set(limiter.tryAcquire(KEY, config));
+        });
+        RateLimitResult late = limiter.tryAcquire(KEY, config);
+        
+        assertTrue(newer.get().isAllowed());
+        // 늦은 요청이 윈도우 0에 남았다면 둘 다 허용되어 한도 1을 초과했을 것
+        assertFalse(late.isAllowed());
+        
+        now.set(1500);
+        assertEquals(0, limiter.getStatus(KEY).getRemainingTokens());
+        now.set(2000);
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+        now.set(2500);
+        assertTrue(limiter.tryAcquire(KEY, config).isAllowed());
+    }
+    
+    @Test
+    void clockSteppingBackCountsAgainstLatestSubWindow() {
+        AtomicLong now = new AtomicLong(5000);
+        RateLimitConfig config = RateLimitConfig.forSlidingWindow(2, 1000, 1);
+        SlidingWindowCounterLimiter limiter = new SlidingWindowCounterLimiter(config, false, now::get);
+        
+        assertTrue(limiter.tryAcquire(KEY, config, 2).isAllowed());
+        
+        // 과거 시각에서도 멈추지 않고 즉시 판정하며, 이미 사용한 한도를 다시 허용하지 않음
+        now.set(3000);
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+        assertEquals(0, limiter.getStatus(KEY).getRemainingTokens());
+        
+        now.set(6000);
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+        now.set(6500);
+        assertTrue(limiter.tryAcquire(KEY, config).isAllowed());
+        assertFalse(limiter.tryAcquire(KEY, config).isAllowed());
+    }
+    
+    @Test
+    void concurrentCallersNeverExceedCapacity() throws InterruptedException {
+        AtomicLong now = new AtomicLong(0);
+        RateLimitConfig config = RateLimitConfig.forSlidingWindow(100, 1000, 4);
+        SlidingWindowCounterLimiter limiter = new SlidingWindowCounterLimiter(config, false, now::get);
+        
+        assertEquals(100, admitConcurrently(limiter, config));
+        
+        // 윈도우 전체가 지나기 전까지는 추가 허용 없음, 가장 오래된 하위 윈도우의 절반이 빠지면 그만큼만 허용
+        now.set(999);
+        assertEquals(0, admitConcurrently(limiter, config));
+        now.set(1125);
+        assertEquals(50, admitConcurrently(limiter, config));
+    }
+    
+    private static int admitConcurrently(SlidingWindowCounterLimiter limiter, RateLimitConfig config) throws InterruptedException {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger allowed = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int attempt = 0; attempt < 100; attempt++) {
+                    if (limiter.tryAcquire(KEY, config).isAllowed()) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return allowed.get();
+    }
+}
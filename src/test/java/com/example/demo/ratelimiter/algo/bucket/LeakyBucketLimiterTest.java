@@ -0,0 +1,153 @@
+package com.example.demo.ratelimiter.algo.bucket;
+
+import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 가상 큐(drainAt) 구현이 요청마다 타임스탬프를 큐에 쌓던 기존 구현과 같은 허용/거부 결정을 내리는지 검증
+ */
+class LeakyBucketLimiterTest {
+    
+    private static final String KEY = "client";
+    private static final int CAPACITY = 4;
+    private static final RateLimitConfig CONFIG = RateLimitConfig.forTokenBucket(CAPACITY, 4);   // 250ms마다 1개 누출
+    private static final long INTERVAL = CONFIG.getRefillIntervalNanos();
+    private static final long ORIGIN = 1_000_000_000L;
+    
+    @Test
+    void matchesQueueAtLeakGridEdges() {
+        long[][] arrivals = {
+            // {origin 기준 도착 시각, permits}
+            {0, 1}, {0, 1}, {0, 2}, {0, 1},
+            {INTERVAL - 1, 1},
+            {INTERVAL, 1}, {INTERVAL, 1},
+            {2 * INTERVAL - 1, 1},
+            {2 * INTERVAL + 1, 2}, {2 * INTERVAL + 1, 1},
+            {4 * INTERVAL, 2}, {4 * INTERVAL, 1}, {4 * INTERVAL, 2},
+            {5 * INTERVAL - 1, 1},
+            {7 * INTERVAL - 1, 3}, {7 * INTERVAL, 3},
+            {20 * INTERVAL + 1, 4}, {20 * INTERVAL + 1, 1},
+            {21 * INTERVAL, 1}, {21 * INTERVAL, 1}
+        };
+        assertSameDecisions(arrivals, 0);
+        assertSameDecisions(arrivals, 16);
+    }
+    
+    @Test
+    void matchesQueueForRandomArrivals() {
+        Random random = new Random(42);
+        long[][] arrivals = new long[2000][];
+        long time = 0;
+        // 누출 격자는 첫 요청 시각(힙 버킷 생성 시각)을 기준으로 하므로 첫 요청은 origin에 도착
+        arrivals[0] = new long[] {0, 1};
+        for (int i = 1; i < arrivals.length; i++) {
+            int kind = random.nextInt(3);
+            if (kind == 1) {
+                time += random.nextLong(2 * INTERVAL);
+            } else if (kind == 2) {
+                // 다음 누출 격자의 직전, 정각, 직후
+                time = (time / INTERVAL + 1 + random.nextInt(2)) * INTERVAL + random.nextInt(3) - 1;
+            }
+            // kind == 0: 직전 요청과 같은 시각에 도착
+            arrivals[i] = new long[] {time, 1 + random.nextInt(CAPACITY)};
+        }
+        assertSameDecisions(arrivals, 0);
+        assertSameDecisions(arrivals, 16);
+    }
+    
+    @Test
+    void fullOffHeapTableDeniesOrTracksNothingByFailOpen() {
+        // 1분에 1개 누출 - 한 번 요청한 키는 테스트 동안 초기 상태로 돌아가지 않음
+        RateLimitConfig config = RateLimitConfig.forTokenBucket(1, 1, 60000);
+        
+        assertTrue(admitNewKeys(config, false) < 32);
+        assertEquals(32, admitNewKeys(config, true));
+    }
+    
+    /**
+     * 최대 1개 키용 off-heap 테이블(슬롯 16칸)에 처음 보는 키 32개를 차례로 요청
+     * @return 허용된 키 수
+     */
+    private static int admitNewKeys(RateLimitConfig config, boolean failOpen) {
+        AtomicLong now = new AtomicLong(ORIGIN);
+        LeakyBucketLimiter limiter = new LeakyBucketLimiter(config, 1, failOpen, now::get);
+        int allowed = 0;
+        for (int i = 0; i < 32; i++) {
+            if (limiter.tryAcquire("client-" + i, config, 1).isAllowed()) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+    
+    private static void assertSameDecisions(long[][] arrivals, int offHeapMaxKeys) {
+        AtomicLong now = new AtomicLong(ORIGIN);
+        LeakyBucketLimiter limiter = new LeakyBucketLimiter(CONFIG, offHeapMaxKeys, false, now::get);
+        QueueLeakyBucket queue = new QueueLeakyBucket(CAPACITY, INTERVAL);
+        List<Boolean> decisions = new ArrayList<>();
+        
+        for (long[] arrival : arrivals) {
+            now.set(ORIGIN + arrival[0]);
+            int permits = (int) arrival[1];
+            boolean expected = queue.tryAdd(arrival[0], permits);
+            RateLimitResult result = limiter.tryAcquire(KEY, CONFIG, permits);
+            
+            String at = "t=" + arrival[0] + ", permits=" + permits + ", offHeapMaxKeys=" + offHeapMaxKeys;
+            assertEquals(expected, result.isAllowed(), at);
+            if (expected) {
+                assertEquals(CAPACITY - queue.size(), result.getRemainingTokens(), at);
+            }
+            decisions.add(expected);
+        }
+        assertTrue(decisions.contains(true) && decisions.contains(false));
+    }
+    
+    /**
+     * 기존 구현의 큐 동작 (요청마다 타임스탬프를 쌓고 누출 간격 격자마다 1개씩 poll)
+     * permits개 요청은 모두 들어갈 자리가 있을 때만 한꺼번에 추가
+     */
+    private static class QueueLeakyBucket {
+        private final ArrayDeque<Long> requests = new ArrayDeque<>();
+        private final int capacity;
+        private final long leakIntervalNanos;
+        private long lastLeakTime;
+        
+        QueueLeakyBucket(int capacity, long leakIntervalNanos) {
+            this.capacity = capacity;
+            this.leakIntervalNanos = leakIntervalNanos;
+        }
+        
+        boolean tryAdd(long now, int permits) {
+            long requestsToLeak = (now - lastLeakTime) / leakIntervalNanos;
+            if (requestsToLeak > 0) {
+                lastLeakTime += requestsToLeak * leakIntervalNanos;
+                for (long i = 0; i < requestsToLeak; i++) {
+                    if (requests.poll() == null) {
+                        break;
+                    }
+                }
+            }
+            if (requests.size() + permits > capacity) {
+                return false;
+            }
+            for (int i = 0; i < permits; i++) {
+                requests.add(now);
+            }
+            return true;
+        }
+        
+        int size() {
+            return requests.size();
+        }
+    }
+}
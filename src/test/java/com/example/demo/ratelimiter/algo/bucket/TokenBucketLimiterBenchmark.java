@@ -0,0 +1,149 @@
+package com.example.demo.ratelimiter.algo.bucket;
+
+import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitResult;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Token Bucket 단일 키 멀티스레드 처리량 벤치마크
+ * 
+ * 모든 스레드가 하나의 키(공유 API 키)에 요청을 보내 초당 처리 횟수를 측정하고,
+ * 두 개의 AtomicLong으로 상태를 나눠 갱신하던 기존 구현(LegacyTokenBucket)과 비교
+ * - unsaturated: 토큰이 모자라지 않아 모든 요청이 허용되는 경우 (허용 경로의 CAS 경합)
+ * - saturated: 초당 5만 요청으로 제한된 키에 그보다 많은 요청이 몰리는 경우
+ *   (기존 구현은 보충이 누락되어 허용 수가 한도보다 훨씬 적으므로 allowed 값도 함께 확인)
+ * 
+ * 실행: ./gradlew tokenBucketBenchmark --args="[스레드 수] [측정 초]"
+ * (테스트 클래스가 아니므로 ./gradlew test에서는 실행되지 않음)
+ */
+public final class TokenBucketLimiterBenchmark {
+    
+    private static final String HOT_KEY = "shared-api-key";
+    private static final RateLimitConfig UNSATURATED = RateLimitConfig.forTokenBucket(Integer.MAX_VALUE, 1);
+    private static final RateLimitConfig SATURATED = RateLimitConfig.forTokenBucket(1000, 50_000);   // 초당 5만 요청
+    
+    private TokenBucketLimiterBenchmark() {
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        
+        System.out.printf("threads=%d, seconds=%d%n", threads, seconds);
+        
+        // 워밍업 (JIT 컴파일)
+        compare("warmup", UNSATURATED, threads, 1);
+        compare("warmup", SATURATED, threads, 1);
+        
+        compare("unsaturated", UNSATURATED, threads, seconds);
+        compare("saturated", SATURATED, threads, seconds);
+    }
+    
+    private static void compare(String scenario, RateLimitConfig config, int threads, int seconds)
+            throws InterruptedException {
+        System.out.printf("[%s] capacity=%d, refillRate=%d/s%n", scenario, config.getCapacity(), config.getRefillRate());
+        LegacyTokenBucket legacyBucket = new LegacyTokenBucket(config);
+        TokenBucketLimiter limiter = new TokenBucketLimiter(config);
+        double legacy = run("legacy", threads, seconds, legacyBucket::tryConsume);
+        double current = run("current", threads, seconds, key -> limiter.tryAcquire(key, config).isAllowed());
+        System.out.printf("  speedup: %.1fx%n", current / legacy);
+    }
+    
+    /**
+     * threads개 스레드가 seconds초 동안 같은 키로 호출한 초당 처리 횟수
+     */
+    private static double run(String name, int threads, int seconds, Predicate<String> acquire)
+            throws InterruptedException {
+        LongAdder calls = new LongAdder();
+        LongAdder allowed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] deadline = new long[1];
+        
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                long localCalls = 0;
+                long localAllowed = 0;
+                long end = deadline[0];
+                while ((localCalls & 0xFF) != 0 || System.nanoTime() < end) {
+                    if (acquire.test(HOT_KEY)) {
+                        localAllowed++;
+                    }
+                    localCalls++;
+                }
+                calls.add(localCalls);
+                allowed.add(localAllowed);
+                done.countDown();
+            });
+            worker.setDaemon(true);
+            worker.start();
+        }
+        
+        deadline[0] = System.nanoTime() + seconds * 1_000_000_000L;
+        start.countDown();
+        done.await();
+        
+        double throughput = calls.sum() / (double) seconds;
+        System.out.printf("  %-8s %,14.0f calls/s  allowed=%,d%n", name, throughput, allowed.sum());
+        return throughput;
+    }
+    
+    /**
+     * 기존 구현 (토큰 수와 마지막 보충 시각을 별도 AtomicLong으로 갱신, CAS 실패 시 재귀 재시도)
+     */
+    private static final class LegacyTokenBucket {
+        private final AtomicLong tokens;
+        private final AtomicLong lastRefillTime;
+        private final RateLimitConfig config;
+        
+        LegacyTokenBucket(RateLimitConfig config) {
+            this.config = config;
+            this.tokens = new AtomicLong(config.getCapacity());
+            this.lastRefillTime = new AtomicLong(System.currentTimeMillis());
+        }
+        
+        boolean tryConsume(String key) {
+            return tryConsume().isAllowed();
+        }
+        
+        private RateLimitResult tryConsume() {
+            refill();
+            
+            long currentTokens = tokens.get();
+            if (currentTokens > 0) {
+                if (tokens.compareAndSet(currentTokens, currentTokens - 1)) {
+                    return RateLimitResult.allowed(currentTokens - 1, lastRefillTime.get() + 1000, "TOKEN_BUCKET",
+                        "Token consumed successfully");
+                }
+                return tryConsume();
+            }
+            return RateLimitResult.denied(0, lastRefillTime.get() + 1000, "TOKEN_BUCKET", "No tokens available");
+        }
+        
+        private void refill() {
+            long now = System.currentTimeMillis();
+            long lastRefill = lastRefillTime.get();
+            
+            if (now > lastRefill) {
+                long tokensToAdd = ((now - lastRefill) / 1000) * config.getRefillRate();
+                if (tokensToAdd > 0) {
+                    long currentTokens = tokens.get();
+                    long newTokens = Math.min(config.getCapacity(), currentTokens + tokensToAdd);
+                    if (tokens.compareAndSet(currentTokens, newTokens)) {
+                        lastRefillTime.set(now);
+                    }
+                }
+            }
+        }
+    }
+}
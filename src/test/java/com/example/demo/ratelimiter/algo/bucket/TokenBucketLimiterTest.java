@@ -0,0 +1,118 @@
+package com.example.demo.ratelimiter.algo.bucket;
+
+import com.example.demo.ratelimiter.common.RateLimitConfig;
+import com.example.demo.ratelimiter.common.RateLimitResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * GCRA 방식(base 하나로 토큰 수를 표현) Token Bucket의 예약, 인터럽트 시 반환, off-heap(fullAt) 경로 검증
+ */
+class TokenBucketLimiterTest {
+    
+    private static final String KEY = "client";
+    private static final RateLimitConfig CONFIG = RateLimitConfig.forTokenBucket(3, 1);   // 1초마다 1개 보충
+    private static final long INTERVAL = CONFIG.getRefillIntervalNanos();
+    private static final long ORIGIN = 1_000_000_000L;
+    private static final long SLOW_PERIOD_MS = 60000;
+    private static final RateLimitConfig SLOW = RateLimitConfig.forTokenBucket(2, 1, SLOW_PERIOD_MS);   // 1분마다 1개 보충
+    
+    @Test
+    void freshKeyStartsFullAndRefillsUpToCapacity() {
+        assertRefills(0);
+        assertRefills(16);
+    }
+    
+    @Test
+    void waitersReserveRefillsInOrderAndInterruptRefundsReservation() throws InterruptedException {
+        assertReservesAndRefunds(0);
+        assertReservesAndRefunds(16);
+    }
+    
+    /**
+     * 힙 버킷(base)과 off-heap 슬롯(fullAt = base + burst)이 같은 보충 결과를 내는지 확인
+     * off-heap에서는 0으로 초기화된 새 슬롯(fullAt = 0)이 곧 가득 찬 버킷
+     */
+    private static void assertRefills(int offHeapMaxKeys) {
+        AtomicLong now = new AtomicLong(ORIGIN);
+        TokenBucketLimiter limiter = new TokenBucketLimiter(CONFIG, offHeapMaxKeys, false, now::get);
+        String at = "offHeapMaxKeys=" + offHeapMaxKeys;
+        
+        assertEquals(3, limiter.getStatus(KEY).getRemainingTokens(), at);
+        RateLimitResult result = limiter.tryAcquire(KEY, 2);
+        assertTrue(result.isAllowed(), at);
+        assertEquals(1, result.getRemainingTokens(), at);
+        assertFalse(limiter.tryAcquire(KEY, 2).isAllowed(), at);
+        
+        // 보충 간격이 지나기 직전에는 1개뿐, 정각에 2개
+        now.addAndGet(INTERVAL - 1);
+        assertFalse(limiter.tryAcquire(KEY, 2).isAllowed(), at);
+        now.addAndGet(1);
+        result = limiter.tryAcquire(KEY, 2);
+        assertTrue(result.isAllowed(), at);
+        assertEquals(0, result.getRemainingTokens(), at);
+        
+        // 오래 쉬어도 용량 이상으로 쌓이지 않음
+        now.addAndGet(100 * INTERVAL);
+        assertEquals(3, limiter.getStatus(KEY).getRemainingTokens(), at);
+        assertTrue(limiter.tryAcquire(KEY, 3).isAllowed(), at);
+        assertFalse(limiter.tryAcquire(KEY).isAllowed(), at);
+        
+        // 용량보다 많은 요청은 기다려도 허용될 수 없음
+        assertEquals(-1, limiter.tryAcquire(KEY, 4).getRetryAfterMs(), at);
+    }
+    
+    /**
+     * 시각을 멈춰 두어 대기자는 인터럽트될 때까지 예약한 채로 park
+     * 대기 없는 요청의 거부 결과(resetTime = 다음 예약 가능 시각)로 예약 상태를 확인
+     */
+    private static void assertReservesAndRefunds(int offHeapMaxKeys) throws InterruptedException {
+        AtomicLong now = new AtomicLong(System.nanoTime());
+        TokenBucketLimiter limiter = new TokenBucketLimiter(SLOW, offHeapMaxKeys, false, now::get);
+        String at = "offHeapMaxKeys=" + offHeapMaxKeys;
+        
+        assertTrue(limiter.tryAcquire(KEY, 2).isAllowed(), at);
+        long firstRefill = limiter.tryAcquire(KEY).getResetTime();
+        
+        // 대기자는 예약 순서대로 다음 보충분을 차지
+        AtomicReference<RateLimitResult> first = new AtomicReference<>();
+        Thread firstWaiter = startWaiter(limiter, first);
+        awaitNextRefill(limiter, firstRefill + SLOW_PERIOD_MS, at);
+        AtomicReference<RateLimitResult> second = new AtomicReference<>();
+        Thread secondWaiter = startWaiter(limiter, second);
+        awaitNextRefill(limiter, firstRefill + 2 * SLOW_PERIOD_MS, at);
+        
+        // 먼저 예약한 대기자가 인터럽트되면 예약분을 돌려놓고, 뒤의 예약은 그대로 둔 채 전체가 한 칸 당겨짐
+        firstWaiter.interrupt();
+        firstWaiter.join(5000);
+        assertFalse(first.get().isAllowed(), at);
+        assertEquals("Interrupted while waiting for tokens", first.get().getMessage(), at);
+        assertEquals(firstRefill + SLOW_PERIOD_MS, limiter.tryAcquire(KEY).getResetTime(), at);
+        
+        secondWaiter.interrupt();
+        secondWaiter.join(5000);
+        assertFalse(second.get().isAllowed(), at);
+        assertEquals(firstRefill, limiter.tryAcquire(KEY).getResetTime(), at);
+    }
+    
+    private static Thread startWaiter(TokenBucketLimiter limiter, AtomicReference<RateLimitResult> result) {
+        Thread waiter = new Thread(() -> result.set(limiter.tryAcquire(KEY, 1, 10, TimeUnit.MINUTES)));
+        waiter.start();
+        return waiter;
+    }
+    
+    private static void awaitNextRefill(TokenBucketLimiter limiter, long expected, String at) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.tryAcquire(KEY).getResetTime() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, limiter.tryAcquire(KEY).getResetTime(), at);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.demo.ratelimiter.common;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedisDenialCacheTest {
+    
+    private final RedisDenialCache cache = new RedisDenialCache(new SimpleMeterRegistry(), true, 100, 10000);
+    private final RateLimitConfig config = RateLimitConfig.forWindow(1, 60000);
+    
+    private static RateLimitResult denied() {
+        return RateLimitResult.denied(0, System.currentTimeMillis() + 5000, 5000, "TEST", "denied");
+    }
+    
+    @Test
+    void acquireEachSendsOnlyKeysWithoutRecordedDenial() {
+        cache.acquireEach(List.of("a", "b"), config, 1, pending -> List.of(RateLimitResult.allowed(0, 0, "TEST"), denied()));
+        
+        List<List<String>> executed = new ArrayList<>();
+        List<RateLimitResult> results = cache.acquireEach(List.of("a", "b", "c"), config, 1, pending -> {
+            executed.add(pending);
+            return List.of(denied(), RateLimitResult.allowed(0, 0, "TEST"));
+        });
+        
+        assertEquals(List.of(List.of("a", "c")), executed);
+        assertEquals(3, results.size());
+        assertFalse(results.get(0).isAllowed());
+        assertFalse(results.get(1).isAllowed());
+        assertTrue(results.get(2).isAllowed());
+    }
+    
+    @Test
+    void acquireEachRecordsDenialsFromRedis() {
+        cache.acquireEach(List.of("a"), config, 1, pending -> List.of(denied()));
+        
+        assertFalse(cache.check("a", config, 1).isAllowed());
+        List<RateLimitResult> results = cache.acquireEach(List.of("a"), config, 1, pending -> {
+            throw new AssertionError("거부가 기록된 키는 Redis를 호출하지 않아야 함");
+        });
+        assertFalse(results.get(0).isAllowed());
+    }
+}
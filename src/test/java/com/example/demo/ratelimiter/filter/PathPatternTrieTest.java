@@ -0,0 +1,86 @@
+package com.example.demo.ratelimiter.filter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PathPatternTrieTest {
+    
+    @Test
+    void literalWinsOverSingleAndMultiWildcard() {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        trie.add("/api/**", List.of(), "multi");
+        trie.add("/api/*", List.of(), "single");
+        trie.add("/api/login", List.of(), "literal");
+        
+        assertEquals("literal", trie.match("/api/login", "POST"));
+        assertEquals("single", trie.match("/api/users", "GET"));
+        assertEquals("multi", trie.match("/api/users/1", "GET"));
+    }
+    
+    @Test
+    void variableSegmentMatchesOneSegment() {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        trie.add("/api/users/{id}", List.of(), "user");
+        
+        assertEquals("user", trie.match("/api/users/42", "GET"));
+        assertNull(trie.match("/api/users", "GET"));
+        assertNull(trie.match("/api/users/42/orders", "GET"));
+    }
+    
+    @Test
+    void multiWildcardMatchesZeroSegments() {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        trie.add("/api/**", List.of(), "api");
+        trie.add("/files/**/meta", List.of(), "meta");
+        
+        assertEquals("api", trie.match("/api", "GET"));
+        assertEquals("api", trie.match("/api/", "GET"));
+        assertEquals("meta", trie.match("/files/meta", "GET"));
+        assertEquals("meta", trie.match("/files/a/b/meta", "GET"));
+        assertNull(trie.match("/files/a/b", "GET"));
+    }
+    
+    @Test
+    void fallsBackToLessSpecificPatternWhenDeeperMatchFails() {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        trie.add("/api/login/confirm", List.of(), "confirm");
+        trie.add("/api/**", List.of(), "api");
+        
+        assertEquals("api", trie.match("/api/login", "GET"));
+        assertEquals("confirm", trie.match("/api/login/confirm", "GET"));
+    }
+    
+    @Test
+    void filtersByMethod() {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        trie.add("/api/login", List.of("post"), "login-post");
+        trie.add("/api/login", List.of(), "login-any");
+        trie.add("/api/orders", List.of("PUT", "DELETE"), "orders-write");
+        
+        assertEquals("login-post", trie.match("/api/login", "POST"));
+        assertEquals("login-any", trie.match("/api/login", "GET"));
+        assertEquals("orders-write", trie.match("/api/orders", "DELETE"));
+        assertNull(trie.match("/api/orders", "GET"));
+    }
+    
+    @Test
+    void methodMismatchFallsBackToWildcard() {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        trie.add("/api/login", List.of("POST"), "login-post");
+        trie.add("/api/*", List.of(), "single");
+        
+        assertEquals("single", trie.match("/api/login", "GET"));
+    }
+    
+    @Test
+    void rejectsPatternWithoutLeadingSlash() {
+        PathPatternTrie<String> trie = new PathPatternTrie<>();
+        
+        assertThrows(IllegalArgumentException.class, () -> trie.add("api/**", List.of(), "api"));
+    }
+}
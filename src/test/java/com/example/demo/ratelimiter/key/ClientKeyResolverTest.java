@@ -0,0 +1,70 @@
+package com.example.demo.ratelimiter.key;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ClientKeyResolverTest {
+    
+    private final ClientKeyResolver resolver = new ClientKeyResolver(List.of("10.0.0.0/8", "::1/128"));
+    
+    private static MockHttpServletRequest request(String remoteAddr, String... xForwardedFor) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(remoteAddr);
+        for (String line : xForwardedFor) {
+            request.addHeader("X-Forwarded-For", line);
+        }
+        return request;
+    }
+    
+    @Test
+    void ignoresForwardedHeaderFromUntrustedPeer() {
+        assertEquals("203.0.113.9", resolver.clientIp(request("203.0.113.9", "198.51.100.1")));
+    }
+    
+    @Test
+    void takesRightmostUntrustedAddress() {
+        // 클라이언트가 붙인 왼쪽 값(1.1.1.1)은 무시
+        assertEquals("198.51.100.1", resolver.clientIp(request("10.0.0.1", "1.1.1.1, 198.51.100.1, 10.0.0.2")));
+    }
+    
+    @Test
+    void usesLeftmostAddressWhenAllAreTrusted() {
+        assertEquals("10.0.0.3", resolver.clientIp(request("10.0.0.1", "10.0.0.3, 10.0.0.2")));
+    }
+    
+    @Test
+    void walksMultipleHeaderLinesFromTheLast() {
+        // 마지막 줄이 가장 가까운 프록시가 붙인 값
+        MockHttpServletRequest request = request("10.0.0.1", "1.1.1.1, 198.51.100.1", "10.0.0.5");
+        
+        assertEquals("198.51.100.1", resolver.clientIp(request));
+    }
+    
+    @Test
+    void prefersUntrustedAddressInLastHeaderLine() {
+        MockHttpServletRequest request = request("10.0.0.1", "1.1.1.1", "198.51.100.2, 10.0.0.5");
+        
+        assertEquals("198.51.100.2", resolver.clientIp(request));
+    }
+    
+    @Test
+    void usesLeftmostAddressOfFirstLineWhenAllLinesAreTrusted() {
+        MockHttpServletRequest request = request("10.0.0.1", "10.0.0.7, 10.0.0.6", "10.0.0.5");
+        
+        assertEquals("10.0.0.7", resolver.clientIp(request));
+    }
+    
+    @Test
+    void skipsEmptyEntriesAndWhitespace() {
+        assertEquals("198.51.100.3", resolver.clientIp(request("::1", " 198.51.100.3 ,, 10.0.0.2 ")));
+    }
+    
+    @Test
+    void fallsBackToRemoteAddrWithoutForwardedHeader() {
+        assertEquals("10.0.0.1", resolver.clientIp(request("10.0.0.1")));
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.demo.ratelimiter.key;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrustedProxiesTest {
+    
+    private static boolean contains(TrustedProxies proxies, String address) {
+        return proxies.contains(address, 0, address.length());
+    }
+    
+    @Test
+    void matchesIpv4Cidr() {
+        TrustedProxies proxies = new TrustedProxies(List.of("10.0.0.0/8", "192.168.1.10"));
+        
+        assertTrue(contains(proxies, "10.1.2.3"));
+        assertTrue(contains(proxies, "192.168.1.10"));
+        assertFalse(contains(proxies, "11.0.0.1"));
+        assertFalse(contains(proxies, "192.168.1.11"));
+    }
+    
+    @Test
+    void ignoresIpv4Port() {
+        TrustedProxies proxies = new TrustedProxies(List.of("10.0.0.0/8"));
+        
+        assertTrue(contains(proxies, "10.0.0.1:8080"));
+        assertFalse(contains(proxies, "11.0.0.1:8080"));
+    }
+    
+    @Test
+    void rejectsMalformedIpv4() {
+        TrustedProxies proxies = new TrustedProxies(List.of("0.0.0.0/0"));
+        
+        assertFalse(contains(proxies, "10.0.0"));
+        assertFalse(contains(proxies, "10.0.0.256"));
+        assertFalse(contains(proxies, "10.0.0.1."));
+        assertFalse(contains(proxies, "proxy.example.com"));
+    }
+    
+    @Test
+    void matchesIpv6Cidr() {
+        TrustedProxies proxies = new TrustedProxies(List.of("2001:db8::/32", "::1/128"));
+        
+        assertTrue(contains(proxies, "2001:db8:0:0:0:0:0:1"));
+        assertTrue(contains(proxies, "2001:DB8::abcd"));
+        assertTrue(contains(proxies, "::1"));
+        assertFalse(contains(proxies, "2001:db9::1"));
+        assertFalse(contains(proxies, "::2"));
+    }
+    
+    @Test
+    void matchesUnspecifiedIpv6Address() {
+        TrustedProxies proxies = new TrustedProxies(List.of("::/128"));
+        
+        assertTrue(contains(proxies, "::"));
+        assertTrue(contains(proxies, "0:0:0:0:0:0:0:0"));
+        assertFalse(contains(proxies, "::1"));
+    }
+    
+    @Test
+    void ignoresIpv6ZoneAndPort() {
+        TrustedProxies proxies = new TrustedProxies(List.of("fe80::/10", "::1/128"));
+        
+        assertTrue(contains(proxies, "fe80::1%eth0"));
+        assertTrue(contains(proxies, "[::1]:8080"));
+        assertTrue(contains(proxies, "[fe80::1%eth0]:443"));
+        assertFalse(contains(proxies, "[::2]:8080"));
+    }
+    
+    @Test
+    void matchesIpv4MappedIpv6Address() {
+        TrustedProxies proxies = new TrustedProxies(List.of("::ffff:10.0.0.0/104"));
+        
+        assertTrue(contains(proxies, "::ffff:10.1.2.3"));
+        assertFalse(contains(proxies, "::ffff:11.1.2.3"));
+    }
+    
+    @Test
+    void rejectsMalformedIpv6() {
+        TrustedProxies proxies = new TrustedProxies(List.of("::/0"));
+        
+        assertFalse(contains(proxies, "1::2::3"));
+        assertFalse(contains(proxies, ":1:2"));
+        assertFalse(contains(proxies, "1:2:3:4:5:6:7:8:9"));
+        assertFalse(contains(proxies, "12345::1"));
+    }
+    
+    @Test
+    void checksOnlyTheGivenRange() {
+        TrustedProxies proxies = new TrustedProxies(List.of("10.0.0.0/8"));
+        String header = "203.0.113.7, 10.0.0.1";
+        
+        assertFalse(proxies.contains(header, 0, 11));
+        assertTrue(proxies.contains(header, 13, header.length()));
+    }
+    
+    @Test
+    void rejectsInvalidCidr() {
+        assertThrows(IllegalArgumentException.class, () -> new TrustedProxies(List.of("10.0.0.0/33")));
+        assertThrows(IllegalArgumentException.class, () -> new TrustedProxies(List.of("proxy.example.com")));
+    }
+}
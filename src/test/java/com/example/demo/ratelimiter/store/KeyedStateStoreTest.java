@@ -0,0 +1,68 @@
+package com.example.demo.ratelimiter.store;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class KeyedStateStoreTest {
+    
+    private static final class State implements ExpirableState {
+        private volatile boolean fresh;
+        
+        @Override
+        public boolean isFresh() {
+            return fresh;
+        }
+    }
+    
+    private static KeyedStateStore<State> fullStore(boolean failOpen) {
+        KeyedStateStore<State> store = new KeyedStateStore<>(2, failOpen);
+        store.getOrCreate("a", k -> new State());
+        store.getOrCreate("b", k -> new State());
+        return store;
+    }
+    
+    @Test
+    void failClosedRefusesNewKeyWhenFullOfLimitedStates() {
+        KeyedStateStore<State> store = fullStore(false);
+        
+        assertNull(store.getOrCreate("c", k -> new State()));
+        assertFalse(store.put("c", new State()));
+        assertEquals(2, store.size());
+        assertNotNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+    
+    @Test
+    void failOpenReturnsUntrackedStateWhenFullOfLimitedStates() {
+        KeyedStateStore<State> store = fullStore(true);
+        
+        State first = store.getOrCreate("c", k -> new State());
+        State second = store.getOrCreate("c", k -> new State());
+        assertNotNull(first);
+        assertNotSame(first, second);
+        assertNull(store.get("c"));
+        assertFalse(store.put("c", new State()));
+        assertEquals(2, store.size());
+        assertNotNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+    
+    @Test
+    void sweepsFreshStateToMakeRoom() {
+        for (boolean failOpen : new boolean[] {false, true}) {
+            KeyedStateStore<State> store = fullStore(failOpen);
+            store.get("a").fresh = true;
+            
+            State created = store.getOrCreate("c", k -> new State());
+            assertSame(created, store.get("c"));
+            assertNull(store.get("a"));
+            assertEquals(2, store.size());
+        }
+    }
+}